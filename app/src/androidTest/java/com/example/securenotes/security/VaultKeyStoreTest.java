@@ -0,0 +1,69 @@
+package com.example.securenotes.security;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import javax.crypto.SecretKey;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Verifica VaultKeyStore sul Keystore del dispositivo: dopo la rotazione della KEK la DEK è la stessa e una nota
+ * cifrata prima della rotazione (chiave dati cifrata con la DEK) si decifra ancora in una nuova sessione.
+ * Distrugge le chiavi del vault dell'app: da eseguire solo su un dispositivo di test.
+ */
+@RunWith(AndroidJUnit4.class)
+public class VaultKeyStoreTest {
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        VaultKeyStore.destroy(context);
+    }
+
+    @After
+    public void tearDown() {
+        VaultKeyStore.destroy(context);
+    }
+
+    @Test
+    public void rotateKeyEncryptionKey_notesStillDecrypt() throws Exception {
+        SecretKey dek = VaultKeyStore.loadOrCreateDataEncryptionKey(context);
+        SecretKey noteKey = DataKeys.generate();
+        byte[] wrappedNoteKey = DataKeys.wrap(noteKey, dek);
+        byte[] content = "nota cifrata prima della rotazione".getBytes(StandardCharsets.UTF_8);
+        byte[] encrypted = AeadCodec.encrypt(content, noteKey);
+
+        VaultKeyStore.rotateKeyEncryptionKey(context, dek);
+        VaultKeyStore.rotateKeyEncryptionKey(context, dek);
+
+        SecretKey reloaded = VaultKeyStore.loadOrCreateDataEncryptionKey(context);
+        assertArrayEquals(dek.getEncoded(), reloaded.getEncoded());
+        SecretKey reloadedNoteKey = DataKeys.keyFor(wrappedNoteKey, reloaded);
+        assertEquals(new String(content, StandardCharsets.UTF_8),
+                new String(AeadCodec.decrypt(encrypted, reloadedNoteKey), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void destroy_createsNewDataEncryptionKey() throws Exception {
+        SecretKey dek = VaultKeyStore.loadOrCreateDataEncryptionKey(context);
+        VaultKeyStore.destroy(context);
+        SecretKey fresh = VaultKeyStore.loadOrCreateDataEncryptionKey(context);
+        assertEquals(32, fresh.getEncoded().length);
+        assertFalse(Arrays.equals(dek.getEncoded(), fresh.getEncoded()));
+    }
+}
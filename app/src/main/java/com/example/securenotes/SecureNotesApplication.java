@@ -13,8 +13,17 @@ import androidx.work.WorkManager;
 
 
 
+import com.example.securenotes.data.provider.ArchiveContentProvider;
+import com.example.securenotes.data.receiver.SelfDestructScheduler;
+import com.example.securenotes.data.repository.DecryptedNoteCache;
+import com.example.securenotes.data.repository.FileArchiveRepository;
+import com.example.securenotes.data.repository.SearchResultCache;
+import com.example.securenotes.data.search.TrigramIndex;
+import com.example.securenotes.security.DecryptedSegmentCache;
+import com.example.securenotes.security.SessionKeyVault;
 import com.example.securenotes.security.SessionManager;
 import com.example.securenotes.ui.login.LoginActivity;
+import com.example.securenotes.utils.AppExecutors;
 import com.example.securenotes.utils.Constants;
 
 import java.util.concurrent.TimeUnit;
@@ -42,7 +51,20 @@ public class SecureNotesApplication extends Application {
             startActivity(intent);
         });
 
+        // Al logout nessuna nota in chiaro e nessuna chiave derivata devono restare in memoria
+        sessionManager.addLogoutListener(() -> DecryptedNoteCache.getInstance().clear());
+        sessionManager.addLogoutListener(SearchResultCache::clearIfInitialized);
+        sessionManager.addLogoutListener(() -> TrigramIndex.getInstance().clear());
+        sessionManager.addLogoutListener(ArchiveContentProvider::closeAll);
+        sessionManager.addLogoutListener(() -> DecryptedSegmentCache.getInstance().clear());
+        sessionManager.addLogoutListener(() -> SessionKeyVault.getInstance().wipe());
 
+        // L'allarme di autodistruzione vive solo nell'AlarmManager: lo ricostruisce dal database
+        // (dopo un aggiornamento, un force-stop o un ripristino da backup non c'è più)
+        new SelfDestructScheduler(this).scheduleNextAsync();
+
+        // Nessun file in chiaro su disco: rimuove quelli rimasti da versioni precedenti o da un crash
+        AppExecutors.getInstance().background().execute(() -> FileArchiveRepository.cleanTempDecryptedFiles(this));
 
 
     }
@@ -16,6 +16,10 @@ public interface ArchivedFileDao {
     @Insert
     long insert(ArchivedFile archivedFile);
 
+    // Un'unica transazione per lotto di importazione: una sola invalidazione della lista
+    @Insert
+    List<Long> insertAll(List<ArchivedFile> archivedFiles);
+
     @Update
     void update(ArchivedFile archivedFile);
 
@@ -32,4 +36,11 @@ public interface ArchivedFileDao {
 
     @Query("SELECT * FROM archived_files WHERE id = :fileId LIMIT 1")
     ArchivedFile getArchivedFileById(int fileId);
+
+    // Nomi dei file cifrati ancora referenziati: gli altri file in encrypted_files sono orfani
+    @Query("SELECT encrypted_filename FROM archived_files")
+    List<String> getAllEncryptedFilenames();
+
+    @Query("DELETE FROM archived_files")
+    void deleteAll();
 }
\ No newline at end of file
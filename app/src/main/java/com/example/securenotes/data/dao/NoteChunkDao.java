@@ -0,0 +1,27 @@
+package com.example.securenotes.data.dao;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import com.example.securenotes.data.model.NoteChunk;
+
+import java.util.List;
+
+@Dao
+public interface NoteChunkDao {
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void upsertChunks(List<NoteChunk> chunks);
+
+    // Solo gli HMAC, in ordine di indice: servono a capire quali blocchi sono cambiati
+    @Query("SELECT digest FROM note_chunks WHERE note_id = :noteId ORDER BY chunk_index")
+    List<byte[]> getChunkDigests(int noteId);
+
+    // Un blocco per query: la lettura di una nota lunga non passa mai da un'unica CursorWindow
+    @Query("SELECT data FROM note_chunks WHERE note_id = :noteId AND chunk_index = :chunkIndex")
+    byte[] getChunkData(int noteId, int chunkIndex);
+
+    @Query("DELETE FROM note_chunks WHERE note_id = :noteId AND chunk_index >= :fromIndex")
+    void deleteChunksFrom(int noteId, int fromIndex);
+}
@@ -1,6 +1,6 @@
 package com.example.securenotes.data.dao;
 
-import androidx.lifecycle.LiveData;
+import androidx.paging.PagingSource;
 import androidx.room.Dao;
 import androidx.room.Delete;
 import androidx.room.Insert;
@@ -8,6 +8,7 @@ import androidx.room.Query;
 import androidx.room.Update;
 
 import com.example.securenotes.data.model.Note;
+import com.example.securenotes.data.model.NoteSummary;
 
 import java.util.List;
 
@@ -22,28 +23,71 @@ public interface NoteDao {
     @Delete
     void delete(Note note);
 
-    @Query("SELECT * FROM notes ORDER BY timestamp DESC")
-    LiveData<List<Note>> getAllNotes();             //liveData = osservabile in tempo reale
+    // Sorgente paginata: Room carica solo le pagine vicine alla viewport e si invalida ad ogni modifica di notes.
+    // Legge solo le colonne della card: il corpo cifrato non viene mai caricato dalla lista.
+    @Query("SELECT id, title, timestamp, self_destruct_timestamp, tags, encrypted_preview, wrapped_key FROM notes ORDER BY timestamp DESC")
+    PagingSource<Integer, NoteSummary> getNoteSummariesPagingSource();
+
+    @Query("DELETE FROM notes WHERE id = :noteId")
+    void deleteById(int noteId);
+
+    // Wipe completo: token, tag e blocchi vengono eliminati a cascata
+    @Query("DELETE FROM notes")
+    void deleteAll();
+
+    // Note salvate prima dell'introduzione dell'anteprima cifrata
+    @Query("SELECT * FROM notes WHERE encrypted_preview IS NULL AND id > :afterId ORDER BY id LIMIT :limit")
+    List<Note> getNotesWithoutPreview(int afterId, int limit);
+
+    @Query("UPDATE notes SET encrypted_preview = :encryptedPreview WHERE id = :noteId")
+    void updatePreview(int noteId, byte[] encryptedPreview);
 
     @Query("SELECT * FROM notes ORDER BY timestamp DESC")
     List<Note> getAllNotesListBlocking();
 
-    @Query("SELECT * FROM notes WHERE self_destruct_timestamp > 0 AND self_destruct_timestamp <= :currentTime")
-    List<Note> getExpiredNotes(long currentTime);
+    // Note scadute: solo gli id (servono per annullare gli allarmi e svuotare le cache), mai il ciphertext
+    @Query("SELECT id FROM notes WHERE self_destruct_timestamp > 0 AND self_destruct_timestamp <= :currentTime")
+    List<Integer> getExpiredNoteIds(long currentTime);
 
-    // Query per filtrare le note per tag (esempio, useremo in NotesFragment)
-    @Query("SELECT * FROM notes WHERE tags LIKE '%' || :tag || '%' ORDER BY timestamp DESC")
-    LiveData<List<Note>> getNotesByTag(String tag);
+    // Prossima scadenza di autodistruzione (anche già passata), null se nessuna nota ce l'ha; usa l'indice
+    @Query("SELECT MIN(self_destruct_timestamp) FROM notes WHERE self_destruct_timestamp > 0")
+    Long getNextSelfDestructTimestamp();
 
+    // Ultima scadenza non oltre upTo: l'allarme scatta lì e raccoglie anche quelle precedenti
+    @Query("SELECT MAX(self_destruct_timestamp) FROM notes WHERE self_destruct_timestamp > 0 AND self_destruct_timestamp <= :upTo")
+    Long getLastSelfDestructTimestampUpTo(long upTo);
 
-    @Query("SELECT * FROM notes WHERE tags LIKE :query || '%' ORDER BY timestamp DESC")
-    LiveData<List<Note>> searchNotes(String query); // Restituisce LiveData
+    // Cancellazione in blocco: va eseguita nella stessa transazione di getExpiredNoteIds
+    @Query("DELETE FROM notes WHERE self_destruct_timestamp > 0 AND self_destruct_timestamp <= :currentTime")
+    int deleteExpiredNotes(long currentTime);
 
+    // Il filtro per tag è in TagDao (join su note_tags)
 
-    // Metodo di ricerca bloccante (utile per il BackupManager)
+    // Le ricerche sono bloccanti: le esegue (e le annulla) la pipeline di ricerca su un thread in background
+
+    // Ricerca nel contenuto tramite l'indice cifrato: una nota corrisponde se contiene tutti i token della query
+    // (o se i tag iniziano con la query, come nella ricerca per tag)
+    @Query("SELECT * FROM notes WHERE id IN (SELECT note_id FROM note_search_index WHERE token IN (:tokens) " +
+            "GROUP BY note_id HAVING COUNT(DISTINCT token) = :tokenCount) " +
+            "OR tags LIKE :query || '%' ORDER BY timestamp DESC")
+    List<Note> searchNotesByTokensBlocking(String query, List<byte[]> tokens, int tokenCount);
+
+    // Query troppo corte per l'indice: solo i tag
     @Query("SELECT * FROM notes WHERE tags LIKE :query || '%' ORDER BY timestamp DESC")
     List<Note> searchNotesListBlocking(String query);
 
+    // Chiave dati della nota: l'aggiornamento la riusa, così i blocchi invariati restano decifrabili
+    @Query("SELECT wrapped_key FROM notes WHERE id = :noteId")
+    byte[] getWrappedKey(int noteId);
+
     @Query("SELECT * FROM notes WHERE id = :noteId")
     Note getNoteById(int noteId);
+
+    // Risultati dell'indice a trigrammi; l'ordine di rilevanza viene ricostruito dal chiamante
+    @Query("SELECT * FROM notes WHERE id IN (:noteIds)")
+    List<Note> getNotesByIds(List<Integer> noteIds);
+
+    // Scansione a blocchi per id, usata per costruire l'indice a trigrammi della sessione
+    @Query("SELECT * FROM notes WHERE id > :afterId ORDER BY id LIMIT :limit")
+    List<Note> getNotesAfterId(int afterId, int limit);
 }
\ No newline at end of file
@@ -0,0 +1,39 @@
+package com.example.securenotes.data.dao;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+import androidx.room.Transaction;
+
+import com.example.securenotes.data.model.Note;
+import com.example.securenotes.data.model.NoteSearchToken;
+
+import java.util.List;
+
+// Classe astratta (e non interfaccia) per poter avere il metodo @Transaction replaceTokens
+@Dao
+public abstract class NoteSearchIndexDao {
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    public abstract void insertAll(List<NoteSearchToken> tokens);
+
+    @Query("DELETE FROM note_search_index WHERE note_id = :noteId")
+    public abstract void deleteTokensForNote(int noteId);
+
+    // Reindicizza una nota: i token della versione precedente vengono sostituiti in blocco
+    @Transaction
+    public void replaceTokens(int noteId, List<NoteSearchToken> tokens) {
+        deleteTokensForNote(noteId);
+        if (!tokens.isEmpty()) {
+            insertAll(tokens);
+        }
+    }
+
+    // Note mai indicizzate (create prima dell'indice o con contenuto vuoto), a blocchi per il backfill
+    @Query("SELECT * FROM notes WHERE id > :afterId AND id NOT IN (SELECT DISTINCT note_id FROM note_search_index) ORDER BY id LIMIT :limit")
+    public abstract List<Note> getUnindexedNotes(int afterId, int limit);
+
+    @Query("SELECT COUNT(*) FROM note_search_index")
+    public abstract int countTokens();
+}
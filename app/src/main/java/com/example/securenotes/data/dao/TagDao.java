@@ -0,0 +1,75 @@
+package com.example.securenotes.data.dao;
+
+import androidx.lifecycle.LiveData;
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+import androidx.room.Transaction;
+
+import com.example.securenotes.data.model.Note;
+import com.example.securenotes.data.model.NoteTag;
+import com.example.securenotes.data.model.Tag;
+import com.example.securenotes.data.model.TagCount;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Classe astratta per il metodo @Transaction setTagsForNote
+@Dao
+public abstract class TagDao {
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    public abstract long insertTag(Tag tag);
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    public abstract void insertNoteTags(List<NoteTag> noteTags);
+
+    @Query("SELECT id FROM tags WHERE name = :name")            //usa l'indice unico; name già normalizzato (Tag.normalizeName)
+    public abstract Long getTagIdByName(String name);
+
+    @Query("DELETE FROM note_tags WHERE note_id = :noteId")
+    public abstract void clearTagsForNote(int noteId);
+
+    // Tag non più usati da nessuna nota
+    @Query("DELETE FROM tags WHERE id NOT IN (SELECT tag_id FROM note_tags)")
+    public abstract void deleteUnusedTags();
+
+    // Sostituisce i tag della nota con quelli indicati (nomi già divisi con Tag.parseTagNames)
+    @Transaction
+    public void setTagsForNote(int noteId, List<String> tagNames) {
+        clearTagsForNote(noteId);
+        List<NoteTag> noteTags = new ArrayList<>(tagNames.size());
+        for (String name : tagNames) {
+            long tagId = insertTag(new Tag(name));
+            if (tagId == -1) {                              //già presente: IGNORE restituisce -1
+                tagId = getTagIdByName(name);
+            }
+            noteTags.add(new NoteTag(noteId, tagId));
+        }
+        insertNoteTags(noteTags);
+        deleteUnusedTags();
+    }
+
+    // Note con un tag (confronto esatto, non per sottostringa): indice unico su tags.name + indice su note_tags.tag_id
+    @Query("SELECT notes.* FROM notes " +
+            "INNER JOIN note_tags ON note_tags.note_id = notes.id " +
+            "INNER JOIN tags ON tags.id = note_tags.tag_id " +
+            "WHERE tags.name = :tagName ORDER BY notes.timestamp DESC")
+    public abstract LiveData<List<Note>> getNotesByTag(String tagName);
+
+    // Note che hanno tutti i tag indicati
+    @Query("SELECT notes.* FROM notes WHERE notes.id IN (" +
+            "SELECT note_tags.note_id FROM note_tags " +
+            "INNER JOIN tags ON tags.id = note_tags.tag_id " +
+            "WHERE tags.name IN (:tagNames) " +
+            "GROUP BY note_tags.note_id HAVING COUNT(*) = :tagCount) " +
+            "ORDER BY notes.timestamp DESC")
+    public abstract LiveData<List<Note>> getNotesWithAllTags(List<String> tagNames, int tagCount);
+
+    // Conteggio note per tag calcolato sulla tabella di collegamento, senza leggere le note
+    @Query("SELECT tags.name AS name, COUNT(note_tags.note_id) AS note_count FROM tags " +
+            "INNER JOIN note_tags ON note_tags.tag_id = tags.id " +
+            "GROUP BY tags.id ORDER BY note_count DESC, tags.name")
+    public abstract LiveData<List<TagCount>> getTagCounts();
+}
@@ -1,22 +1,44 @@
 package com.example.securenotes.data.database;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.util.Base64;
+import android.util.Log;
 
+import androidx.annotation.NonNull;
 import androidx.room.Database;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteStatement;
 
 import com.example.securenotes.data.dao.NoteDao;
 import com.example.securenotes.data.model.Note;
 import com.example.securenotes.data.dao.ArchivedFileDao;
 import com.example.securenotes.data.model.ArchivedFile;
+import com.example.securenotes.data.dao.NoteSearchIndexDao;
+import com.example.securenotes.data.model.NoteSearchToken;
+import com.example.securenotes.data.dao.TagDao;
+import com.example.securenotes.data.model.NoteTag;
+import com.example.securenotes.data.model.Tag;
+import com.example.securenotes.data.dao.NoteChunkDao;
+import com.example.securenotes.data.model.NoteChunk;
 
+import java.nio.charset.StandardCharsets;
 
-@Database(entities = {Note.class, ArchivedFile.class}, version = 4, exportSchema = false)       //Dichiara le entità (Note e ArchivedFile) che fanno parte di questo database e la sua versione corrente
+
+@Database(entities = {Note.class, ArchivedFile.class, NoteSearchToken.class, Tag.class, NoteTag.class, NoteChunk.class}, version = 12, exportSchema = false)       //Dichiara le entità (Note e ArchivedFile) che fanno parte di questo database e la sua versione corrente
 public abstract class AppDatabase extends RoomDatabase {
 
+    private static final String TAG = "AppDatabase";
+    private static final int MIGRATION_BATCH_SIZE = 500;        //righe convertite per ciclo: limita la memoria del cursore
+
     public abstract NoteDao noteDao();
     public abstract ArchivedFileDao archivedFileDao();
+    public abstract NoteSearchIndexDao noteSearchIndexDao();
+    public abstract TagDao tagDao();
+    public abstract NoteChunkDao noteChunkDao();
 
     private static volatile AppDatabase INSTANCE;
 
@@ -26,11 +48,207 @@ public abstract class AppDatabase extends RoomDatabase {
                 if (INSTANCE == null) {
                     INSTANCE = Room.databaseBuilder(context.getApplicationContext(),
                                     AppDatabase.class, "secure_notes_db")
-                            .fallbackToDestructiveMigration()
+                            .addMigrations(MIGRATION_4_5, MIGRATION_5_6, MIGRATION_6_7, MIGRATION_7_8, MIGRATION_8_9, MIGRATION_9_10, MIGRATION_10_11, MIGRATION_11_12)
+                            .fallbackToDestructiveMigrationFrom(1, 2, 3)       //schemi precedenti alla v4 non sono mai stati migrati
+                            .addCallback(SECURE_DELETE_CALLBACK)
                             .build();
                 }
             }
         }
         return INSTANCE;
     }
-}
\ No newline at end of file
+
+    // secure_delete azzera la riga eliminata solo nel nuovo frame del WAL: il file principale e i frame precedenti
+    // la conservano fino al checkpoint. Va chiamato dopo le eliminazioni, fuori dal main thread.
+    public void checkpointWal() {
+        try (Cursor cursor = getOpenHelper().getWritableDatabase().query("PRAGMA wal_checkpoint(TRUNCATE)")) {
+            if (cursor.moveToFirst() && cursor.getInt(0) != 0) {
+                Log.w(TAG, "Checkpoint del WAL incompleto (lettori attivi): lo completerà il prossimo.");
+            }
+        }
+    }
+
+    // v4 -> v5: il contenuto cifrato passa da testo Base64 (colonna TEXT) a BLOB binario.
+    // SQLite non permette di cambiare il tipo di una colonna: si crea notes_new, si copiano le righe
+    // a blocchi decodificando il Base64 in Java e infine si sostituisce la tabella.
+    static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `notes_new` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `title` TEXT, `content` BLOB, `timestamp` INTEGER NOT NULL, `self_destruct_timestamp` INTEGER NOT NULL, `tags` TEXT)");
+
+            SupportSQLiteStatement insert = database.compileStatement(
+                    "INSERT INTO notes_new (id, title, content, timestamp, self_destruct_timestamp, tags) VALUES (?, ?, ?, ?, ?, ?)");
+            long lastId = -1;
+            int converted = 0;
+            while (true) {
+                int batchCount = 0;
+                try (Cursor cursor = database.query(
+                        "SELECT id, title, content, timestamp, self_destruct_timestamp, tags FROM notes WHERE id > ? ORDER BY id LIMIT " + MIGRATION_BATCH_SIZE,
+                        new Object[]{lastId})) {
+                    while (cursor.moveToNext()) {
+                        lastId = cursor.getLong(0);
+                        insert.clearBindings();
+                        insert.bindLong(1, lastId);
+                        bindStringOrNull(insert, 2, cursor.isNull(1) ? null : cursor.getString(1));
+                        if (cursor.isNull(2)) {
+                            insert.bindNull(3);
+                        } else {
+                            insert.bindBlob(3, decodeLegacyContent(lastId, cursor.getString(2)));
+                        }
+                        insert.bindLong(4, cursor.getLong(3));
+                        insert.bindLong(5, cursor.getLong(4));
+                        bindStringOrNull(insert, 6, cursor.isNull(5) ? null : cursor.getString(5));
+                        insert.executeInsert();
+                        batchCount++;
+                    }
+                }
+                converted += batchCount;
+                if (batchCount < MIGRATION_BATCH_SIZE) {
+                    break;
+                }
+            }
+
+            database.execSQL("DROP TABLE notes");
+            database.execSQL("ALTER TABLE notes_new RENAME TO notes");
+            Log.d(TAG, "Migrazione 4->5 completata: " + converted + " note convertite in BLOB.");
+        }
+    };
+
+    // v5 -> v6: indice di ricerca cifrato. Le note esistenti vengono indicizzate in background dal NoteRepository.
+    static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `note_search_index` (`token` BLOB NOT NULL, `note_id` INTEGER NOT NULL, PRIMARY KEY(`token`, `note_id`), FOREIGN KEY(`note_id`) REFERENCES `notes`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_note_search_index_note_id` ON `note_search_index` (`note_id`)");
+        }
+    };
+
+    // v6 -> v7: tag normalizzati. Il campo testuale notes.tags resta per la visualizzazione,
+    // i nomi vengono divisi sulle virgole e collegati alle note tramite note_tags.
+    static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `tags` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `name` TEXT NOT NULL COLLATE NOCASE)");
+            database.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_tags_name` ON `tags` (`name`)");
+            database.execSQL("CREATE TABLE IF NOT EXISTS `note_tags` (`note_id` INTEGER NOT NULL, `tag_id` INTEGER NOT NULL, PRIMARY KEY(`note_id`, `tag_id`), FOREIGN KEY(`note_id`) REFERENCES `notes`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE , FOREIGN KEY(`tag_id`) REFERENCES `tags`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_note_tags_tag_id` ON `note_tags` (`tag_id`)");
+            int links = linkTagsFromNotes(database);
+            Log.d(TAG, "Migrazione 6->7 completata: " + links + " collegamenti nota-tag creati.");
+        }
+    };
+
+    // v7 -> v8: anteprima cifrata separata. Le anteprime delle note esistenti vengono generate
+    // in background dal NoteRepository (serve la chiave della sessione).
+    static final Migration MIGRATION_7_8 = new Migration(7, 8) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE notes ADD COLUMN encrypted_preview BLOB");
+        }
+    };
+
+    // v8 -> v9: corpo delle note lunghe a blocchi. Le note esistenti restano inline (chunk_count = 0)
+    // e vengono divise al primo salvataggio.
+    static final Migration MIGRATION_8_9 = new Migration(8, 9) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE notes ADD COLUMN chunk_count INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("CREATE TABLE IF NOT EXISTS `note_chunks` (`note_id` INTEGER NOT NULL, `chunk_index` INTEGER NOT NULL, `data` BLOB NOT NULL, `digest` BLOB NOT NULL, PRIMARY KEY(`note_id`, `chunk_index`), FOREIGN KEY(`note_id`) REFERENCES `notes`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )");
+        }
+    };
+
+    // v9 -> v10: indice per la cancellazione in blocco delle note scadute
+    static final Migration MIGRATION_9_10 = new Migration(9, 10) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_notes_self_destruct_timestamp` ON `notes` (`self_destruct_timestamp`)");
+        }
+    };
+
+    // v10 -> v11: chiave dati per elemento (vedi DataKeys). Le righe esistenti restano cifrate con la chiave di sessione
+    // (wrapped_key NULL) e ricevono una chiave dati al primo salvataggio.
+    static final Migration MIGRATION_10_11 = new Migration(10, 11) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE notes ADD COLUMN wrapped_key BLOB");
+            database.execSQL("ALTER TABLE archived_files ADD COLUMN wrapped_key BLOB");
+        }
+    };
+
+    // v11 -> v12: nomi dei tag salvati già normalizzati (Tag.normalizeName) con un indice unico senza NOCASE,
+    // che confrontava solo le lettere ASCII. SQLite non cambia la collation di una colonna: le due tabelle dei tag
+    // vengono ricreate e riempite di nuovo da notes.tags, così i duplicati che differivano solo per maiuscole si fondono.
+    static final Migration MIGRATION_11_12 = new Migration(11, 12) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("DROP TABLE IF EXISTS `note_tags`");           //prima la tabella figlia: nessuna cascata su tags
+            database.execSQL("DROP TABLE IF EXISTS `tags`");
+            database.execSQL("CREATE TABLE IF NOT EXISTS `tags` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `name` TEXT NOT NULL)");
+            database.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_tags_name` ON `tags` (`name`)");
+            database.execSQL("CREATE TABLE IF NOT EXISTS `note_tags` (`note_id` INTEGER NOT NULL, `tag_id` INTEGER NOT NULL, PRIMARY KEY(`note_id`, `tag_id`), FOREIGN KEY(`note_id`) REFERENCES `notes`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE , FOREIGN KEY(`tag_id`) REFERENCES `tags`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_note_tags_tag_id` ON `note_tags` (`tag_id`)");
+            int links = linkTagsFromNotes(database);
+            Log.d(TAG, "Migrazione 11->12 completata: " + links + " collegamenti nota-tag ricreati.");
+        }
+    };
+
+    // Le pagine liberate da DELETE vengono azzerate: una chiave dati eliminata non resta leggibile nel file del database
+    private static final RoomDatabase.Callback SECURE_DELETE_CALLBACK = new RoomDatabase.Callback() {
+        @Override
+        public void onOpen(@NonNull SupportSQLiteDatabase database) {
+            try (Cursor cursor = database.query("PRAGMA secure_delete = ON")) {
+                cursor.moveToFirst();
+            }
+        }
+    };
+
+    // Ricostruisce tags e note_tags dal campo testuale notes.tags, a blocchi di MIGRATION_BATCH_SIZE note
+    private static int linkTagsFromNotes(SupportSQLiteDatabase database) {
+        SupportSQLiteStatement insertTag = database.compileStatement("INSERT OR IGNORE INTO tags (name) VALUES (?)");
+        SupportSQLiteStatement linkTag = database.compileStatement(
+                "INSERT OR IGNORE INTO note_tags (note_id, tag_id) SELECT ?, id FROM tags WHERE name = ?");
+        long lastId = -1;
+        int links = 0;
+        int batchCount;
+        do {
+            batchCount = 0;
+            try (Cursor cursor = database.query(
+                    "SELECT id, tags FROM notes WHERE id > ? ORDER BY id LIMIT " + MIGRATION_BATCH_SIZE,
+                    new Object[]{lastId})) {
+                while (cursor.moveToNext()) {
+                    lastId = cursor.getLong(0);
+                    batchCount++;
+                    if (cursor.isNull(1)) {
+                        continue;
+                    }
+                    for (String name : Tag.parseTagNames(cursor.getString(1))) {
+                        insertTag.bindString(1, name);
+                        insertTag.executeInsert();
+                        linkTag.bindLong(1, lastId);
+                        linkTag.bindString(2, name);
+                        linkTag.executeInsert();
+                        links++;
+                    }
+                }
+            }
+        } while (batchCount == MIGRATION_BATCH_SIZE);
+        return links;
+    }
+
+    private static byte[] decodeLegacyContent(long noteId, String base64Content) {
+        try {
+            return Base64.decode(base64Content, Base64.DEFAULT);
+        } catch (IllegalArgumentException e) {
+            // Riga già corrotta: si conservano i byte così come sono, la decrittografia la scarterà
+            Log.e(TAG, "Contenuto Base64 non valido per la nota ID " + noteId + " durante la migrazione.", e);
+            return base64Content.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void bindStringOrNull(SupportSQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+}
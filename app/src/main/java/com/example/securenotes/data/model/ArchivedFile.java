@@ -23,6 +23,10 @@ public class ArchivedFile {
     @ColumnInfo(name = "mime_type")
     public String mimeType;
 
+    // Chiave dati del file cifrata con la chiave di sessione (vedi DataKeys); null = file cifrato con la chiave di sessione
+    @ColumnInfo(name = "wrapped_key", typeAffinity = ColumnInfo.BLOB)
+    public byte[] wrappedKey;
+
     // Timestamp di quando il file è stato archiviato
     @ColumnInfo(name = "timestamp")
     public long timestamp;
@@ -68,6 +72,14 @@ public class ArchivedFile {
         this.mimeType = mimeType;
     }
 
+    public byte[] getWrappedKey() {
+        return wrappedKey;
+    }
+
+    public void setWrappedKey(byte[] wrappedKey) {
+        this.wrappedKey = wrappedKey;
+    }
+
     public long getTimestamp() {
         return timestamp;
     }
@@ -3,9 +3,11 @@ package com.example.securenotes.data.model;
 import androidx.room.ColumnInfo;
 import androidx.room.Entity;
 import androidx.room.Ignore; // Importa @Ignore
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
-@Entity(tableName = "notes")
+@Entity(tableName = "notes",
+        indices = @Index("self_destruct_timestamp"))          //la pulizia delle note scadute non scansiona la tabella
 public class Note {
     @PrimaryKey(autoGenerate = true)
     public int id;
@@ -13,9 +15,26 @@ public class Note {
     @ColumnInfo(name = "title")
     public String title;
 
-    @ColumnInfo(name = "content")
+    // IV || ciphertext || tag AES-GCM salvato come BLOB (prima era Base64 in una colonna TEXT)
+    @ColumnInfo(name = "content", typeAffinity = ColumnInfo.BLOB)
+    public byte[] encryptedContent;
+
+    // Contenuto in chiaro: esiste solo in memoria, non viene mai scritto nel database
+    @Ignore
     public String content;
 
+    // Anteprima (primi caratteri del contenuto) cifrata separatamente: le liste leggono solo questa
+    @ColumnInfo(name = "encrypted_preview", typeAffinity = ColumnInfo.BLOB)
+    public byte[] encryptedPreview;
+
+    // Numero di blocchi in note_chunks; 0 = corpo salvato direttamente nella colonna content
+    @ColumnInfo(name = "chunk_count", defaultValue = "0")
+    public int chunkCount;
+
+    // Chiave dati della nota cifrata con la chiave di sessione (vedi DataKeys); null = nota cifrata con la chiave di sessione
+    @ColumnInfo(name = "wrapped_key", typeAffinity = ColumnInfo.BLOB)
+    public byte[] wrappedKey;
+
     @ColumnInfo(name = "timestamp")
     public long timestamp;
 
@@ -25,6 +44,10 @@ public class Note {
     @ColumnInfo(name = "tags")
     public String tags;
 
+    // Costruttore usato da Room per ricostruire gli oggetti dal database
+    public Note() {
+    }
+
     // Costruttore originale
     @Ignore
     public Note(String title, String content, long timestamp) {
@@ -45,7 +68,8 @@ public class Note {
         this.tags = ""; // Default vuoto
     }
 
-    // Questo è il costruttore PRINCIPALE che Room userà per ricostruire gli oggetti dal database
+    // Costruttore principale usato dall'editor e dal repository
+    @Ignore
     public Note(String title, String content, long timestamp, long selfDestructTimestamp, String tags) {
         this.title = title;
         this.content = content;
@@ -80,6 +104,38 @@ public class Note {
         this.content = content;
     }
 
+    public byte[] getEncryptedContent() {
+        return encryptedContent;
+    }
+
+    public void setEncryptedContent(byte[] encryptedContent) {
+        this.encryptedContent = encryptedContent;
+    }
+
+    public byte[] getEncryptedPreview() {
+        return encryptedPreview;
+    }
+
+    public void setEncryptedPreview(byte[] encryptedPreview) {
+        this.encryptedPreview = encryptedPreview;
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    public void setChunkCount(int chunkCount) {
+        this.chunkCount = chunkCount;
+    }
+
+    public byte[] getWrappedKey() {
+        return wrappedKey;
+    }
+
+    public void setWrappedKey(byte[] wrappedKey) {
+        this.wrappedKey = wrappedKey;
+    }
+
     public long getTimestamp() {
         return timestamp;
     }
@@ -0,0 +1,35 @@
+package com.example.securenotes.data.model;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.ForeignKey;
+
+// Blocco cifrato del corpo di una nota lunga. Ogni blocco è cifrato per conto suo (formato PayloadCodec)
+// e porta l'HMAC del testo in chiaro, così al salvataggio si riscrivono solo i blocchi cambiati.
+@Entity(tableName = "note_chunks",
+        primaryKeys = {"note_id", "chunk_index"},
+        foreignKeys = @ForeignKey(entity = Note.class, parentColumns = "id", childColumns = "note_id", onDelete = ForeignKey.CASCADE))
+public class NoteChunk {
+
+    @ColumnInfo(name = "note_id")
+    public int noteId;
+
+    @ColumnInfo(name = "chunk_index")
+    public int chunkIndex;
+
+    @NonNull
+    @ColumnInfo(name = "data")
+    public byte[] data;
+
+    @NonNull
+    @ColumnInfo(name = "digest")
+    public byte[] digest;
+
+    public NoteChunk(int noteId, int chunkIndex, @NonNull byte[] data, @NonNull byte[] digest) {
+        this.noteId = noteId;
+        this.chunkIndex = chunkIndex;
+        this.data = data;
+        this.digest = digest;
+    }
+}
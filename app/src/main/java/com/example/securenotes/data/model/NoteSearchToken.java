@@ -0,0 +1,37 @@
+package com.example.securenotes.data.model;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.ForeignKey;
+import androidx.room.Index;
+
+// Riga dell'indice di ricerca cifrato: HMAC di un termine (o di un suo prefisso) -> id della nota.
+// Nessun termine in chiaro viene salvato; l'eliminazione della nota rimuove i suoi token a cascata.
+@Entity(tableName = "note_search_index",
+        primaryKeys = {"token", "note_id"},
+        foreignKeys = @ForeignKey(entity = Note.class, parentColumns = "id", childColumns = "note_id", onDelete = ForeignKey.CASCADE),
+        indices = @Index("note_id"))
+public class NoteSearchToken {
+
+    @NonNull
+    @ColumnInfo(name = "token")
+    public byte[] token;
+
+    @ColumnInfo(name = "note_id")
+    public int noteId;
+
+    public NoteSearchToken(@NonNull byte[] token, int noteId) {
+        this.token = token;
+        this.noteId = noteId;
+    }
+
+    @NonNull
+    public byte[] getToken() {
+        return token;
+    }
+
+    public int getNoteId() {
+        return noteId;
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.securenotes.data.model;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Ignore;
+
+// Proiezione leggera di una nota per le liste: niente corpo cifrato, solo l'anteprima cifrata.
+// Il corpo completo viene letto e decriptato solo quando si apre l'editor.
+public class NoteSummary {
+
+    public static final int PREVIEW_MAX_CHARS = 160;       //la card mostra al massimo 2 righe
+
+    @ColumnInfo(name = "id")
+    public int id;
+
+    @ColumnInfo(name = "title")
+    public String title;
+
+    @ColumnInfo(name = "timestamp")
+    public long timestamp;
+
+    @ColumnInfo(name = "self_destruct_timestamp")
+    public long selfDestructTimestamp;
+
+    @ColumnInfo(name = "tags")
+    public String tags;
+
+    @ColumnInfo(name = "encrypted_preview")
+    public byte[] encryptedPreview;
+
+    @ColumnInfo(name = "wrapped_key")
+    public byte[] wrappedKey;
+
+    // Anteprima in chiaro, valorizzata dal repository dopo la decrittografia
+    @Ignore
+    public String preview;
+
+    public NoteSummary() {
+    }
+
+    // Riepilogo di una nota già decriptata (es. risultati di ricerca)
+    @Ignore
+    public NoteSummary(Note note) {
+        this.id = note.getId();
+        this.title = note.getTitle();
+        this.timestamp = note.getTimestamp();
+        this.selfDestructTimestamp = note.getSelfDestructTimestamp();
+        this.tags = note.getTags();
+        this.preview = previewOf(note.getContent());
+    }
+
+    // Primi PREVIEW_MAX_CHARS caratteri del contenuto, senza spezzare una coppia surrogata
+    public static String previewOf(String content) {
+        if (content == null || content.length() <= PREVIEW_MAX_CHARS) {
+            return content;
+        }
+        int end = PREVIEW_MAX_CHARS;
+        if (Character.isHighSurrogate(content.charAt(end - 1))) {
+            end--;
+        }
+        return content.substring(0, end);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getSelfDestructTimestamp() {
+        return selfDestructTimestamp;
+    }
+
+    public String getTags() {
+        return tags;
+    }
+
+    public byte[] getEncryptedPreview() {
+        return encryptedPreview;
+    }
+
+    public byte[] getWrappedKey() {
+        return wrappedKey;
+    }
+
+    public String getPreview() {
+        return preview;
+    }
+
+    public void setPreview(String preview) {
+        this.preview = preview;
+    }
+}
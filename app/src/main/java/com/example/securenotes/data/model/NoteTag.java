@@ -0,0 +1,29 @@
+package com.example.securenotes.data.model;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.ForeignKey;
+import androidx.room.Index;
+
+// Tabella di collegamento molti-a-molti tra note e tag.
+// La chiave primaria (note_id, tag_id) serve le ricerche per nota, l'indice su tag_id quelle per tag.
+@Entity(tableName = "note_tags",
+        primaryKeys = {"note_id", "tag_id"},
+        foreignKeys = {
+                @ForeignKey(entity = Note.class, parentColumns = "id", childColumns = "note_id", onDelete = ForeignKey.CASCADE),
+                @ForeignKey(entity = Tag.class, parentColumns = "id", childColumns = "tag_id", onDelete = ForeignKey.CASCADE)
+        },
+        indices = @Index("tag_id"))
+public class NoteTag {
+
+    @ColumnInfo(name = "note_id")
+    public int noteId;
+
+    @ColumnInfo(name = "tag_id")
+    public long tagId;
+
+    public NoteTag(int noteId, long tagId) {
+        this.noteId = noteId;
+        this.tagId = tagId;
+    }
+}
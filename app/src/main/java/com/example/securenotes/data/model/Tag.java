@@ -0,0 +1,59 @@
+package com.example.securenotes.data.model;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+// Tag normalizzato: il nome è salvato già in minuscolo (normalizeName) e compare una sola volta,
+// le note lo referenziano tramite note_tags
+@Entity(tableName = "tags", indices = @Index(value = "name", unique = true))
+public class Tag {
+    @PrimaryKey(autoGenerate = true)
+    public long id;
+
+    @NonNull
+    @ColumnInfo(name = "name")
+    public String name;
+
+    public Tag(@NonNull String name) {
+        this.name = name;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    @NonNull
+    public String getName() {
+        return name;
+    }
+
+    // Unico punto di normalizzazione: ogni nome scritto o cercato in tags passa da qui.
+    // toLowerCase copre anche i caratteri non ASCII, che la collation NOCASE di SQLite non confronta
+    public static String normalizeName(String name) {
+        return name.trim().toLowerCase(Locale.ROOT);
+    }
+
+    // Divide il campo tags della nota ("work, Home,Work") in nomi distinti e normalizzati: [work, home]
+    public static List<String> parseTagNames(String tags) {
+        Set<String> names = new LinkedHashSet<>();
+        if (tags == null) {
+            return new ArrayList<>();
+        }
+        for (String part : tags.split(",")) {
+            String name = normalizeName(part);
+            if (!name.isEmpty()) {
+                names.add(name);
+            }
+        }
+        return new ArrayList<>(names);
+    }
+}
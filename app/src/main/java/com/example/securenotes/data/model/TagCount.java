@@ -0,0 +1,21 @@
+package com.example.securenotes.data.model;
+
+import androidx.room.ColumnInfo;
+
+// Risultato della query aggregata: nome del tag e numero di note che lo usano
+public class TagCount {
+
+    @ColumnInfo(name = "name")
+    public String name;
+
+    @ColumnInfo(name = "note_count")
+    public int noteCount;
+
+    public String getName() {
+        return name;
+    }
+
+    public int getNoteCount() {
+        return noteCount;
+    }
+}
@@ -0,0 +1,290 @@
+package com.example.securenotes.data.provider;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.ParcelFileDescriptor;
+import android.os.ProxyFileDescriptorCallback;
+import android.os.storage.StorageManager;
+import android.provider.OpenableColumns;
+import android.system.ErrnoException;
+import android.system.OsConstants;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.example.securenotes.data.database.AppDatabase;
+import com.example.securenotes.data.model.ArchivedFile;
+import com.example.securenotes.data.repository.ArchivedFileDecryptor;
+import com.example.securenotes.security.PayloadCodec;
+import com.example.securenotes.security.SegmentedFileReader;
+import com.example.securenotes.security.SessionKeyVault;
+import com.example.securenotes.utils.AppExecutors;
+
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+// Espone i file dell'archivio alle app esterne (viewer) senza mai scriverli in chiaro su disco.
+// I file a segmenti (v3) passano da un descrittore proxy ad accesso casuale: ogni lettura decifra solo i
+// segmenti che servono. I formati precedenti, che non si possono leggere a salti, vengono decriptati in una pipe.
+// URI: content://com.example.securenotes.archive/files/<id>/<nome originale>, accessibile solo con il permesso concesso dall'intent.
+public class ArchiveContentProvider extends ContentProvider {
+
+    private static final String TAG = "ArchiveContentProvider";
+
+    public static final String AUTHORITY = "com.example.securenotes.archive";
+    private static final String PATH_FILES = "files";
+
+    // Descrittori aperti: al logout vengono chiusi tutti, la chiave del file non resta in mano al viewer
+    private static final Set<SegmentedFileReader> OPEN_READERS = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private ArchivedFileDecryptor decryptor;
+
+    public static Uri uriFor(ArchivedFile archivedFile) {
+        return new Uri.Builder()
+                .scheme("content")
+                .authority(AUTHORITY)
+                .appendPath(PATH_FILES)
+                .appendPath(String.valueOf(archivedFile.getId()))
+                .appendPath(archivedFile.getOriginalName())      //solo per i viewer che ricavano il nome dall'URI
+                .build();
+    }
+
+    // Chiude i descrittori ancora aperti dai viewer (logout, blocco della sessione)
+    public static void closeAll() {
+        List<SegmentedFileReader> readers;
+        synchronized (OPEN_READERS) {
+            readers = new ArrayList<>(OPEN_READERS);
+            OPEN_READERS.clear();
+        }
+        for (SegmentedFileReader reader : readers) {
+            closeQuietly(reader);
+        }
+        if (!readers.isEmpty()) {
+            Log.d(TAG, "Chiusi " + readers.size() + " file dell'archivio ancora aperti.");
+        }
+    }
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Nullable
+    @Override
+    public String getType(@NonNull Uri uri) {
+        ArchivedFile archivedFile = findArchivedFile(uri);
+        return archivedFile != null ? archivedFile.getMimeType() : null;
+    }
+
+    @Nullable
+    @Override
+    public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection,
+                        @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+        ArchivedFile archivedFile = findArchivedFile(uri);
+        if (archivedFile == null) {
+            return null;
+        }
+        if (projection == null) {
+            projection = new String[]{OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE};
+        }
+
+        Long size = null;
+        if (SessionKeyVault.getInstance().isUnlocked()) {
+            try {
+                if (getDecryptor().formatVersion(archivedFile) == PayloadCodec.VERSION_SEGMENTED) {
+                    try (SegmentedFileReader reader = getDecryptor().openSegmented(archivedFile)) {
+                        size = reader.size();
+                    }
+                }
+            } catch (Exception e) {
+                Log.w(TAG, "Dimensione non disponibile per: " + archivedFile.getOriginalName(), e);
+            }
+        }
+
+        List<String> columns = new ArrayList<>();
+        List<Object> values = new ArrayList<>();
+        for (String column : projection) {
+            if (OpenableColumns.DISPLAY_NAME.equals(column)) {
+                columns.add(column);
+                values.add(archivedFile.getOriginalName());
+            } else if (OpenableColumns.SIZE.equals(column)) {
+                columns.add(column);
+                values.add(size);                //formati precedenti: la dimensione in chiaro non è nota senza decriptare tutto
+            }
+        }
+        MatrixCursor cursor = new MatrixCursor(columns.toArray(new String[0]), 1);
+        cursor.addRow(values.toArray());
+        return cursor;
+    }
+
+    @Nullable
+    @Override
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode) throws FileNotFoundException {
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Accesso in sola lettura: " + mode);
+        }
+        if (!SessionKeyVault.getInstance().isUnlocked()) {
+            throw new FileNotFoundException("Sessione bloccata");
+        }
+        ArchivedFile archivedFile = findArchivedFile(uri);
+        if (archivedFile == null) {
+            throw new FileNotFoundException("File non trovato: " + uri);
+        }
+
+        try {
+            if (getDecryptor().formatVersion(archivedFile) == PayloadCodec.VERSION_SEGMENTED) {
+                return openSegmented(archivedFile);
+            }
+            return openStreaming(archivedFile);
+        } catch (Exception e) {
+            Log.e(TAG, "Errore durante l'apertura del file: " + archivedFile.getOriginalName(), e);
+            throw new FileNotFoundException("Impossibile aprire il file: " + archivedFile.getOriginalName());
+        }
+    }
+
+    // v3: il viewer legge a salti, ogni richiesta decifra solo i segmenti toccati
+    private ParcelFileDescriptor openSegmented(ArchivedFile archivedFile) throws Exception {
+        SegmentedFileReader reader = getDecryptor().openSegmented(archivedFile);
+        synchronized (OPEN_READERS) {
+            OPEN_READERS.add(reader);
+        }
+        HandlerThread thread = new HandlerThread(TAG + "-" + archivedFile.getId());
+        thread.start();
+        try {
+            StorageManager storageManager = (StorageManager) getContext().getSystemService(Context.STORAGE_SERVICE);
+            return storageManager.openProxyFileDescriptor(ParcelFileDescriptor.MODE_READ_ONLY,
+                    new SegmentedReadCallback(reader, thread), new Handler(thread.getLooper()));
+        } catch (IOException | RuntimeException e) {
+            release(reader);
+            thread.quitSafely();
+            throw e;
+        }
+    }
+
+    // v1/v2 e legacy: un solo messaggio GCM, si decripta in ordine dentro una pipe
+    private ParcelFileDescriptor openStreaming(ArchivedFile archivedFile) throws IOException {
+        ParcelFileDescriptor[] pipe = ParcelFileDescriptor.createReliablePipe();
+        ParcelFileDescriptor writeSide = pipe[1];
+        AppExecutors.getInstance().background().execute(() -> {
+            String error = null;
+            try {
+                // Lo stream non possiede il descrittore: solo il blocco finally chiude writeSide, con o senza errore
+                FileOutputStream os = new FileOutputStream(writeSide.getFileDescriptor());
+                getDecryptor().decryptTo(archivedFile, os.getChannel());
+            } catch (Exception e) {
+                Log.e(TAG, "Errore durante la decrittografia del file: " + archivedFile.getOriginalName(), e);
+                error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            } finally {
+                try {
+                    if (error == null) {
+                        writeSide.close();
+                    } else {
+                        writeSide.closeWithError(error);            //il viewer riceve un errore, non un file troncato
+                    }
+                } catch (IOException e) {
+                    Log.w(TAG, "Chiusura della pipe fallita: " + archivedFile.getOriginalName(), e);
+                }
+            }
+        });
+        return pipe[0];
+    }
+
+    private synchronized ArchivedFileDecryptor getDecryptor() {
+        if (decryptor == null) {
+            decryptor = new ArchivedFileDecryptor(getContext());
+        }
+        return decryptor;
+    }
+
+    @Nullable
+    private ArchivedFile findArchivedFile(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() < 2 || !PATH_FILES.equals(segments.get(0))) {
+            return null;
+        }
+        try {
+            int fileId = Integer.parseInt(segments.get(1));
+            return AppDatabase.getDatabase(getContext()).archivedFileDao().getArchivedFileById(fileId);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static void release(SegmentedFileReader reader) {
+        synchronized (OPEN_READERS) {
+            OPEN_READERS.remove(reader);
+        }
+        closeQuietly(reader);
+    }
+
+    private static void closeQuietly(SegmentedFileReader reader) {
+        try {
+            reader.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Errore durante la chiusura del file: " + e.getMessage());
+        }
+    }
+
+    @Nullable
+    @Override
+    public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
+        throw new UnsupportedOperationException("Archivio in sola lettura");
+    }
+
+    @Override
+    public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
+        throw new UnsupportedOperationException("Archivio in sola lettura");
+    }
+
+    @Override
+    public int update(@NonNull Uri uri, @Nullable ContentValues values, @Nullable String selection, @Nullable String[] selectionArgs) {
+        throw new UnsupportedOperationException("Archivio in sola lettura");
+    }
+
+    private static final class SegmentedReadCallback extends ProxyFileDescriptorCallback {
+
+        private final SegmentedFileReader reader;
+        private final HandlerThread thread;
+
+        SegmentedReadCallback(SegmentedFileReader reader, HandlerThread thread) {
+            this.reader = reader;
+            this.thread = thread;
+        }
+
+        @Override
+        public long onGetSize() {
+            return reader.size();
+        }
+
+        @Override
+        public int onRead(long offset, int size, byte[] data) throws ErrnoException {
+            try {
+                int read = reader.read(offset, data, 0, size);
+                return Math.max(read, 0);             //0 = fine del file
+            } catch (Exception e) {
+                // segmento alterato o descrittore chiuso dal logout
+                Log.e(TAG, "Lettura fallita all'offset " + offset + ": " + e.getMessage());
+                throw new ErrnoException("onRead", OsConstants.EIO);
+            }
+        }
+
+        @Override
+        public void onRelease() {
+            release(reader);
+            thread.quitSafely();
+        }
+    }
+}
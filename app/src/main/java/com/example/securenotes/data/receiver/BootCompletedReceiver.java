@@ -0,0 +1,25 @@
+package com.example.securenotes.data.receiver;
+
+import android.app.AlarmManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+// Gli allarmi non sopravvivono al riavvio: l'allarme di autodistruzione viene ricostruito dal database.
+// Stessa cosa quando l'utente concede il permesso per gli allarmi esatti (l'allarme passa da inesatto a esatto).
+public class BootCompletedReceiver extends BroadcastReceiver {
+
+    private static final String TAG = "BootCompletedReceiver";
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        String action = intent != null ? intent.getAction() : null;
+        if (Intent.ACTION_BOOT_COMPLETED.equals(action)
+                || AlarmManager.ACTION_SCHEDULE_EXACT_ALARM_PERMISSION_STATE_CHANGED.equals(action)) {
+            Log.d(TAG, "onReceive: " + action + ". Ricostruzione dell'allarme di autodistruzione.");
+            PendingResult pendingResult = goAsync();
+            new SelfDestructScheduler(context).purgeDueAndRescheduleAsync(pendingResult::finish);
+        }
+    }
+}
@@ -5,10 +5,8 @@ import android.content.Context;
 import android.content.Intent;
 import android.util.Log;
 
-import com.example.securenotes.data.database.AppDatabase;
-import com.example.securenotes.data.dao.NoteDao;
-import com.example.securenotes.data.model.Note;
-
+// Riceve l'unico allarme di SelfDestructScheduler: elimina tutte le note scadute e riarma sulla scadenza successiva.
+// Gestisce anche ACTION_SELF_DESTRUCT_NOTE, gli allarmi per singola nota registrati dalle versioni precedenti.
 public class NoteSelfDestructReceiver extends BroadcastReceiver {
 
     public static final String ACTION_SELF_DESTRUCT_NOTE = "com.example.securenotes.ACTION_SELF_DESTRUCT_NOTE";
@@ -20,29 +18,13 @@ public class NoteSelfDestructReceiver extends BroadcastReceiver {
     public void onReceive(Context context, Intent intent) {
         Log.d(TAG, "onReceive: Ricevuto broadcast! Action: " + (intent != null ? intent.getAction() : "null"));
 
-        if (intent != null && ACTION_SELF_DESTRUCT_NOTE.equals(intent.getAction())) {
-            int noteId = intent.getIntExtra(EXTRA_NOTE_ID, -1);
-            Log.d(TAG, "onReceive: Tentativo di autodistruzione per nota ID: " + noteId);
-
-            if (noteId != -1) {
-                // esegue l'eliminazione della nota in un thread separato
-                new Thread(() -> {
-                    NoteDao noteDao = AppDatabase.getDatabase(context).noteDao();
-                    Note noteToDelete = noteDao.getNoteById(noteId);
-
-                    if (noteToDelete != null) {
-                        Log.i(TAG, "onReceive Thread: Trovata nota con ID " + noteId + ", titolo: '" + noteToDelete.getTitle() + "'. Eliminazione in corso...");
-                        noteDao.delete(noteToDelete);
-                        Log.i(TAG, "onReceive Thread: Nota ID " + noteId + " eliminata con successo.");
-                    } else {
-                        Log.w(TAG, "onReceive Thread: Nota con ID " + noteId + " non trovata nel database per l'autodistruzione. Forse è già stata eliminata?");
-                    }
-                }).start();
-            } else {
-                Log.e(TAG, "onReceive: ID nota non valido ricevuto nell'intent per l'autodistruzione.");
-            }
+        if (intent != null && (SelfDestructScheduler.ACTION_SELF_DESTRUCT_DUE.equals(intent.getAction())
+                || ACTION_SELF_DESTRUCT_NOTE.equals(intent.getAction()))) {
+            // goAsync: il processo resta vivo finché l'eliminazione sul pool condiviso non è conclusa
+            PendingResult pendingResult = goAsync();
+            new SelfDestructScheduler(context).purgeDueAndRescheduleAsync(pendingResult::finish);
         } else {
-            Log.e(TAG, "onReceive: Azione dell'intent non corrisponde a " + ACTION_SELF_DESTRUCT_NOTE);
+            Log.e(TAG, "onReceive: Azione dell'intent non corrisponde a " + SelfDestructScheduler.ACTION_SELF_DESTRUCT_DUE);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,168 @@
+package com.example.securenotes.data.receiver;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.util.Log;
+
+import com.example.securenotes.data.dao.NoteDao;
+import com.example.securenotes.data.dao.TagDao;
+import com.example.securenotes.data.database.AppDatabase;
+import com.example.securenotes.data.repository.DecryptedNoteCache;
+import com.example.securenotes.data.search.TrigramIndex;
+import com.example.securenotes.utils.AppExecutors;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+// Autodistruzione delle note con un solo allarme esatto. Le scadenze che cadono entro COALESCE_WINDOW_MS dalla più
+// vicina condividono un risveglio, all'ultima di esse: quando scatta elimina in blocco le note già scadute e si riarma
+// sulla scadenza successiva (MIN su self_destruct_timestamp, indicizzato). Nessuna nota viene eliminata prima della sua
+// scadenza; al più COALESCE_WINDOW_MS dopo. Lo stato vive solo nel database:
+// all'avvio dell'app e dopo il riavvio del dispositivo l'allarme viene ricostruito da lì.
+// I metodi che toccano il database vanno chiamati fuori dal main thread.
+public class SelfDestructScheduler {
+
+    private static final String TAG = "SelfDestructScheduler";
+
+    public static final String ACTION_SELF_DESTRUCT_DUE = "com.example.securenotes.ACTION_SELF_DESTRUCT_DUE";
+    private static final int ALARM_REQUEST_CODE = 0;
+    // Note che scadono a pochi secondi l'una dall'altra vengono eliminate con un solo risveglio, ritardando le prime
+    static final long COALESCE_WINDOW_MS = TimeUnit.SECONDS.toMillis(30);
+
+    // Richieste arrivate mentre una pulizia è già in coda: la stessa esecuzione serve tutte
+    private static final Object PENDING_LOCK = new Object();
+    private static final List<Runnable> pendingCallbacks = new ArrayList<>();
+    private static boolean purgeQueued = false;
+
+    private final Context context;
+    private final AlarmManager alarmManager;
+    private final AppDatabase database;
+
+    public SelfDestructScheduler(Context context) {
+        this.context = context.getApplicationContext();
+        this.alarmManager = (AlarmManager) this.context.getSystemService(Context.ALARM_SERVICE);
+        this.database = AppDatabase.getDatabase(this.context);
+    }
+
+    // Da Android 12 gli allarmi esatti richiedono il permesso SCHEDULE_EXACT_ALARM
+    public boolean canScheduleExactAlarms() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            return alarmManager != null && alarmManager.canScheduleExactAlarms();
+        }
+        return true;
+    }
+
+    // Elimina le note già scadute e punta l'allarme sulla prossima scadenza. Restituisce gli id eliminati.
+    public List<Integer> purgeDueAndReschedule() {
+        List<Integer> purgedIds = purgeExpired(System.currentTimeMillis());
+        scheduleNext();
+        return purgedIds;
+    }
+
+    // Un'unica DELETE in un'unica transazione (indice su self_destruct_timestamp): Room invalida la tabella una volta sola,
+    // quindi 1000 note scadute producono un solo aggiornamento della lista.
+    public List<Integer> purgeExpired(long upTo) {
+        NoteDao noteDao = database.noteDao();
+        TagDao tagDao = database.tagDao();
+        List<Integer> purgedIds = database.runInTransaction(() -> {
+            List<Integer> expiredIds = noteDao.getExpiredNoteIds(upTo);
+            if (!expiredIds.isEmpty()) {
+                noteDao.deleteExpiredNotes(upTo);        //token, tag e blocchi eliminati a cascata
+                tagDao.deleteUnusedTags();
+            }
+            return expiredIds;
+        });
+        for (int noteId : purgedIds) {
+            DecryptedNoteCache.getInstance().evict(noteId);
+            TrigramIndex.getInstance().remove(noteId);
+        }
+        if (!purgedIds.isEmpty()) {
+            database.checkpointWal();           //le note eliminate non restano nel WAL
+            Log.i(TAG, "Autodistruzione: eliminate " + purgedIds.size() + " note scadute.");
+        }
+        return purgedIds;
+    }
+
+    // Riarma l'unico allarme sulla scadenza più vicina, o lo cancella se nessuna nota ha l'autodistruzione
+    public void scheduleNext() {
+        if (alarmManager == null) {
+            Log.e(TAG, "scheduleNext: AlarmManager è nullo. Impossibile impostare l'allarme.");
+            return;
+        }
+        Long nextDeadline = database.noteDao().getNextSelfDestructTimestamp();
+        if (nextDeadline == null) {
+            PendingIntent existing = alarmPendingIntent(PendingIntent.FLAG_NO_CREATE);
+            if (existing != null) {
+                alarmManager.cancel(existing);
+                existing.cancel();
+            }
+            Log.d(TAG, "Nessuna nota con autodistruzione: allarme rimosso.");
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        long triggerAt = now;                   //scadenza persa (es. dispositivo spento): subito
+        if (nextDeadline > now) {
+            // Si attende l'ultima scadenza della finestra: l'allarme può solo ritardare, mai anticipare un'eliminazione
+            Long lastInWindow = database.noteDao().getLastSelfDestructTimestampUpTo(nextDeadline + COALESCE_WINDOW_MS);
+            triggerAt = lastInWindow != null ? lastInWindow : nextDeadline;
+        }
+        PendingIntent pendingIntent = alarmPendingIntent(PendingIntent.FLAG_UPDATE_CURRENT);
+        if (canScheduleExactAlarms()) {
+            alarmManager.setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, triggerAt, pendingIntent);
+        } else {
+            // Senza permesso l'eliminazione può ritardare di qualche minuto, ma non va persa
+            alarmManager.setAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, triggerAt, pendingIntent);
+            Log.w(TAG, "Permesso SCHEDULE_EXACT_ALARM assente: allarme non esatto.");
+        }
+        Log.i(TAG, "Prossima autodistruzione alle " + new SimpleDateFormat("dd/MM/yyyy HH:mm:ss", Locale.getDefault()).format(triggerAt));
+    }
+
+    // Per chiamate dal main thread (avvio dell'app, permesso concesso)
+    public void scheduleNextAsync() {
+        purgeDueAndRescheduleAsync(null);
+    }
+
+    // Esegue purgeDueAndReschedule sul pool condiviso; onFinished viene sempre chiamato (anche in caso di errore),
+    // così i receiver possono chiudere il PendingResult di goAsync(). Se una pulizia è già in coda non ne accoda un'altra.
+    public void purgeDueAndRescheduleAsync(Runnable onFinished) {
+        synchronized (PENDING_LOCK) {
+            if (onFinished != null) {
+                pendingCallbacks.add(onFinished);
+            }
+            if (purgeQueued) {
+                return;
+            }
+            purgeQueued = true;
+        }
+        AppExecutors.getInstance().background().execute(() -> {
+            List<Runnable> callbacks;
+            synchronized (PENDING_LOCK) {
+                purgeQueued = false;            //le richieste successive vedranno anche le modifiche fatte da ora in poi
+                callbacks = new ArrayList<>(pendingCallbacks);
+                pendingCallbacks.clear();
+            }
+            try {
+                purgeDueAndReschedule();
+            } catch (Exception e) {
+                Log.e(TAG, "Errore durante l'autodistruzione delle note: " + e.getMessage(), e);
+            } finally {
+                for (Runnable callback : callbacks) {
+                    callback.run();
+                }
+            }
+        });
+    }
+
+    private PendingIntent alarmPendingIntent(int flags) {
+        Intent intent = new Intent(context, NoteSelfDestructReceiver.class);
+        intent.setAction(ACTION_SELF_DESTRUCT_DUE);
+        return PendingIntent.getBroadcast(context, ALARM_REQUEST_CODE, intent, flags | PendingIntent.FLAG_IMMUTABLE);
+    }
+}
@@ -0,0 +1,212 @@
+package com.example.securenotes.data.repository;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.example.securenotes.data.model.ArchivedFile;
+import com.example.securenotes.security.AeadCodec;
+import com.example.securenotes.security.DataKeys;
+import com.example.securenotes.security.PayloadCodec;
+import com.example.securenotes.security.SegmentedAead;
+import com.example.securenotes.security.SegmentedFileReader;
+import com.example.securenotes.security.SessionKeyVault;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.zip.InflaterOutputStream;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+// Lettura dei file dell'archivio senza copie in chiaro su disco: i file a segmenti si aprono ad accesso casuale,
+// quelli nei formati precedenti (v1/v2 e senza intestazione) si decriptano in streaming verso un canale.
+public class ArchivedFileDecryptor {
+
+    private static final String TAG = "ArchivedFileDecryptor";
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final Context applicationContext;
+    private final SessionKeyVault keyVault;
+
+    public ArchivedFileDecryptor(Context context) {
+        this.applicationContext = context.getApplicationContext();
+        this.keyVault = SessionKeyVault.getInstance();
+    }
+
+    public File encryptedFileOf(ArchivedFile archivedFile) {
+        return new File(applicationContext.getFilesDir(), FileArchiveRepository.ENCRYPTED_FILES_DIR + File.separator + archivedFile.getEncryptedFilename());
+    }
+
+    // Versione dichiarata dall'intestazione del file, -1 se il file è nel formato legacy
+    public int formatVersion(ArchivedFile archivedFile) throws IOException {
+        byte[] head = new byte[PayloadCodec.HEADER_SIZE + AeadCodec.IV_SIZE_BYTES + AeadCodec.TAG_SIZE_BYTES];
+        try (FileChannel in = new FileInputStream(encryptedFileOf(archivedFile)).getChannel()) {
+            int read = readFully(in, ByteBuffer.wrap(head));
+            if (SegmentedAead.isSegmented(head, read)) {
+                return PayloadCodec.VERSION_SEGMENTED;          //anche un file vuoto, più corto di un'intestazione v1/v2 con IV e tag
+            }
+            return PayloadCodec.versionOf(head, 0, read);
+        }
+    }
+
+    // Solo per i file a segmenti (PayloadCodec.VERSION_SEGMENTED): il chiamante chiude il reader
+    public SegmentedFileReader openSegmented(ArchivedFile archivedFile) throws IOException, GeneralSecurityException {
+        return new SegmentedFileReader(encryptedFileOf(archivedFile), keyFor(archivedFile));
+    }
+
+    // Decripta l'intero file in out, qualunque sia il formato. Non chiude out.
+    public void decryptTo(ArchivedFile archivedFile, WritableByteChannel out) throws IOException, GeneralSecurityException {
+        SecretKey fileSecretKey = keyFor(archivedFile);
+        File encryptedFile = encryptedFileOf(archivedFile);
+        int version = formatVersion(archivedFile);
+        if (version == PayloadCodec.VERSION_SEGMENTED) {
+            CountingChannel counted = new CountingChannel(out);
+            try (SegmentedFileReader reader = new SegmentedFileReader(encryptedFile, fileSecretKey)) {
+                reader.decryptTo(counted);          //ogni segmento esce solo dopo la verifica del suo tag
+                return;
+            } catch (AEADBadTagException e) {
+                if (counted.written > 0) {
+                    throw e;                //segmento successivo al primo: file manomesso o troncato, non un file legacy
+                }
+                Log.d(TAG, "Primo segmento non autenticato, riprovo come file legacy: " + archivedFile.getOriginalName());
+            }
+        } else if (version == PayloadCodec.VERSION_RAW || version == PayloadCodec.VERSION_DEFLATE) {
+            try {
+                decryptStreamTo(encryptedFile, out, fileSecretKey, version);
+                return;
+            } catch (AEADBadTagException e) {
+                // in GCM il testo in chiaro esce solo da doFinal: se il tag non torna non è stato scritto nulla
+                Log.d(TAG, "Intestazione non autenticata, riprovo come file legacy: " + archivedFile.getOriginalName());
+            }
+        }
+        decryptStreamTo(encryptedFile, out, fileSecretKey, -1);        //file salvati prima dell'intestazione
+    }
+
+    // File archiviati prima delle chiavi dati: chiave di sessione
+    private SecretKey keyFor(ArchivedFile archivedFile) throws GeneralSecurityException {
+        SecretKey masterKey = keyVault.getNotesAndFilesKey(applicationContext);
+        if (masterKey == null) {
+            throw new GeneralSecurityException("Chiave AES per file non disponibile.");
+        }
+        return DataKeys.keyFor(archivedFile.getWrappedKey(), masterKey);
+    }
+
+    // Formati a messaggio unico. version -1 = formato legacy (IV || ciphertext || tag, senza intestazione).
+    // Il ciphertext passa dal FileChannel a un buffer diretto riusato; GCM però rilascia il testo in chiaro solo in doFinal,
+    // dopo la verifica del tag, quindi il buffer di uscita cresce fino alla dimensione del file (come il vecchio doFinal()).
+    private static void decryptStreamTo(File encryptedFile, WritableByteChannel out, SecretKey fileSecretKey, int version) throws IOException, GeneralSecurityException {
+        try (FileChannel in = new FileInputStream(encryptedFile).getChannel()) {
+            ByteBuffer header = null;
+            if (version != -1) {
+                header = ByteBuffer.allocate(PayloadCodec.HEADER_SIZE);
+                if (readFully(in, header) != PayloadCodec.HEADER_SIZE) {
+                    throw new IOException("Errore: intestazione del file incompleta.");
+                }
+            }
+
+            ByteBuffer iv = ByteBuffer.allocate(AeadCodec.IV_SIZE_BYTES);
+            if (readFully(in, iv) != AeadCodec.IV_SIZE_BYTES) {
+                throw new IOException("Errore: IV non letto correttamente o dimensione errata.");
+            }
+
+            Cipher cipher = AeadCodec.initStreamCipher(Cipher.DECRYPT_MODE, fileSecretKey, iv.array(), 0);
+            if (header != null) {
+                cipher.updateAAD(header.array());
+            }
+
+            ByteBuffer ciphertext = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+            ByteBuffer plaintext = ByteBuffer.allocate(0);
+            boolean endOfFile;
+            do {
+                ciphertext.clear();
+                endOfFile = readFully(in, ciphertext) < READ_BUFFER_SIZE;
+                ciphertext.flip();
+                plaintext = ensureCapacity(plaintext, cipher.getOutputSize(ciphertext.remaining()));
+                if (endOfFile) {
+                    cipher.doFinal(ciphertext, plaintext);          // doFinal verifica il tag e completa la decrittografia
+                } else {
+                    cipher.update(ciphertext, plaintext);
+                }
+            } while (!endOfFile);
+            plaintext.flip();
+
+            try {
+                if (version == PayloadCodec.VERSION_DEFLATE) {
+                    InflaterOutputStream inflatingSink = new InflaterOutputStream(Channels.newOutputStream(out));
+                    inflatingSink.write(plaintext.array(), plaintext.arrayOffset() + plaintext.position(), plaintext.remaining());
+                    inflatingSink.finish();
+                } else {
+                    writeFully(out, plaintext);
+                }
+            } finally {
+                Arrays.fill(plaintext.array(), (byte) 0);
+            }
+        }
+    }
+
+    // Il testo già prodotto viene conservato: alcuni provider rilasciano dati anche in update()
+    private static ByteBuffer ensureCapacity(ByteBuffer buffer, int additional) {
+        if (buffer.remaining() >= additional) {
+            return buffer;
+        }
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.position() + additional, buffer.capacity() * 2));
+        buffer.flip();
+        larger.put(buffer);
+        Arrays.fill(buffer.array(), (byte) 0);
+        return larger;
+    }
+
+    private static int readFully(FileChannel in, ByteBuffer target) throws IOException {
+        int total = 0;
+        while (target.hasRemaining()) {
+            int read = in.read(target);
+            if (read == -1) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    private static void writeFully(WritableByteChannel out, ByteBuffer source) throws IOException {
+        while (source.hasRemaining()) {
+            out.write(source);
+        }
+    }
+
+    // Conta i byte già consegnati: dopo il primo il ripiego sul formato legacy non è più possibile
+    private static final class CountingChannel implements WritableByteChannel {
+
+        private final WritableByteChannel target;
+        long written;
+
+        CountingChannel(WritableByteChannel target) {
+            this.target = target;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int n = target.write(src);
+            written += n;
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return target.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            target.close();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.securenotes.data.repository;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+// Cache in memoria dei contenuti decriptati, condivisa da tutti i NoteRepository.
+// Ogni voce è legata all'id della nota e a un'impronta del testo cifrato: se la riga cambia
+// (nuovo IV ad ogni salvataggio) l'impronta non coincide più e la nota viene decriptata di nuovo.
+// LRU limitata a MAX_ENTRIES note e MAX_BYTES di testo in chiaro: in memoria restano le pagine viste di recente,
+// non tutte le note aperte nella sessione.
+public class DecryptedNoteCache {
+
+    private static final int PREFIX_SIZE_BYTES = 16;    //intestazione (4 byte) + IV GCM (12 byte) in testa al BLOB
+    private static final int MAX_ENTRIES = 300;         //10 pagine della lista
+    private static final long MAX_BYTES = 4L * 1024 * 1024;        //stima dei caratteri in chiaro trattenuti
+
+    private static volatile DecryptedNoteCache INSTANCE;
+
+    private final LinkedHashMap<Integer, CachedContent> entries = new LinkedHashMap<>(64, 0.75f, true);     //ordine di accesso = LRU
+    private long totalBytes;
+
+    private DecryptedNoteCache() {
+    }
+
+    public static DecryptedNoteCache getInstance() {
+        if (INSTANCE == null) {
+            synchronized (DecryptedNoteCache.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new DecryptedNoteCache();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    // Restituisce il contenuto in chiaro solo se il testo cifrato non è cambiato, altrimenti null
+    public synchronized String get(int noteId, byte[] encryptedContent) {
+        CachedContent cached = entries.get(noteId);
+        if (cached == null || encryptedContent == null) {
+            return null;
+        }
+        if (!cached.matches(encryptedContent)) {
+            evict(noteId);                  //versione vecchia della nota
+            return null;
+        }
+        return cached.plaintext;
+    }
+
+    public synchronized void put(int noteId, byte[] encryptedContent, String plaintext) {
+        if (encryptedContent == null || plaintext == null) {
+            return;
+        }
+        CachedContent content = new CachedContent(encryptedContent, plaintext);
+        if (content.bytes > MAX_BYTES / 4) {
+            return;                 //una nota enorme svuoterebbe la cache per una sola voce
+        }
+        CachedContent previous = entries.put(noteId, content);
+        if (previous != null) {
+            totalBytes -= previous.bytes;
+        }
+        totalBytes += content.bytes;
+
+        Iterator<CachedContent> eldest = entries.values().iterator();
+        while ((entries.size() > MAX_ENTRIES || totalBytes > MAX_BYTES) && eldest.hasNext()) {
+            totalBytes -= eldest.next().bytes;
+            eldest.remove();
+        }
+    }
+
+    public synchronized void evict(int noteId) {
+        CachedContent removed = entries.remove(noteId);
+        if (removed != null) {
+            totalBytes -= removed.bytes;
+        }
+    }
+
+    // Chiamato al logout: nessun testo in chiaro deve sopravvivere alla sessione
+    public synchronized void clear() {
+        entries.clear();
+        totalBytes = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    // Impronta economica: l'IV è casuale per ogni cifratura, quindi IV + lunghezza identificano la versione della nota
+    private static class CachedContent {
+        final byte[] ivPrefix;
+        final int length;
+        final String plaintext;
+        final long bytes;
+
+        CachedContent(byte[] encryptedContent, String plaintext) {
+            this.ivPrefix = Arrays.copyOf(encryptedContent, Math.min(PREFIX_SIZE_BYTES, encryptedContent.length));
+            this.length = encryptedContent.length;
+            this.plaintext = plaintext;
+            this.bytes = 2L * plaintext.length();
+        }
+
+        boolean matches(byte[] encryptedContent) {
+            if (encryptedContent.length != length) {
+                return false;
+            }
+            for (int i = 0; i < ivPrefix.length; i++) {
+                if (encryptedContent[i] != ivPrefix[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
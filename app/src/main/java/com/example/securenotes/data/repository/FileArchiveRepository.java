@@ -12,50 +12,58 @@ import androidx.lifecycle.MutableLiveData;
 import com.example.securenotes.data.dao.ArchivedFileDao;
 import com.example.securenotes.data.database.AppDatabase;
 import com.example.securenotes.data.model.ArchivedFile;
-import com.example.securenotes.security.SecurityUtils;
+import com.example.securenotes.security.DataKeys;
+import com.example.securenotes.security.DecryptedSegmentCache;
+import com.example.securenotes.security.SegmentedFileWriter;
+import com.example.securenotes.security.SessionKeyVault;
+import com.example.securenotes.utils.AppExecutors;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.security.GeneralSecurityException;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
-import javax.crypto.spec.GCMParameterSpec;
-import javax.crypto.spec.IvParameterSpec;
 
 
 public class FileArchiveRepository {
     private static final String TAG = "FileArchiveRepository";
+    private AppDatabase database;
     private ArchivedFileDao archivedFileDao;
     private LiveData<List<ArchivedFile>> allArchivedFiles;
     private MutableLiveData<List<ArchivedFile>> allDecryptedFilesMetadata;
     private ExecutorService executorService;
+    private SessionKeyVault keyVault;
     private Context applicationContext;
 
-    private static final String ENCRYPTED_FILES_DIR = "encrypted_files";
-    private static final String TEMP_DECRYPTED_FILES_DIR = "temp_decrypted_files";
+    public static final String ENCRYPTED_FILES_DIR = "encrypted_files";
+    public static final String TEMP_DECRYPTED_FILES_DIR = "temp_decrypted_files";
 
-
-    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    // Un file in scrittura non ha ancora la sua riga: la pulizia degli orfani ignora i file recenti
+    private static final long ORPHAN_MIN_AGE_MS = TimeUnit.HOURS.toMillis(1);
+    private static final AtomicBoolean orphanSweepStarted = new AtomicBoolean(false);
 
     public FileArchiveRepository(Application application) {
-        AppDatabase database = AppDatabase.getDatabase(application);
+        database = AppDatabase.getDatabase(application);
         archivedFileDao = database.archivedFileDao();
         allArchivedFiles = archivedFileDao.getAllArchivedFiles();
         allDecryptedFilesMetadata = new MutableLiveData<>();
         executorService = Executors.newSingleThreadExecutor();
+        keyVault = SessionKeyVault.getInstance();
         this.applicationContext = application.getApplicationContext();
 
         allArchivedFiles.observeForever(archivedFileList -> {
@@ -63,36 +71,69 @@ public class FileArchiveRepository {
                 allDecryptedFilesMetadata.postValue(archivedFileList);
             });
         });
+
+        if (orphanSweepStarted.compareAndSet(false, true)) {
+            AppExecutors.getInstance().background().execute(this::deleteOrphanedFiles);
+        }
     }
 
     public LiveData<List<ArchivedFile>> getAllArchivedFilesMetadata() {
         return allDecryptedFilesMetadata;
     }
 
-    public void insertFileMetadata(ArchivedFile archivedFile) {
-        executorService.execute(() -> archivedFileDao.insert(archivedFile));
-    }
-
-    public void updateFileMetadata(ArchivedFile archivedFile) {
-        executorService.execute(() -> archivedFileDao.update(archivedFile));
-    }
-
+    // File con chiave dati propria: eliminare la riga distrugge la chiave, che dopo il checkpoint del WAL non resta
+    // nemmeno nel file del database (vedi AppDatabase.checkpointWal). Da lì il file cifrato è illeggibile qualunque sia
+    // la sua dimensione e viene rimosso dopo, in background.
+    // File legacy (wrapped_key NULL): sono cifrati con la DEK della sessione, che resta valida, quindi il file va
+    // eliminato subito.
     public void deleteFileMetadata(ArchivedFile archivedFile) {
         executorService.execute(() -> {
+            archivedFileDao.delete(archivedFile);
+            database.checkpointWal();
             File encryptedFile = new File(applicationContext.getFilesDir(), ENCRYPTED_FILES_DIR + File.separator + archivedFile.getEncryptedFilename());
-            if (encryptedFile.exists()) {
-                if (encryptedFile.delete()) {
-                    Log.d(TAG, "File criptato eliminato con successo: " + encryptedFile.getName());
-                } else {
-                    Log.e(TAG, "Impossibile eliminare il file criptato: " + encryptedFile.getName());
-                }
+            DecryptedSegmentCache.getInstance().evictFile(encryptedFile.getAbsolutePath());
+            if (archivedFile.getWrappedKey() == null) {
+                deleteEncryptedFile(encryptedFile);
+            } else {
+                AppExecutors.getInstance().background().execute(() -> deleteEncryptedFile(encryptedFile));
             }
-            archivedFileDao.delete(archivedFile);
         });
     }
 
+    private static void deleteEncryptedFile(File encryptedFile) {
+        if (encryptedFile.exists()) {
+            if (encryptedFile.delete()) {
+                Log.d(TAG, "File criptato eliminato con successo: " + encryptedFile.getName());
+            } else {
+                Log.e(TAG, "Impossibile eliminare il file criptato: " + encryptedFile.getName());      //ritentato dalla pulizia degli orfani
+            }
+        }
+    }
+
+    // File cifrati senza riga (app chiusa tra l'eliminazione della riga e quella del file): la chiave non esiste più
+    private void deleteOrphanedFiles() {
+        File encryptedFilesDir = new File(applicationContext.getFilesDir(), ENCRYPTED_FILES_DIR);
+        File[] files = encryptedFilesDir.listFiles();
+        if (files == null || files.length == 0) {
+            return;
+        }
+        Set<String> referenced = new HashSet<>(archivedFileDao.getAllEncryptedFilenames());
+        long cutoff = System.currentTimeMillis() - ORPHAN_MIN_AGE_MS;
+        int deleted = 0;
+        for (File file : files) {
+            if (file.isFile() && !referenced.contains(file.getName()) && file.lastModified() < cutoff && file.delete()) {
+                deleted++;
+            }
+        }
+        if (deleted > 0) {
+            Log.d(TAG, "Eliminati " + deleted + " file cifrati orfani.");
+        }
+    }
+
 
-    public ArchivedFile encryptAndSaveFile(Uri uri, String originalFileName, String mimeType) throws IOException, GeneralSecurityException {
+    // Cifra in un nuovo file dell'archivio quanto letto da in; la riga va inserita dal chiamante (insertFilesMetadataBlocking).
+    // Va chiamato fuori dal main thread; in caso di errore o annullamento il file parziale viene eliminato.
+    public ArchivedFile encryptToArchive(ReadableByteChannel in, String originalFileName, String mimeType) throws IOException, GeneralSecurityException {
         String encryptedFileName = UUID.randomUUID().toString();
         File encryptedFile = new File(applicationContext.getFilesDir(), ENCRYPTED_FILES_DIR + File.separator + encryptedFileName);
 
@@ -100,41 +141,21 @@ public class FileArchiveRepository {
             encryptedFile.getParentFile().mkdirs();
         }
 
-        SecretKey fileSecretKey = SecurityUtils.getOrCreateNotesAndFilesAesKey(applicationContext);
-        if (fileSecretKey == null) {
+        SecretKey masterKey = keyVault.getNotesAndFilesKey(applicationContext);
+        if (masterKey == null) {
             throw new GeneralSecurityException("Chiave AES per file non disponibile.");
         }
+        SecretKey fileSecretKey = DataKeys.generate();          //chiave propria del file, salvata cifrata nella riga
+        byte[] wrappedKey = DataKeys.wrap(fileSecretKey, masterKey);
 
-
-        byte[] iv = SecurityUtils.generateRandomIv();
-        GCMParameterSpec gcmSpec = new GCMParameterSpec(SecurityUtils.getGcmTagLengthBytes() * 8, iv);
-
-        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
-        cipher.init(Cipher.ENCRYPT_MODE, fileSecretKey, gcmSpec);
-
-        try (InputStream is = applicationContext.getContentResolver().openInputStream(uri);
-             OutputStream os = new FileOutputStream(encryptedFile)) {
-
-            // Scrivi prima l'IV all'inizio del file criptato            e poi i dati del file
-            os.write(iv);
-
-            byte[] buffer = new byte[1024];
-            int bytesRead;
-            while ((bytesRead = is.read(buffer)) != -1) {
-                byte[] encryptedBytes = cipher.update(buffer, 0, bytesRead);
-                if (encryptedBytes != null) {
-                    os.write(encryptedBytes);
-                }
-            }
-            byte[] finalEncryptedBytes = cipher.doFinal(); // Completa l'operazione di crittografia (qui viene aggiunto il tag GCM)
-            if (finalEncryptedBytes != null) {
-                os.write(finalEncryptedBytes);
-            }
-            os.flush();
-            Log.d(TAG, "File criptato salvato: " + encryptedFile.getAbsolutePath());
+        // Formato a segmenti: ogni blocco da 64 KB è autenticato da solo, quindi il file si può leggere ad accesso casuale.
+        // Non si comprime: la compressione renderebbe variabile la posizione dei segmenti.
+        try (FileChannel out = new FileOutputStream(encryptedFile).getChannel()) {
+            long plaintextSize = new SegmentedFileWriter(fileSecretKey).encrypt(in, out);
+            Log.d(TAG, "File criptato salvato a segmenti (" + plaintextSize + " byte): " + encryptedFile.getAbsolutePath());
 
             ArchivedFile archivedFile = new ArchivedFile(originalFileName, encryptedFileName, mimeType, System.currentTimeMillis());
-            insertFileMetadata(archivedFile);
+            archivedFile.setWrappedKey(wrappedKey);
             return archivedFile;
 
         } catch (IOException | GeneralSecurityException e) {
@@ -146,78 +167,43 @@ public class FileArchiveRepository {
         }
     }
 
-
-    public File decryptFileToTemp(ArchivedFile archivedFile) throws IOException, GeneralSecurityException {
-        File encryptedFile = new File(applicationContext.getFilesDir(), ENCRYPTED_FILES_DIR + File.separator + archivedFile.getEncryptedFilename());
-        File decryptedTempDir = new File(applicationContext.getCacheDir(), TEMP_DECRYPTED_FILES_DIR);
-        if (!decryptedTempDir.exists()) {
-            decryptedTempDir.mkdirs();
+    // Canale di lettura del documento scelto dall'utente: i provider restituiscono quasi sempre un FileInputStream,
+    // da cui si legge direttamente con il suo FileChannel
+    public ReadableByteChannel openSourceChannel(Uri uri) throws IOException {
+        InputStream is = applicationContext.getContentResolver().openInputStream(uri);
+        if (is == null) {
+            throw new IOException("Impossibile aprire il file da archiviare: " + uri);
         }
-        File decryptedTempFile = new File(decryptedTempDir, archivedFile.getEncryptedFilename() + "_decrypted." + getFileExtension(archivedFile.getOriginalName()));
+        return is instanceof FileInputStream ? ((FileInputStream) is).getChannel() : Channels.newChannel(is);
+    }
 
-        SecretKey fileSecretKey = SecurityUtils.getOrCreateNotesAndFilesAesKey(applicationContext);
-        if (fileSecretKey == null) {
-            throw new GeneralSecurityException("Chiave AES per file non disponibile.");
+    // Righe di un lotto di file importati, in un'unica transazione. Va chiamato fuori dal main thread.
+    public void insertFilesMetadataBlocking(List<ArchivedFile> archivedFiles) {
+        if (archivedFiles.isEmpty()) {
+            return;
         }
-
-        try (InputStream is = new FileInputStream(encryptedFile);
-             OutputStream os = new FileOutputStream(decryptedTempFile)) {
-
-            // Leggi prima l'IV (primi 12 byte per AES/GCM raccomandato)
-            byte[] iv = new byte[SecurityUtils.GCM_IV_SIZE_BYTES]; // Usa la dimensione IV di GCM
-            int bytesReadIv = is.read(iv);
-            if (bytesReadIv != SecurityUtils.GCM_IV_SIZE_BYTES) {
-                throw new IOException("Errore: IV non letto correttamente o dimensione errata.");
-            }
-            GCMParameterSpec gcmSpec = new GCMParameterSpec(SecurityUtils.getGcmTagLengthBytes() * 8, iv); // Tag length in bits, IV
-
-            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
-            cipher.init(Cipher.DECRYPT_MODE, fileSecretKey, gcmSpec); // Inizializza con GCMParameterSpec
-
-            byte[] buffer = new byte[1024];
-            int bytesRead;
-            while ((bytesRead = is.read(buffer)) != -1) {           //Legge il file criptato in blocchi
-                byte[] decryptedBytes = cipher.update(buffer, 0, bytesRead); //decisfra ogni blocco
-                if (decryptedBytes != null) {
-                    os.write(decryptedBytes);
-                }
-            }
-            byte[] finalDecryptedBytes = cipher.doFinal(); // doFinal verifica il tag e completa la decrittografia
-            if (finalDecryptedBytes != null) {
-                os.write(finalDecryptedBytes);
-            }
-            os.flush();
-            Log.d(TAG, "File decriptato temporaneamente in: " + decryptedTempFile.getAbsolutePath());
-            return decryptedTempFile;
-
-        } catch (IOException | GeneralSecurityException e) {
-            Log.e(TAG, "Errore durante la decrittografia del file (GCM): " + archivedFile.getOriginalName(), e);
-            if (decryptedTempFile.exists()) {
-                decryptedTempFile.delete();
-            }
-            throw e;
+        List<Long> ids = archivedFileDao.insertAll(archivedFiles);
+        for (int i = 0; i < ids.size(); i++) {
+            archivedFiles.get(i).setId(ids.get(i).intValue());
         }
     }
 
-    public void cleanTempDecryptedFiles() {
-        File decryptedTempDir = new File(applicationContext.getCacheDir(), TEMP_DECRYPTED_FILES_DIR);
-        if (decryptedTempDir.exists() && decryptedTempDir.isDirectory()) {
-            for (File file : decryptedTempDir.listFiles()) {
-                if (file.delete()) {
-                    Log.d(TAG, "File temporaneo eliminato: " + file.getName());
-                } else {
-                    Log.w(TAG, "Impossibile eliminare il file temporaneo: " + file.getName());
-                }
-            }
 
+    // File in chiaro lasciati in cache dalle versioni che decriptavano su disco prima di aprire il viewer
+    // (anche dopo un crash). Chiamato all'avvio del processo, fuori dal main thread.
+    public static void cleanTempDecryptedFiles(Context context) {
+        File decryptedTempDir = new File(context.getCacheDir(), TEMP_DECRYPTED_FILES_DIR);
+        File[] files = decryptedTempDir.listFiles();
+        if (files == null) {
+            return;
         }
-    }
-
-    private String getFileExtension(String fileName) {
-        int dotIndex = fileName.lastIndexOf('.');
-        if (dotIndex == -1 || dotIndex == fileName.length() - 1) {
-            return "";
+        for (File file : files) {
+            if (file.delete()) {
+                Log.d(TAG, "File temporaneo eliminato: " + file.getName());
+            } else {
+                Log.w(TAG, "Impossibile eliminare il file temporaneo: " + file.getName());
+            }
         }
-        return fileName.substring(dotIndex + 1);
+        decryptedTempDir.delete();
     }
 }
\ No newline at end of file
@@ -0,0 +1,353 @@
+package com.example.securenotes.data.repository;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.OpenableColumns;
+import android.util.Log;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import com.example.securenotes.data.model.ArchivedFile;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Importazione di più documenti insieme. Ogni file passa da lettura (ContentResolver), cifratura e scrittura su un
+// pool di pochi thread: mentre un thread attende il provider un altro cifra e scrive, senza un thread per file.
+// Le righe vengono inserite a lotti di BATCH_SIZE, una transazione per lotto. Avanzamento per file e complessivo
+// come LiveData; cancel() ferma il file in corso al blocco successivo e salta quelli in coda.
+public class FileImportPipeline {
+
+    private static final String TAG = "FileImportPipeline";
+
+    private static final int MAX_WORKERS = Math.max(1, Math.min(3, Runtime.getRuntime().availableProcessors() - 1));
+    private static final long IDLE_TIMEOUT_SECONDS = 10;
+    static final int BATCH_SIZE = 20;
+    // L'avanzamento in byte di un file viene pubblicato al più ogni PROGRESS_STEP_BYTES
+    private static final long PROGRESS_STEP_BYTES = 512 * 1024;
+
+    public enum State { QUEUED, RUNNING, DONE, FAILED, CANCELLED }
+
+    // Stato di un singolo file (istantanea immutabile)
+    public static final class FileProgress {
+        private final Uri uri;
+        private final String name;
+        private final State state;
+        private final long bytesRead;
+        private final long totalBytes;
+
+        FileProgress(Uri uri, String name, State state, long bytesRead, long totalBytes) {
+            this.uri = uri;
+            this.name = name;
+            this.state = state;
+            this.bytesRead = bytesRead;
+            this.totalBytes = totalBytes;
+        }
+
+        public Uri getUri() {
+            return uri;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        // -1 se il provider non dichiara la dimensione
+        public long getTotalBytes() {
+            return totalBytes;
+        }
+    }
+
+    // Avanzamento complessivo (istantanea immutabile)
+    public static final class Progress {
+        private final int total;
+        private final int completed;
+        private final int failed;
+        private final int cancelled;
+        private final boolean finished;
+
+        Progress(int total, int completed, int failed, int cancelled, boolean finished) {
+            this.total = total;
+            this.completed = completed;
+            this.failed = failed;
+            this.cancelled = cancelled;
+            this.finished = finished;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        public int getCompleted() {
+            return completed;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+
+        public int getCancelled() {
+            return cancelled;
+        }
+
+        public int getProcessed() {
+            return completed + failed + cancelled;
+        }
+
+        // true quando ogni file è concluso e l'ultimo lotto è nel database
+        public boolean isFinished() {
+            return finished;
+        }
+    }
+
+    private final FileArchiveRepository repository;
+    private final ContentResolver contentResolver;
+    private final MutableLiveData<Progress> progress = new MutableLiveData<>();
+    private final MutableLiveData<List<FileProgress>> fileProgress = new MutableLiveData<>();
+
+    // Stato dell'importazione in corso: protetto da lock
+    private final Object lock = new Object();
+    private FileProgress[] files = new FileProgress[0];
+    private final List<ArchivedFile> pendingBatch = new ArrayList<>();
+    private int remaining;
+    private int completed;
+    private int failed;
+    private int cancelledCount;
+    private int insertsInFlight;            //lotti tolti da pendingBatch e non ancora nel database
+    private boolean running;
+    private volatile boolean cancelRequested;
+
+    public FileImportPipeline(FileArchiveRepository repository, ContentResolver contentResolver) {
+        this.repository = repository;
+        this.contentResolver = contentResolver;
+    }
+
+    public LiveData<Progress> getProgress() {
+        return progress;
+    }
+
+    public LiveData<List<FileProgress>> getFileProgress() {
+        return fileProgress;
+    }
+
+    public boolean isRunning() {
+        synchronized (lock) {
+            return running;
+        }
+    }
+
+    // Avvia l'importazione; false se ce n'è già una in corso
+    public boolean start(List<Uri> uris) {
+        synchronized (lock) {
+            if (running || uris.isEmpty()) {
+                return false;
+            }
+            running = true;
+            cancelRequested = false;
+            files = new FileProgress[uris.size()];
+            for (int i = 0; i < files.length; i++) {
+                files[i] = new FileProgress(uris.get(i), uris.get(i).getLastPathSegment(), State.QUEUED, 0, -1);
+            }
+            pendingBatch.clear();
+            remaining = files.length;
+            completed = 0;
+            failed = 0;
+            cancelledCount = 0;
+            insertsInFlight = 0;
+            publishLocked(false);
+        }
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(MAX_WORKERS, MAX_WORKERS, IDLE_TIMEOUT_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "file-import-" + threadNumber.incrementAndGet());
+                    thread.setPriority(Thread.NORM_PRIORITY - 1);
+                    return thread;
+                });
+        workers.allowCoreThreadTimeOut(true);
+        for (int i = 0; i < uris.size(); i++) {
+            int index = i;
+            Uri uri = uris.get(i);
+            workers.execute(() -> importOne(index, uri));
+        }
+        workers.shutdown();             //i file in coda vengono comunque elaborati, poi i thread terminano
+        Log.d(TAG, "Importazione avviata: " + uris.size() + " file su " + MAX_WORKERS + " thread.");
+        return true;
+    }
+
+    // I file già cifrati restano nell'archivio; quello in corso viene interrotto e il suo file parziale eliminato
+    public void cancel() {
+        cancelRequested = true;
+    }
+
+    private void importOne(int index, Uri uri) {
+        if (cancelRequested) {
+            finish(index, State.CANCELLED, null);
+            return;
+        }
+        String name = uri.getLastPathSegment();
+        long size = -1;
+        try (Cursor cursor = contentResolver.query(uri, new String[]{OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE}, null, null, null)) {
+            if (cursor != null && cursor.moveToFirst()) {
+                int nameIndex = cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME);
+                int sizeIndex = cursor.getColumnIndex(OpenableColumns.SIZE);
+                if (nameIndex != -1 && !cursor.isNull(nameIndex)) {
+                    name = cursor.getString(nameIndex);
+                }
+                if (sizeIndex != -1 && !cursor.isNull(sizeIndex)) {
+                    size = cursor.getLong(sizeIndex);
+                }
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Metadati non disponibili per: " + uri, e);
+        }
+        String mimeType = contentResolver.getType(uri);
+        update(index, name, State.RUNNING, 0, size);
+
+        try (ReadableByteChannel source = new ProgressChannel(repository.openSourceChannel(uri), index, name, size)) {
+            ArchivedFile archivedFile = repository.encryptToArchive(source, name, mimeType);
+            finish(index, State.DONE, archivedFile);
+        } catch (InterruptedIOException e) {
+            Log.d(TAG, "Importazione annullata: " + name);
+            finish(index, State.CANCELLED, null);
+        } catch (Exception e) {
+            Log.e(TAG, "Errore durante l'importazione del file: " + name, e);
+            finish(index, State.FAILED, null);
+        }
+    }
+
+    private void update(int index, String name, State state, long bytesRead, long totalBytes) {
+        synchronized (lock) {
+            files[index] = new FileProgress(files[index].getUri(), name, state, bytesRead, totalBytes);
+            fileProgress.postValue(Collections.unmodifiableList(Arrays.asList(files.clone())));
+        }
+    }
+
+    private void finish(int index, State state, ArchivedFile archivedFile) {
+        List<ArchivedFile> batch = null;
+        synchronized (lock) {
+            FileProgress current = files[index];
+            long bytesRead = state == State.DONE && current.getTotalBytes() >= 0 ? current.getTotalBytes() : current.getBytesRead();
+            files[index] = new FileProgress(current.getUri(), current.getName(), state, bytesRead, current.getTotalBytes());
+            if (state == State.DONE) {
+                completed++;
+                pendingBatch.add(archivedFile);
+            } else if (state == State.FAILED) {
+                failed++;
+            } else {
+                cancelledCount++;
+            }
+            remaining--;
+            if (pendingBatch.size() >= BATCH_SIZE || (remaining == 0 && !pendingBatch.isEmpty())) {
+                batch = new ArrayList<>(pendingBatch);
+                pendingBatch.clear();
+                insertsInFlight++;
+            }
+            publishProgressLocked();
+        }
+
+        if (batch != null) {
+            insertBatch(batch);
+        }
+    }
+
+    private void insertBatch(List<ArchivedFile> batch) {
+        boolean inserted = false;
+        try {
+            repository.insertFilesMetadataBlocking(batch);
+            inserted = true;
+            Log.d(TAG, "Inserito un lotto di " + batch.size() + " file.");
+        } catch (RuntimeException e) {
+            // senza riga i file cifrati restano orfani: li elimina la pulizia degli orfani di FileArchiveRepository
+            Log.e(TAG, "Errore durante l'inserimento di un lotto di " + batch.size() + " file.", e);
+        } finally {
+            synchronized (lock) {
+                insertsInFlight--;
+                if (!inserted) {
+                    completed -= batch.size();
+                    failed += batch.size();
+                }
+                publishProgressLocked();            //i conteggi corretti arrivano anche alla UI
+            }
+        }
+    }
+
+    // Conclusa solo quando ogni file è terminato e nessun lotto è ancora in inserimento, da qualunque thread arrivi per ultimo
+    private void publishProgressLocked() {
+        boolean finished = remaining == 0 && insertsInFlight == 0;
+        if (finished && running) {
+            running = false;
+            Log.i(TAG, "Importazione conclusa: " + completed + " importati, " + failed + " errori, " + cancelledCount + " annullati.");
+        }
+        publishLocked(finished);
+    }
+
+    private void publishLocked(boolean finished) {
+        progress.postValue(new Progress(files.length, completed, failed, cancelledCount, finished));
+        fileProgress.postValue(Collections.unmodifiableList(Arrays.asList(files.clone())));
+    }
+
+    // Conta i byte letti dal provider e interrompe la lettura quando l'importazione viene annullata
+    private final class ProgressChannel implements ReadableByteChannel {
+
+        private final ReadableByteChannel source;
+        private final int index;
+        private final String name;
+        private final long totalBytes;
+        private long bytesRead;
+        private long lastPublished;
+
+        ProgressChannel(ReadableByteChannel source, int index, String name, long totalBytes) {
+            this.source = source;
+            this.index = index;
+            this.name = name;
+            this.totalBytes = totalBytes;
+        }
+
+        @Override
+        public int read(ByteBuffer target) throws IOException {
+            if (cancelRequested) {
+                throw new InterruptedIOException("Importazione annullata");
+            }
+            int read = source.read(target);
+            if (read > 0) {
+                bytesRead += read;
+                if (bytesRead - lastPublished >= PROGRESS_STEP_BYTES) {
+                    lastPublished = bytesRead;
+                    update(index, name, State.RUNNING, bytesRead, totalBytes);
+                }
+            }
+            return read;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return source.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            source.close();
+        }
+    }
+}
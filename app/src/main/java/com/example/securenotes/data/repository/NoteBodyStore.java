@@ -0,0 +1,101 @@
+package com.example.securenotes.data.repository;
+
+import com.example.securenotes.data.dao.NoteChunkDao;
+import com.example.securenotes.data.model.NoteChunk;
+import com.example.securenotes.security.PayloadCodec;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+
+// Corpo delle note lunghe diviso in blocchi di dimensione fissa nella tabella note_chunks.
+// Le note fino a CHUNK_CHARS caratteri restano nella colonna content (chunk_count = 0).
+// I metodi di scrittura vanno chiamati dentro la transazione che aggiorna la riga della nota.
+// Limite noto: i confini dei blocchi sono fissi (ogni CHUNK_CHARS caratteri) e i blocchi si confrontano per indice.
+// Una modifica che non cambia la lunghezza o un'aggiunta in coda riscrivono uno o due blocchi, ma un inserimento o una
+// cancellazione sposta tutto il testo successivo: vengono riscritti tutti i blocchi dal punto modificato alla fine
+// (su una nota da 20 MB, un carattere inserito all'inizio riscrive ogni blocco). Confini dipendenti dal contenuto
+// non basterebbero: i blocchi uguali cambierebbero comunque indice, servirebbe un riordino delle righe di note_chunks.
+public class NoteBodyStore {
+
+    public static final int CHUNK_CHARS = 32 * 1024;       //~32-96 KB in UTF-8: ben sotto la CursorWindow da 2 MB
+    private static final int DIGEST_SIZE_BYTES = 16;
+
+    private final NoteChunkDao chunkDao;
+
+    public NoteBodyStore(NoteChunkDao chunkDao) {
+        this.chunkDao = chunkDao;
+    }
+
+    public static boolean needsChunks(String content) {
+        return content != null && content.length() > CHUNK_CHARS;
+    }
+
+    // Divide il testo in blocchi di CHUNK_CHARS caratteri senza spezzare le coppie surrogate
+    public static List<String> split(String content) {
+        List<String> chunks = new ArrayList<>(content.length() / CHUNK_CHARS + 1);
+        int start = 0;
+        while (start < content.length()) {
+            int end = Math.min(start + CHUNK_CHARS, content.length());
+            if (end < content.length() && Character.isHighSurrogate(content.charAt(end - 1))) {
+                end--;
+            }
+            chunks.add(content.substring(start, end));
+            start = end;
+        }
+        return chunks;
+    }
+
+    // Riscrive solo i blocchi il cui HMAC è cambiato ed elimina quelli oltre la nuova lunghezza.
+    // Restituisce il numero di blocchi riscritti.
+    public int writeChunks(int noteId, List<String> chunks, SecretKey noteSecretKey, SecretKey digestKey) throws GeneralSecurityException {
+        List<byte[]> storedDigests = chunkDao.getChunkDigests(noteId);
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(digestKey);
+
+        List<NoteChunk> changed = new ArrayList<>();
+        int rewritten = 0;
+        for (int index = 0; index < chunks.size(); index++) {
+            byte[] plainChunk = chunks.get(index).getBytes(StandardCharsets.UTF_8);
+            byte[] digest = Arrays.copyOf(mac.doFinal(plainChunk), DIGEST_SIZE_BYTES);
+            if (index < storedDigests.size() && Arrays.equals(storedDigests.get(index), digest)) {
+                continue;                   //blocco invariato: nessuna cifratura né scrittura
+            }
+            changed.add(new NoteChunk(noteId, index, PayloadCodec.seal(plainChunk, noteSecretKey, true), digest));
+            rewritten++;
+            if (changed.size() == 16) {             //scrive a gruppi per non tenere in memoria tutti i blocchi cifrati
+                chunkDao.upsertChunks(changed);
+                changed.clear();
+            }
+        }
+        if (!changed.isEmpty()) {
+            chunkDao.upsertChunks(changed);
+        }
+        if (storedDigests.size() > chunks.size()) {
+            chunkDao.deleteChunksFrom(noteId, chunks.size());
+        }
+        return rewritten;
+    }
+
+    public void deleteChunks(int noteId) {
+        chunkDao.deleteChunksFrom(noteId, 0);
+    }
+
+    // Legge e decripta un blocco alla volta: in memoria restano solo il testo ricostruito e il blocco corrente
+    public String readChunks(int noteId, int chunkCount, SecretKey noteSecretKey) throws GeneralSecurityException {
+        StringBuilder body = new StringBuilder(Math.min(chunkCount, 1024) * CHUNK_CHARS);
+        for (int index = 0; index < chunkCount; index++) {
+            byte[] sealed = chunkDao.getChunkData(noteId, index);
+            if (sealed == null) {
+                throw new GeneralSecurityException("Blocco " + index + " mancante per la nota " + noteId);
+            }
+            body.append(PayloadCodec.openToString(sealed, noteSecretKey));
+        }
+        return body.toString();
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.securenotes.data.repository;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Decripta liste di note su tutti i core disponibili.
+// La lista viene divisa in blocchi contigui, ogni blocco è decriptato su un thread del pool
+// e i risultati vengono ricomposti nell'ordine originale (ORDER BY timestamp DESC).
+// Le note che falliscono l'autenticazione GCM vengono saltate, come nel ciclo sequenziale.
+public class NoteDecryptionEngine {
+
+    // Sotto questa soglia il costo dei thread supera il guadagno: si decripta sul thread chiamante
+    private static final int MIN_ITEMS_PER_CHUNK = 32;
+    private static final int CHUNKS_PER_THREAD = 4;         //blocchi più piccoli bilanciano note di dimensioni diverse
+
+    private static volatile NoteDecryptionEngine INSTANCE;
+
+    private final int parallelism;
+    private final ExecutorService pool;
+
+    public interface ItemDecryptor<T, R> {
+        // Restituisce null (o lancia GeneralSecurityException) per saltare l'elemento
+        R decrypt(T item) throws GeneralSecurityException;
+    }
+
+    public NoteDecryptionEngine(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(this.parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "note-decrypt-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static NoteDecryptionEngine getInstance() {
+        if (INSTANCE == null) {
+            synchronized (NoteDecryptionEngine.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new NoteDecryptionEngine(Runtime.getRuntime().availableProcessors());
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public <T, R> List<R> decryptAll(List<T> items, ItemDecryptor<T, R> decryptor) {
+        if (items == null || items.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        int chunkCount = Math.min(parallelism * CHUNKS_PER_THREAD, (items.size() + MIN_ITEMS_PER_CHUNK - 1) / MIN_ITEMS_PER_CHUNK);
+        if (parallelism == 1 || chunkCount <= 1) {
+            return decryptRange(items, 0, items.size(), decryptor);
+        }
+
+        int chunkSize = (items.size() + chunkCount - 1) / chunkCount;
+        List<Future<List<R>>> futures = new ArrayList<>(chunkCount);
+        // Il primo blocco viene decriptato dal thread chiamante mentre il pool lavora sugli altri
+        for (int start = chunkSize; start < items.size(); start += chunkSize) {
+            final int from = start;
+            final int to = Math.min(start + chunkSize, items.size());
+            Callable<List<R>> task = () -> decryptRange(items, from, to, decryptor);
+            futures.add(pool.submit(task));
+        }
+
+        List<R> results = new ArrayList<>(items.size());
+        results.addAll(decryptRange(items, 0, Math.min(chunkSize, items.size()), decryptor));
+        for (Future<List<R>> future : futures) {
+            try {
+                results.addAll(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancelAll(futures);
+                return results;
+            } catch (ExecutionException e) {
+                cancelAll(futures);
+                throw new IllegalStateException("Errore nella decrittografia parallela", e.getCause());
+            }
+        }
+        return results;
+    }
+
+    private static <T, R> List<R> decryptRange(List<T> items, int from, int to, ItemDecryptor<T, R> decryptor) {
+        List<R> chunkResults = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            try {
+                R decrypted = decryptor.decrypt(items.get(i));
+                if (decrypted != null) {
+                    chunkResults.add(decrypted);
+                }
+            } catch (GeneralSecurityException e) {
+                // tag GCM non valido o chiave non disponibile: l'elemento viene saltato
+            }
+        }
+        return chunkResults;
+    }
+
+    private static <R> void cancelAll(List<Future<List<R>>> futures) {
+        for (Future<List<R>> future : futures) {
+            future.cancel(true);
+        }
+    }
+}
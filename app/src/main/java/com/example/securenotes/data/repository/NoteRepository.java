@@ -2,105 +2,258 @@ package com.example.securenotes.data.repository;
 
 import android.app.Application;
 import android.content.Context;
-import android.util.Base64;
 import android.util.Log;
 
 import androidx.lifecycle.LiveData;
-import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.Transformations;
+import androidx.paging.Pager;
+import androidx.paging.PagingConfig;
+import androidx.paging.PagingData;
+import androidx.paging.PagingDataTransforms;
+import androidx.paging.PagingLiveData;
 
 import com.example.securenotes.data.dao.NoteDao;
+import com.example.securenotes.data.dao.NoteSearchIndexDao;
+import com.example.securenotes.data.dao.TagDao;
 import com.example.securenotes.data.database.AppDatabase;
 import com.example.securenotes.data.model.Note;
-import com.example.securenotes.security.SecurityUtils;
-import com.example.securenotes.utils.Constants;
+import com.example.securenotes.data.model.NoteSummary;
+import com.example.securenotes.data.model.Tag;
+import com.example.securenotes.data.model.TagCount;
+import com.example.securenotes.data.receiver.SelfDestructScheduler;
+import com.example.securenotes.data.search.NoteSearchIndexer;
+import com.example.securenotes.data.search.SearchMetrics;
+import com.example.securenotes.data.search.SearchTokenizer;
+import com.example.securenotes.data.search.TrigramIndex;
+import com.example.securenotes.security.DataKeys;
+import com.example.securenotes.security.PayloadCodec;
+import com.example.securenotes.security.SessionKeyVault;
 
-import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
-import javax.crypto.spec.GCMParameterSpec;
-import javax.crypto.spec.IvParameterSpec;
-
-import static javax.crypto.Cipher.DECRYPT_MODE;
 
 
 public class NoteRepository {
     private static final String TAG = "NoteRepository";
+    private static final int PAGE_SIZE = 30;
+    private static final int PREFETCH_DISTANCE = 30;
+    private static final int INITIAL_LOAD_SIZE = 60;
+    private static final int SEARCH_BACKFILL_BATCH_SIZE = 200;
+    private static final int PREVIEW_BACKFILL_BATCH_SIZE = 200;
+    private static final int TRIGRAM_BUILD_BATCH_SIZE = 200;
+    private static final int RANKED_RESULT_LIMIT = 100;         //risultati classificati mostrati per query
+    private static final AtomicBoolean searchBackfillStarted = new AtomicBoolean(false);      //una volta per processo
+    private static final AtomicBoolean previewBackfillStarted = new AtomicBoolean(false);
+    private static volatile NoteRepository INSTANCE;
+    private AppDatabase database;
     private NoteDao noteDao;
-    private LiveData<List<Note>> allEncryptedNotes;
-    private MutableLiveData<List<Note>> allDecryptedNotes;
+    private NoteSearchIndexDao searchIndexDao;
+    private TagDao tagDao;
+    private NoteBodyStore bodyStore;
     private ExecutorService executorService;
-
-    private static final String TRANSFORMATION = Constants.TRANSFORMATION;
+    private ExecutorService pageDecryptExecutor;            //decrittografia delle pagine fuori dal main thread
+    private ExecutorService searchExecutor;                 //una ricerca alla volta: quelle superate vengono annullate
+    private SessionKeyVault keyVault;
+    private DecryptedNoteCache decryptedNoteCache;
+    private SearchResultCache searchResultCache;
+    private TrigramIndex trigramIndex;
+    private SelfDestructScheduler selfDestructScheduler;
+    private NoteDecryptionEngine decryptionEngine;
 
     private Context applicationContext;
 
-    public NoteRepository(Application application) {
-        AppDatabase database = AppDatabase.getDatabase(application);
+    // Una sola istanza per processo: executor e backfill condivisi da tutte le schermate, mai duplicati né lasciati attivi
+    public static NoteRepository getInstance(Application application) {
+        if (INSTANCE == null) {
+            synchronized (NoteRepository.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new NoteRepository(application);
+                }
+            }
+        }
+        INSTANCE.startTrigramIndexBuild();
+        return INSTANCE;
+    }
+
+    private NoteRepository(Application application) {
+        database = AppDatabase.getDatabase(application);
         noteDao = database.noteDao();
-        allEncryptedNotes = noteDao.getAllNotes(); // LiveData dalle note non filtrate
-        allDecryptedNotes = new MutableLiveData<>();
+        searchIndexDao = database.noteSearchIndexDao();
+        tagDao = database.tagDao();
+        bodyStore = new NoteBodyStore(database.noteChunkDao());
         executorService = Executors.newSingleThreadExecutor();
+        pageDecryptExecutor = Executors.newSingleThreadExecutor();
+        searchExecutor = Executors.newSingleThreadExecutor();
+        keyVault = SessionKeyVault.getInstance();
+        decryptedNoteCache = DecryptedNoteCache.getInstance();
+        searchResultCache = SearchResultCache.getInstance(database);
+        trigramIndex = TrigramIndex.getInstance();
+        selfDestructScheduler = new SelfDestructScheduler(application);
+        decryptionEngine = NoteDecryptionEngine.getInstance();
         this.applicationContext = application.getApplicationContext();
 
-        allEncryptedNotes.observeForever(encryptedList -> {             //osserva le note per tutto la durata dell'app
-            executorService.execute(() -> {
-                List<Note> decryptedList = new ArrayList<>();
-                SecretKey noteSecretKey = null;
+        if (searchBackfillStarted.compareAndSet(false, true)) {
+            executorService.execute(this::backfillSearchIndex);
+        }
+        if (previewBackfillStarted.compareAndSet(false, true)) {
+            executorService.execute(this::backfillPreviews);
+        }
+    }
+
+    // Una volta per sessione sbloccata: il logout svuota l'indice, la prima schermata dopo il login lo ricostruisce
+    private void startTrigramIndexBuild() {
+        if (trigramIndex.beginBuild()) {
+            int buildEpoch = trigramIndex.getEpoch();
+            executorService.execute(() -> buildTrigramIndexBatch(0, buildEpoch, 0));
+        }
+    }
+
+    // Decripta la lista su tutti i core mantenendo l'ordine; le note già in cache non passano dal cifrario
+    private List<Note> decryptNotes(List<Note> encryptedList, SecretKey noteSecretKey, AtomicInteger decryptedCount) {
+        return decryptionEngine.decryptAll(encryptedList, encryptedNote -> decryptNote(encryptedNote, noteSecretKey, decryptedCount));
+    }
+
+    private Note decryptNote(Note encryptedNote, SecretKey noteSecretKey, AtomicInteger decryptedCount) throws GeneralSecurityException {
+        if (encryptedNote.getChunkCount() > 0) {            //nota lunga: corpo letto blocco per blocco, non messo in cache
+            if (noteSecretKey == null) {
+                return null;
+            }
+            String body;
+            try {
+                SecretKey dataKey = DataKeys.keyFor(encryptedNote.getWrappedKey(), noteSecretKey);
+                body = bodyStore.readChunks(encryptedNote.getId(), encryptedNote.getChunkCount(), dataKey);
+            } catch (GeneralSecurityException e) {
+                Log.e(TAG, "Errore durante la lettura dei blocchi della nota con ID: " + encryptedNote.getId(), e);
+                throw e;
+            }
+            decryptedCount.incrementAndGet();
+            Note decryptedNote = new Note(encryptedNote.getTitle(), body, encryptedNote.getTimestamp(), encryptedNote.getSelfDestructTimestamp(), encryptedNote.getTags());
+            decryptedNote.setId(encryptedNote.getId());
+            return decryptedNote;
+        }
+        String decryptedContent = decryptedNoteCache.get(encryptedNote.getId(), encryptedNote.getEncryptedContent());
+        if (decryptedContent == null) {                 //nota nuova o modificata: va decriptata
+            if (noteSecretKey == null) {
+                return null;
+            }
+            try {
+                byte[] encryptedContent = encryptedNote.getEncryptedContent();
+                if (encryptedContent == null) {
+                    throw new GeneralSecurityException("Nota senza contenuto cifrato");
+                }
+                SecretKey dataKey = DataKeys.keyFor(encryptedNote.getWrappedKey(), noteSecretKey);
+                decryptedContent = PayloadCodec.openToString(encryptedContent, dataKey);      //gestisce compressione e formato legacy
+            } catch (GeneralSecurityException e) {
+                Log.e(TAG, "Errore durante la decrittografia della nota con ID: " + encryptedNote.getId() + ". Contenuto non mostrato.", e);
+                throw e;
+            }
+            decryptedNoteCache.put(encryptedNote.getId(), encryptedNote.getEncryptedContent(), decryptedContent);
+            decryptedCount.incrementAndGet();
+        }
+        Note decryptedNote = new Note(encryptedNote.getTitle(), decryptedContent, encryptedNote.getTimestamp(), encryptedNote.getSelfDestructTimestamp(), encryptedNote.getTags());
+        decryptedNote.setId(encryptedNote.getId());
+        return decryptedNote;
+    }
+
+    // Lista note paginata: Room legge dal DB solo le pagine vicine alla viewport (senza il corpo delle note)
+    // e per ogni pagina viene decriptata solo l'anteprima, su pageDecryptExecutor.
+    // Il costo di apertura non dipende né dal numero né dalla lunghezza delle note.
+    public LiveData<PagingData<NoteSummary>> getPagedNoteSummaries() {
+        Pager<Integer, NoteSummary> pager = new Pager<>(
+                new PagingConfig(PAGE_SIZE, PREFETCH_DISTANCE, false, INITIAL_LOAD_SIZE),
+                () -> noteDao.getNoteSummariesPagingSource());
+
+        return Transformations.map(PagingLiveData.getLiveData(pager), encryptedPage -> {
+            PagingData<NoteSummary> decryptedPage = PagingDataTransforms.map(encryptedPage, pageDecryptExecutor, summary -> {
+                byte[] encryptedPreview = summary.getEncryptedPreview();
+                if (encryptedPreview == null) {
+                    summary.setPreview("");             //anteprima non ancora generata dal backfill
+                    return summary;
+                }
                 try {
-                    noteSecretKey = SecurityUtils.getOrCreateNotesAndFilesAesKey(applicationContext);
+                    SecretKey noteSecretKey = keyVault.getNotesAndFilesKey(applicationContext);
+                    summary.setPreview(PayloadCodec.openToString(encryptedPreview, DataKeys.keyFor(summary.getWrappedKey(), noteSecretKey)));
                 } catch (GeneralSecurityException e) {
-                    Log.e(TAG, "Impossibile recuperare la chiave di crittografia per le note (PBKDF2 ha fallito). Le note non verranno decriptate.", e);
-                }
-
-                if (noteSecretKey != null) {
-                    for (Note encryptedNote : encryptedList) {
-                        try {
-                            String decryptedContent = decrypt(encryptedNote.getContent(), noteSecretKey);
-                            Note decryptedNote = new Note(encryptedNote.getTitle(), decryptedContent, encryptedNote.getTimestamp(), encryptedNote.getSelfDestructTimestamp(), encryptedNote.getTags());
-                            decryptedNote.setId(encryptedNote.getId());
-                            decryptedList.add(decryptedNote);
-                        } catch (GeneralSecurityException e) {
-                            Log.e(TAG, "Errore durante la decrittografia della nota con ID: " + encryptedNote.getId() + ". Contenuto non mostrato.", e);
-                        }
-                    }
+                    Log.e(TAG, "Errore durante la decrittografia dell'anteprima della nota con ID: " + summary.getId(), e);
                 }
-                allDecryptedNotes.postValue(decryptedList);
+                return summary;
             });
+            // Come prima, le note che non superano l'autenticazione GCM non vengono mostrate
+            return PagingDataTransforms.filter(decryptedPage, pageDecryptExecutor, summary -> summary.getPreview() != null);
         });
     }
 
-    public LiveData<List<Note>> getAllDecryptedNotes() {
-        return allDecryptedNotes;
+    // Legge e decripta il corpo completo di una sola nota (apertura dell'editor); callback sul thread di background
+    public void loadDecryptedNote(int noteId, OnNoteLoadedCallback callback) {
+        executorService.execute(() -> {
+            Note decryptedNote = null;
+            Note encryptedNote = noteDao.getNoteById(noteId);
+            if (encryptedNote != null) {
+                try {
+                    decryptedNote = decryptNote(encryptedNote, keyVault.getNotesAndFilesKey(applicationContext), new AtomicInteger());
+                } catch (GeneralSecurityException e) {
+                    Log.e(TAG, "Impossibile aprire la nota con ID: " + noteId, e);
+                }
+            }
+            callback.onNoteLoaded(decryptedNote);
+        });
+    }
+
+    private static byte[] encryptPreview(String plainContent, SecretKey noteSecretKey) throws GeneralSecurityException {
+        return PayloadCodec.seal(NoteSummary.previewOf(plainContent).getBytes(StandardCharsets.UTF_8), noteSecretKey, false);       //troppo corta per comprimerla
     }
 
 
     public void insert(Note note, OnNoteInsertedCallback callback) {
         executorService.execute(() -> {
             try {
-                SecretKey noteSecretKey = SecurityUtils.getOrCreateNotesAndFilesAesKey(applicationContext);
+                SecretKey noteSecretKey = keyVault.getNotesAndFilesKey(applicationContext);
                 if (noteSecretKey == null) {
                     Log.e(TAG, "Chiave AES per note non disponibile. Impossibile criptare/salvare la nota.");
                     return;
                 }
-                String encryptedContent = encrypt(note.getContent(), noteSecretKey);
-                note.setContent(encryptedContent);
+                String plainContent = note.getContent();
+                SecretKey dataKey = DataKeys.generate();            //chiave propria della nota: eliminarla rende illeggibile il ciphertext
+                note.setWrappedKey(DataKeys.wrap(dataKey, noteSecretKey));
+                List<String> chunks = prepareBody(note, plainContent, dataKey);
 
                 Log.d(TAG, "Inserting note with selfDestructTimestamp: " + note.getSelfDestructTimestamp());
 
-                long newId = noteDao.insert(note);
+                List<byte[]> searchTokens = NoteSearchIndexer.tokensForContent(plainContent, keyVault.getSearchIndexKey(applicationContext));
+                int newId;
+                database.beginTransaction();            //nota, blocchi e indice di ricerca restano allineati
+                try {
+                    newId = (int) noteDao.insert(note);
+                    if (chunks != null) {
+                        bodyStore.writeChunks(newId, chunks, dataKey, keyVault.getChunkDigestKey(applicationContext));
+                    }
+                    searchIndexDao.replaceTokens(newId, NoteSearchIndexer.toRows(newId, searchTokens));
+                    tagDao.setTagsForNote(newId, Tag.parseTagNames(note.getTags()));
+                    database.setTransactionSuccessful();
+                    // prima di endTransaction: le ricerche rilanciate dall'InvalidationTracker vedono già la nota
+                    trigramIndex.put(newId, note.getTitle(), note.getTags(), plainContent, note.getTimestamp());
+                } finally {
+                    database.endTransaction();
+                }
+                if (chunks == null) {
+                    decryptedNoteCache.put(newId, note.getEncryptedContent(), plainContent);      //evita di ridecriptarla alla prossima emissione
+                }
+                selfDestructScheduler.scheduleNext();           //la nuova nota può avere la scadenza più vicina
 
                 // Esegui la callback sul thread principale (UI thread)
                 if (callback != null) {
-                    callback.onNoteInserted((int) newId);
+                    callback.onNoteInserted(newId);
                 }
 
             } catch (GeneralSecurityException e) {
@@ -118,121 +271,369 @@ public class NoteRepository {
     public void update(Note note) {
         executorService.execute(() -> {
             try {
-                SecretKey noteSecretKey = SecurityUtils.getOrCreateNotesAndFilesAesKey(applicationContext);
+                SecretKey noteSecretKey = keyVault.getNotesAndFilesKey(applicationContext);
                 if (noteSecretKey == null) {
                     Log.e(TAG, "Chiave AES per note non disponibile. Impossibile criptare/aggiornare la nota.");
                     return;
                 }
-                String encryptedContent = encrypt(note.getContent(), noteSecretKey);
-                note.setContent(encryptedContent);
+                String plainContent = note.getContent();
+                // Si riusa la chiave dati della nota; le note salvate prima delle chiavi dati ne ricevono una ora
+                byte[] wrappedKey = noteDao.getWrappedKey(note.getId());
+                boolean rekeyed = wrappedKey == null;
+                SecretKey dataKey;
+                if (rekeyed) {
+                    dataKey = DataKeys.generate();
+                    wrappedKey = DataKeys.wrap(dataKey, noteSecretKey);
+                } else {
+                    dataKey = DataKeys.unwrap(wrappedKey, noteSecretKey);
+                }
+                note.setWrappedKey(wrappedKey);
+                List<String> chunks = prepareBody(note, plainContent, dataKey);
 
                 Log.d(TAG, "Updating note with selfDestructTimestamp: " + note.getSelfDestructTimestamp());
 
-                noteDao.update(note);
+                List<byte[]> searchTokens = NoteSearchIndexer.tokensForContent(plainContent, keyVault.getSearchIndexKey(applicationContext));
+                database.beginTransaction();
+                try {
+                    noteDao.update(note);
+                    if (chunks != null) {
+                        if (rekeyed) {
+                            bodyStore.deleteChunks(note.getId());       //blocchi cifrati con la chiave di sessione: vanno riscritti tutti
+                        }
+                        int rewritten = bodyStore.writeChunks(note.getId(), chunks, dataKey, keyVault.getChunkDigestKey(applicationContext));
+                        Log.d(TAG, "Nota ID " + note.getId() + ": riscritti " + rewritten + " blocchi su " + chunks.size());
+                    } else {
+                        bodyStore.deleteChunks(note.getId());           //la nota è tornata abbastanza corta da stare inline
+                    }
+                    searchIndexDao.replaceTokens(note.getId(), NoteSearchIndexer.toRows(note.getId(), searchTokens));
+                    tagDao.setTagsForNote(note.getId(), Tag.parseTagNames(note.getTags()));
+                    database.setTransactionSuccessful();
+                    trigramIndex.put(note.getId(), note.getTitle(), note.getTags(), plainContent, note.getTimestamp());
+                } finally {
+                    database.endTransaction();
+                }
+                if (chunks == null) {
+                    decryptedNoteCache.put(note.getId(), note.getEncryptedContent(), plainContent);
+                } else {
+                    decryptedNoteCache.evict(note.getId());
+                }
+                selfDestructScheduler.scheduleNext();
             } catch (GeneralSecurityException e) {
                 Log.e(TAG, "Errore durante l'aggiornamento della nota criptata: " + e.getMessage(), e);
             }
         });
     }
 
+    // Cifra anteprima e corpo inline con la chiave dati della nota; per le note lunghe restituisce i blocchi da scrivere in note_chunks
+    private List<String> prepareBody(Note note, String plainContent, SecretKey dataKey) throws GeneralSecurityException {
+        note.setEncryptedPreview(encryptPreview(plainContent, dataKey));
+        if (NoteBodyStore.needsChunks(plainContent)) {
+            List<String> chunks = NoteBodyStore.split(plainContent);
+            note.setEncryptedContent(null);
+            note.setChunkCount(chunks.size());
+            return chunks;
+        }
+        note.setEncryptedContent(PayloadCodec.seal(plainContent.getBytes(StandardCharsets.UTF_8), dataKey, true));
+        note.setChunkCount(0);
+        return null;
+    }
+
+    public void deleteById(int noteId) {
+        executorService.execute(() -> {
+            database.runInTransaction(() -> {
+                noteDao.deleteById(noteId);           //i token dell'indice e i collegamenti ai tag vengono eliminati a cascata
+                tagDao.deleteUnusedTags();            //tag rimasti senza note
+            });
+            database.checkpointWal();             //la riga e la sua chiave dati non restano nel WAL
+            decryptedNoteCache.evict(noteId);
+            trigramIndex.remove(noteId);
+        });
+    }
+
     public void delete(Note note) {
-        executorService.execute(() -> noteDao.delete(note));
+        executorService.execute(() -> {
+            database.runInTransaction(() -> {
+                noteDao.delete(note);           //i token dell'indice e i collegamenti ai tag vengono eliminati a cascata
+                tagDao.deleteUnusedTags();
+            });
+            database.checkpointWal();
+            decryptedNoteCache.evict(note.getId());
+            trigramIndex.remove(note.getId());
+        });
     }
 
+    // Ricerca su tag e contenuto: il contenuto si risolve sull'indice cifrato, quindi vengono
+    // decriptate solo le note candidate e non l'intera tabella
+    // Nuova LiveData per ogni query: va usata dietro uno switchMap, che annulla la ricerca precedente
     public LiveData<List<Note>> searchNotes(String query) {
-        return Transformations.map(noteDao.searchNotes(query), encryptedNotesList -> {
-            List<Note> decryptedList = new ArrayList<>();
-            SecretKey noteSecretKey = null;
-            try {
-                noteSecretKey = SecurityUtils.getOrCreateNotesAndFilesAesKey(applicationContext);
-            } catch (GeneralSecurityException e) {
-                Log.e(TAG, "Impossibile recuperare la chiave di crittografia per la ricerca (PBKDF2 ha fallito).", e);
-                return decryptedList; // Restituisce lista vuota in caso di errore chiave
-            }
+        return new NoteSearchLiveData(query, database, searchExecutor, this::searchNotesBlocking);
+    }
 
-            if (noteSecretKey != null) {
-                for (Note encryptedNote : encryptedNotesList) {
-                    try {
-                        String decryptedContent = decrypt(encryptedNote.getContent(), noteSecretKey);
-                        Note decryptedNote = new Note(encryptedNote.getTitle(), decryptedContent, encryptedNote.getTimestamp(), encryptedNote.getSelfDestructTimestamp(), encryptedNote.getTags());
-                        decryptedNote.setId(encryptedNote.getId());
-                        decryptedList.add(decryptedNote);
-                    } catch (GeneralSecurityException e) {
-                        Log.e(TAG, "Errore durante la decrittografia del risultato di ricerca per nota ID: " + encryptedNote.getId(), e);
-                    }
-                }
+    // Eseguita su searchExecutor; tra una fase e l'altra controlla se la ricerca è stata annullata
+    private List<Note> searchNotesBlocking(String query) throws InterruptedException {
+        if (trigramIndex.isReady() && TrigramIndex.isSearchable(query)) {
+            return searchRanked(query);
+        }
+        // Indice a trigrammi non ancora pronto (o query di un carattere): ricerca esatta sull'indice cifrato
+        String normalizedQuery = SearchResultCache.normalize(query);
+        List<Note> cached = searchResultCache.get(normalizedQuery);
+        if (cached != null) {
+            SearchMetrics.getInstance().recordCacheHit();
+            return cached;
+        }
+        long cacheGeneration = searchResultCache.currentGeneration();
+        List<Note> superset = searchResultCache.findNarrowable(normalizedQuery);
+        if (superset != null) {
+            // Query più lunga di una già in cache: i risultati sono un sottoinsieme, niente SQLite né decrittografia
+            List<Note> results = filterMatches(superset, query);
+            searchResultCache.put(normalizedQuery, results, cacheGeneration);
+            SearchMetrics.getInstance().recordNarrowed();
+            return results;
+        }
+
+        List<byte[]> queryTokens;
+        try {
+            queryTokens = NoteSearchIndexer.tokensForQuery(query, keyVault.getSearchIndexKey(applicationContext));
+        } catch (GeneralSecurityException e) {
+            Log.e(TAG, "Chiave dell'indice di ricerca non disponibile: ricerca solo sui tag.", e);
+            queryTokens = new ArrayList<>();
+        }
+        List<Note> encryptedNotesList = queryTokens.isEmpty()
+                ? noteDao.searchNotesListBlocking(query)
+                : noteDao.searchNotesByTokensBlocking(query, queryTokens, queryTokens.size());
+        throwIfCancelled();
+
+        SecretKey noteSecretKey;
+        try {
+            noteSecretKey = keyVault.getNotesAndFilesKey(applicationContext);
+        } catch (GeneralSecurityException e) {
+            Log.e(TAG, "Impossibile recuperare la chiave di crittografia per la ricerca (PBKDF2 ha fallito).", e);
+            return new ArrayList<>(); // Restituisce lista vuota in caso di errore chiave
+        }
+        List<Note> decryptedList = decryptNotes(encryptedNotesList, noteSecretKey, new AtomicInteger());
+        throwIfCancelled();
+
+        List<Note> results = filterMatches(decryptedList, query);
+        if (!queryTokens.isEmpty() || SearchTokenizer.terms(query).isEmpty()) {
+            searchResultCache.put(normalizedQuery, results, cacheGeneration);     //senza chiave di ricerca il risultato è parziale
+        }
+        return results;
+    }
+
+    // i token sono prefissi troncati: si scartano i falsi positivi sul testo già decriptato
+    private static List<Note> filterMatches(List<Note> decryptedList, String query) {
+        String lowerQuery = SearchResultCache.normalize(query);
+        List<Note> results = new ArrayList<>(decryptedList.size());
+        for (Note note : decryptedList) {
+            boolean tagMatch = note.getTags() != null && note.getTags().toLowerCase(Locale.ROOT).startsWith(lowerQuery);
+            if (tagMatch || SearchTokenizer.matchesAllTerms(note.getContent(), query)) {
+                results.add(note);
             }
-            return decryptedList;
-        });
+        }
+        return results;
     }
 
-    private String encrypt(String data, SecretKey secretKey) throws GeneralSecurityException, NoSuchAlgorithmException {
+    // Ricerca con tolleranza agli errori: l'indice in memoria restituisce gli id già ordinati per rilevanza e recenza,
+    // dal DB si leggono e si decriptano solo quelle note. Il risultato va in SearchResultCache con una chiave propria:
+    // ripetere la stessa query (es. cancellando l'ultimo carattere) non rilegge né decripta nulla.
+    private List<Note> searchRanked(String query) throws InterruptedException {
+        String cacheKey = SearchResultCache.rankedKey(SearchResultCache.normalize(query));
+        List<Note> cached = searchResultCache.get(cacheKey);
+        if (cached != null) {
+            SearchMetrics.getInstance().recordCacheHit();
+            return cached;
+        }
+        long cacheGeneration = searchResultCache.currentGeneration();
+        List<Integer> rankedIds = trigramIndex.search(query, RANKED_RESULT_LIMIT);
+        if (rankedIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<Note> encryptedNotesList = noteDao.getNotesByIds(rankedIds);
+        throwIfCancelled();
+
+        SecretKey noteSecretKey;
         try {
-            byte[] iv = SecurityUtils.generateRandomIv();
-            GCMParameterSpec gcmSpec = new GCMParameterSpec(SecurityUtils.getGcmTagLengthBytes() * 8, iv);
+            noteSecretKey = keyVault.getNotesAndFilesKey(applicationContext);
+        } catch (GeneralSecurityException e) {
+            Log.e(TAG, "Impossibile recuperare la chiave di crittografia per la ricerca (PBKDF2 ha fallito).", e);
+            return new ArrayList<>();
+        }
+        Map<Integer, Note> decryptedById = new HashMap<>();
+        for (Note decryptedNote : decryptNotes(encryptedNotesList, noteSecretKey, new AtomicInteger())) {
+            decryptedById.put(decryptedNote.getId(), decryptedNote);
+        }
+        throwIfCancelled();
 
-            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
-            cipher.init(Cipher.ENCRYPT_MODE, secretKey, gcmSpec);
+        List<Note> results = new ArrayList<>(decryptedById.size());
+        for (Integer noteId : rankedIds) {
+            Note decryptedNote = decryptedById.get(noteId);
+            if (decryptedNote != null) {            //nota eliminata nel frattempo (es. autodistruzione)
+                results.add(decryptedNote);
+            }
+        }
+        searchResultCache.put(cacheKey, results, cacheGeneration);
+        return results;
+    }
 
-            byte[] encryptedBytes = cipher.doFinal(data.getBytes(StandardCharsets.UTF_8));
+    // Un blocco di note per task: inserimenti e modifiche in coda sullo stesso executor non aspettano l'intera costruzione
+    private void buildTrigramIndexBatch(int afterId, int buildEpoch, int indexedSoFar) {
+        if (buildEpoch != trigramIndex.getEpoch()) {
+            return;                 //logout durante la costruzione
+        }
+        SecretKey noteSecretKey;
+        try {
+            noteSecretKey = keyVault.getNotesAndFilesKey(applicationContext);
+        } catch (GeneralSecurityException e) {
+            Log.e(TAG, "Chiave non disponibile: indice a trigrammi non costruito.", e);
+            trigramIndex.abortBuild();
+            return;
+        }
+        List<Note> batch = noteDao.getNotesAfterId(afterId, TRIGRAM_BUILD_BATCH_SIZE);
+        int lastId = afterId;
+        for (Note encryptedNote : batch) {
+            lastId = Math.max(lastId, encryptedNote.getId());
+        }
+        for (Note decryptedNote : decryptNotes(batch, noteSecretKey, new AtomicInteger())) {
+            trigramIndex.put(decryptedNote.getId(), decryptedNote.getTitle(), decryptedNote.getTags(), decryptedNote.getContent(), decryptedNote.getTimestamp());
+        }
+        int indexed = indexedSoFar + batch.size();
+        if (batch.size() == TRIGRAM_BUILD_BATCH_SIZE) {
+            int nextAfterId = lastId;
+            executorService.execute(() -> buildTrigramIndexBatch(nextAfterId, buildEpoch, indexed));
+        } else {
+            trigramIndex.markReady(buildEpoch);
+            Log.d(TAG, "Indice a trigrammi pronto: " + indexed + " note.");
+        }
+    }
 
-            byte[] combined = new byte[iv.length + encryptedBytes.length];
-            System.arraycopy(iv, 0, combined, 0, iv.length);
-            System.arraycopy(encryptedBytes, 0, combined, iv.length, encryptedBytes.length);
+    private static void throwIfCancelled() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException("Ricerca annullata");
+        }
+    }
 
-            return Base64.encodeToString(combined, Base64.DEFAULT);
+    // Indicizza le note salvate prima dell'introduzione dell'indice di ricerca
+    private void backfillSearchIndex() {
+        try {
+            SecretKey noteSecretKey = keyVault.getNotesAndFilesKey(applicationContext);
+            SecretKey searchKey = keyVault.getSearchIndexKey(applicationContext);
+            int lastId = 0;
+            int indexed = 0;
+            List<Note> batch;
+            do {
+                batch = searchIndexDao.getUnindexedNotes(lastId, SEARCH_BACKFILL_BATCH_SIZE);
+                for (Note encryptedNote : batch) {
+                    lastId = encryptedNote.getId();
+                    Note decryptedNote;
+                    try {
+                        decryptedNote = decryptNote(encryptedNote, noteSecretKey, new AtomicInteger());
+                    } catch (GeneralSecurityException e) {
+                        continue;           //nota non decriptabile: non viene indicizzata
+                    }
+                    if (decryptedNote == null) {
+                        continue;
+                    }
+                    List<byte[]> tokens = NoteSearchIndexer.tokensForContent(decryptedNote.getContent(), searchKey);
+                    searchIndexDao.replaceTokens(encryptedNote.getId(), NoteSearchIndexer.toRows(encryptedNote.getId(), tokens));
+                    indexed++;
+                }
+            } while (batch.size() == SEARCH_BACKFILL_BATCH_SIZE);
+            Log.d(TAG, "Backfill indice di ricerca completato: " + indexed + " note indicizzate.");
         } catch (GeneralSecurityException e) {
-            Log.e(TAG, "Errore di sicurezza durante la crittografia (GCM)", e);
-            throw e;
+            searchBackfillStarted.set(false);           //si riprova alla prossima creazione del repository
+            Log.e(TAG, "Backfill indice di ricerca non eseguito: chiave non disponibile.", e);
         }
     }
 
-    private String decrypt(String encryptedData, SecretKey secretKey) throws GeneralSecurityException {
-        try {
-            byte[] combined = Base64.decode(encryptedData, Base64.DEFAULT);
+    // Note con esattamente quel tag (join indicizzato su note_tags, niente LIKE)
+    public LiveData<List<Note>> getNotesByTag(String tagName) {
+        return decryptLiveList(tagDao.getNotesByTag(Tag.normalizeName(tagName)));
+    }
 
-            byte[] iv = new byte[SecurityUtils.GCM_IV_SIZE_BYTES];
-            System.arraycopy(combined, 0, iv, 0, iv.length);
-            GCMParameterSpec gcmSpec = new GCMParameterSpec(SecurityUtils.getGcmTagLengthBytes() * 8, iv);
+    // Note che hanno tutti i tag indicati, es. "work, urgent"
+    public LiveData<List<Note>> getNotesWithAllTags(String tags) {
+        List<String> tagNames = Tag.parseTagNames(tags);
+        return decryptLiveList(tagDao.getNotesWithAllTags(tagNames, tagNames.size()));
+    }
 
-            byte[] ciphertext = new byte[combined.length - iv.length];
-            System.arraycopy(combined, iv.length, ciphertext, 0, ciphertext.length);
+    public LiveData<List<TagCount>> getTagCounts() {
+        return tagDao.getTagCounts();
+    }
 
-            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
-            cipher.init(DECRYPT_MODE, secretKey, gcmSpec);
+    private LiveData<List<Note>> decryptLiveList(LiveData<List<Note>> encryptedNotes) {
+        return Transformations.map(encryptedNotes, encryptedNotesList -> {
+            try {
+                return decryptNotes(encryptedNotesList, keyVault.getNotesAndFilesKey(applicationContext), new AtomicInteger());
+            } catch (GeneralSecurityException e) {
+                Log.e(TAG, "Impossibile recuperare la chiave di crittografia per il filtro tag.", e);
+                return new ArrayList<Note>();
+            }
+        });
+    }
 
-            byte[] decryptedBytes = cipher.doFinal(ciphertext);
-            return new String(decryptedBytes, StandardCharsets.UTF_8);
-        } catch (GeneralSecurityException | IllegalArgumentException e) {
-            Log.e(TAG, "Errore di decrittografia (GCM): " + e.getMessage(), e);
-            throw e;
+    // Genera le anteprime cifrate delle note salvate prima della colonna encrypted_preview.
+    // Un blocco = una transazione, così la lista paginata viene invalidata una volta per blocco.
+    private void backfillPreviews() {
+        try {
+            SecretKey noteSecretKey = keyVault.getNotesAndFilesKey(applicationContext);
+            int lastId = 0;
+            int generated = 0;
+            List<Note> batch;
+            do {
+                batch = noteDao.getNotesWithoutPreview(lastId, PREVIEW_BACKFILL_BATCH_SIZE);
+                List<Note> decryptedBatch = new ArrayList<>(batch.size());
+                for (Note encryptedNote : batch) {
+                    lastId = encryptedNote.getId();
+                    try {
+                        Note decryptedNote = decryptNote(encryptedNote, noteSecretKey, new AtomicInteger());
+                        if (decryptedNote != null) {
+                            SecretKey dataKey = DataKeys.keyFor(encryptedNote.getWrappedKey(), noteSecretKey);
+                            decryptedNote.setEncryptedPreview(encryptPreview(decryptedNote.getContent(), dataKey));
+                            decryptedBatch.add(decryptedNote);
+                        }
+                    } catch (GeneralSecurityException e) {
+                        // nota non decriptabile: resta senza anteprima e nascosta dalla lista
+                    }
+                }
+                database.runInTransaction(() -> {
+                    for (Note decryptedNote : decryptedBatch) {
+                        noteDao.updatePreview(decryptedNote.getId(), decryptedNote.getEncryptedPreview());
+                    }
+                });
+                generated += decryptedBatch.size();
+            } while (batch.size() == PREVIEW_BACKFILL_BATCH_SIZE);
+            Log.d(TAG, "Backfill anteprime completato: " + generated + " anteprime generate.");
+        } catch (GeneralSecurityException e) {
+            previewBackfillStarted.set(false);
+            Log.e(TAG, "Backfill anteprime non eseguito: chiave non disponibile.", e);
         }
     }
 
-
     public interface OnNoteInsertedCallback {
         void onNoteInserted(int noteId);
     }
 
+    public interface OnNoteLoadedCallback {
+        void onNoteLoaded(Note note);           //null se la nota non esiste o non è decriptabile
+    }
+
     public void cleanupExpiredNotes(long currentTime) {
         executorService.execute(() -> {
             Log.d(TAG, "Esecuzione pulizia note scadute nel Repository.");
             try {
-                // Recupera tutte le note che sono scadute
-                List<Note> expiredNotes = noteDao.getExpiredNotes(currentTime);
-                if (expiredNotes != null && !expiredNotes.isEmpty()) {
-                    Log.i(TAG, "Trovate " + expiredNotes.size() + " note scadute durante la pulizia. Eliminazione...");
-                    // Elimina ogni nota scaduta
-                    for (Note note : expiredNotes) {
-                        noteDao.delete(note);
-                        Log.d(TAG, "Nota eliminata tramite pulizia: ID=" + note.getId() + ", Titolo='" + note.getTitle() + "'");
-                    }
-                } else {
+                List<Integer> purgedIds = purgeExpiredNotes(currentTime);
+                if (purgedIds.isEmpty()) {
                     Log.d(TAG, "Nessuna nota scaduta trovata durante la pulizia.");
                 }
+                selfDestructScheduler.scheduleNext();           //l'allarme punta sempre alla prossima scadenza
             } catch (Exception e) {
                 Log.e(TAG, "Errore durante la pulizia delle note scadute: " + e.getMessage(), e);
             }
         });
     }
+
+    // Cancellazione in blocco in un'unica transazione (vedi SelfDestructScheduler.purgeExpired). Restituisce gli id eliminati.
+    public List<Integer> purgeExpiredNotes(long currentTime) {
+        return selfDestructScheduler.purgeExpired(currentTime);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,96 @@
+package com.example.securenotes.data.repository;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.LiveData;
+import androidx.room.InvalidationTracker;
+
+import com.example.securenotes.data.database.AppDatabase;
+import com.example.securenotes.data.model.Note;
+import com.example.securenotes.data.search.SearchMetrics;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Risultati di una singola query di ricerca. Query e decrittografia girano su searchExecutor, mai sul main thread.
+// Quando la LiveData smette di essere osservata (switchMap passa alla query successiva) il lavoro in corso viene annullato;
+// finché è osservata, una modifica alle tabelle coinvolte fa ripartire la ricerca come con le LiveData di Room.
+class NoteSearchLiveData extends LiveData<List<Note>> {
+    private static final String TAG = "NoteSearchLiveData";
+
+    interface SearchFunction {
+        // Lancia InterruptedException quando si accorge di essere stata annullata
+        List<Note> search(String query) throws InterruptedException;
+    }
+
+    private final String query;
+    private final AppDatabase database;
+    private final ExecutorService searchExecutor;
+    private final SearchFunction searchFunction;
+    private final SearchMetrics metrics;
+    private final AtomicInteger generation = new AtomicInteger();      //risultati di esecuzioni superate vengono scartati
+    private final InvalidationTracker.Observer tableObserver;
+    private Future<?> runningSearch;
+
+    NoteSearchLiveData(String query, AppDatabase database, ExecutorService searchExecutor, SearchFunction searchFunction) {
+        this.query = query;
+        this.database = database;
+        this.searchExecutor = searchExecutor;
+        this.searchFunction = searchFunction;
+        this.metrics = SearchMetrics.getInstance();
+        this.tableObserver = new InvalidationTracker.Observer("notes", "note_search_index", "note_tags") {
+            @Override
+            public void onInvalidated(@NonNull Set<String> tables) {
+                startSearch();
+            }
+        };
+    }
+
+    @Override
+    protected void onActive() {
+        database.getInvalidationTracker().addObserver(tableObserver);
+        startSearch();
+    }
+
+    @Override
+    protected void onInactive() {
+        database.getInvalidationTracker().removeObserver(tableObserver);
+        cancelSearch();
+    }
+
+    private synchronized void startSearch() {
+        cancelSearch();             //una sola esecuzione per query: i dati sono cambiati, quella vecchia non serve più
+        int runGeneration = generation.incrementAndGet();
+        runningSearch = searchExecutor.submit(() -> {
+            if (Thread.currentThread().isInterrupted() || runGeneration != generation.get()) {
+                return;
+            }
+            metrics.recordStarted();
+            long start = System.nanoTime();
+            try {
+                List<Note> results = searchFunction.search(query);
+                if (runGeneration == generation.get()) {
+                    long latency = System.nanoTime() - start;
+                    metrics.recordCompleted(latency);
+                    Log.d(TAG, "Ricerca completata in " + latency / 1_000_000 + " ms con " + results.size() + " risultati. " + metrics);
+                    postValue(results);
+                }
+            } catch (InterruptedException e) {
+                Log.d(TAG, "Ricerca annullata dopo " + (System.nanoTime() - start) / 1_000_000 + " ms.");
+            }
+        });
+    }
+
+    private synchronized void cancelSearch() {
+        generation.incrementAndGet();
+        if (runningSearch != null && !runningSearch.isDone()) {
+            runningSearch.cancel(true);
+            metrics.recordCancelled();
+        }
+        runningSearch = null;
+    }
+}
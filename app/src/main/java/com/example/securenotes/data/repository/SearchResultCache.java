@@ -0,0 +1,156 @@
+package com.example.securenotes.data.repository;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.room.InvalidationTracker;
+
+import com.example.securenotes.data.database.AppDatabase;
+import com.example.securenotes.data.model.Note;
+import com.example.securenotes.data.search.SearchTokenizer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+// Cache LRU dei risultati di ricerca già decriptati, indicizzata per query normalizzata.
+// Digitando "pro", "proj", "proje" i risultati di ogni query sono un sottoinsieme di quelli della precedente:
+// invece di tornare su SQLite si filtra in memoria il risultato in cache della query-prefisso più lunga.
+// Qualsiasi scrittura sulle tabelle delle note svuota la cache (InvalidationTracker di Room), così come il logout.
+public class SearchResultCache {
+    private static final String TAG = "SearchResultCache";
+
+    private static final int MAX_ENTRIES = 16;
+    private static final long MAX_BYTES = 8L * 1024 * 1024;        //stima dei caratteri in chiaro trattenuti
+    private static final long NOTE_OVERHEAD_BYTES = 96;             //oggetto Note + tre String
+    // normalize() toglie i caratteri di controllo iniziali: nessuna query esatta inizia così
+    private static final String RANKED_KEY_PREFIX = "\u0000ranked:";
+
+    private static volatile SearchResultCache INSTANCE;
+
+    private final LinkedHashMap<String, CachedResult> entries = new LinkedHashMap<>(MAX_ENTRIES, 0.75f, true);     //ordine di accesso = LRU
+    private long totalBytes;
+    private long generation;            //incrementata ad ogni invalidazione: i risultati calcolati prima non vengono salvati
+
+    private SearchResultCache(AppDatabase database) {
+        database.getInvalidationTracker().addObserver(new InvalidationTracker.Observer("notes", "note_chunks", "note_search_index", "note_tags") {
+            @Override
+            public void onInvalidated(@NonNull Set<String> tables) {
+                clear();
+            }
+        });
+    }
+
+    public static SearchResultCache getInstance(AppDatabase database) {
+        if (INSTANCE == null) {
+            synchronized (SearchResultCache.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new SearchResultCache(database);
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    // Per il logout: non crea la cache (né apre il database) se nessuna ricerca è mai stata eseguita
+    public static void clearIfInitialized() {
+        SearchResultCache cache = INSTANCE;
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    // Stessa normalizzazione del confronto: tag e termini sono confrontati in minuscolo
+    public static String normalize(String query) {
+        return query == null ? "" : query.trim().toLowerCase(Locale.ROOT);
+    }
+
+    // Chiave dei risultati con ranking (TrigramIndex): tolleranti agli errori e limitati ai primi N, quindi non si
+    // mescolano con quelli esatti e findNarrowable non li usa mai (nessuna query normalizzata inizia con il prefisso)
+    public static String rankedKey(String normalizedQuery) {
+        return RANKED_KEY_PREFIX + normalizedQuery;
+    }
+
+    public synchronized long currentGeneration() {
+        return generation;
+    }
+
+    public synchronized List<Note> get(String normalizedQuery) {
+        CachedResult cached = entries.get(normalizedQuery);
+        return cached == null ? null : cached.notes;
+    }
+
+    // Risultato in cache della query-prefisso più lunga da cui si può restringere, o null.
+    // Vale solo se quella query aveva almeno un termine: sotto MIN_TERM_LENGTH la ricerca è solo sui tag
+    // e i risultati di una query più lunga (che cerca anche nel contenuto) non ne sono un sottoinsieme.
+    public synchronized List<Note> findNarrowable(String normalizedQuery) {
+        String bestPrefix = null;
+        for (String cachedQuery : entries.keySet()) {
+            if (normalizedQuery.startsWith(cachedQuery)
+                    && (bestPrefix == null || cachedQuery.length() > bestPrefix.length())
+                    && !SearchTokenizer.terms(cachedQuery).isEmpty()) {
+                bestPrefix = cachedQuery;
+            }
+        }
+        return bestPrefix == null ? null : entries.get(bestPrefix).notes;       //get() aggiorna l'ordine LRU
+    }
+
+    public synchronized void put(String normalizedQuery, List<Note> notes, long computedAtGeneration) {
+        if (computedAtGeneration != generation) {
+            return;                 //le tabelle sono cambiate mentre la ricerca era in corso
+        }
+        CachedResult result = new CachedResult(notes);
+        if (result.bytes > MAX_BYTES / 2) {
+            Log.d(TAG, "Risultato troppo grande per la cache (" + result.bytes / 1024 + " KB): non salvato.");
+            return;
+        }
+        CachedResult previous = entries.put(normalizedQuery, result);
+        if (previous != null) {
+            totalBytes -= previous.bytes;
+        }
+        totalBytes += result.bytes;
+
+        Iterator<Map.Entry<String, CachedResult>> eldest = entries.entrySet().iterator();
+        while ((entries.size() > MAX_ENTRIES || totalBytes > MAX_BYTES) && eldest.hasNext()) {
+            Map.Entry<String, CachedResult> entry = eldest.next();
+            if (entry.getKey().equals(normalizedQuery)) {
+                continue;
+            }
+            totalBytes -= entry.getValue().bytes;
+            eldest.remove();
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        totalBytes = 0;
+        generation++;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private static class CachedResult {
+        final List<Note> notes;
+        final long bytes;
+
+        CachedResult(List<Note> notes) {
+            this.notes = Collections.unmodifiableList(new ArrayList<>(notes));
+            long estimate = 0;
+            for (Note note : notes) {
+                estimate += NOTE_OVERHEAD_BYTES + 2L * (length(note.getTitle()) + length(note.getContent()) + length(note.getTags()));
+            }
+            this.bytes = estimate;
+        }
+
+        private static int length(String value) {
+            return value == null ? 0 : value.length();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.securenotes.data.search;
+
+import com.example.securenotes.data.model.NoteSearchToken;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+
+// Trasforma i token in chiaro in HMAC-SHA256 troncati con la chiave di ricerca della sessione.
+// Nel database finiscono solo questi valori: senza chiave non si risale ai termini.
+public final class NoteSearchIndexer {
+
+    public static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final int TOKEN_SIZE_BYTES = 8;          //64 bit: collisioni trascurabili, i risultati vengono comunque verificati
+
+    private static final ThreadLocal<Mac> MAC = new ThreadLocal<>();
+
+    private NoteSearchIndexer() {
+    }
+
+    // Calcolato prima della transazione: l'id della nota viene associato dopo l'insert
+    public static List<byte[]> tokensForContent(String plainContent, SecretKey searchKey) throws GeneralSecurityException {
+        return hashAll(SearchTokenizer.indexTokens(plainContent), searchKey);
+    }
+
+    public static List<byte[]> tokensForQuery(String query, SecretKey searchKey) throws GeneralSecurityException {
+        return hashAll(SearchTokenizer.queryTokens(query), searchKey);
+    }
+
+    public static List<NoteSearchToken> toRows(int noteId, List<byte[]> tokens) {
+        List<NoteSearchToken> rows = new ArrayList<>(tokens.size());
+        for (byte[] token : tokens) {
+            rows.add(new NoteSearchToken(token, noteId));
+        }
+        return rows;
+    }
+
+    private static List<byte[]> hashAll(Collection<String> tokens, SecretKey searchKey) throws GeneralSecurityException {
+        List<byte[]> hashed = new ArrayList<>(tokens.size());
+        Mac mac = mac(searchKey);
+        for (String token : tokens) {
+            hashed.add(hash(mac, token));
+        }
+        return hashed;
+    }
+
+    private static byte[] hash(Mac mac, String token) {
+        return Arrays.copyOf(mac.doFinal(token.getBytes(StandardCharsets.UTF_8)), TOKEN_SIZE_BYTES);
+    }
+
+    private static Mac mac(SecretKey searchKey) throws GeneralSecurityException {
+        Mac mac = MAC.get();
+        if (mac == null) {
+            mac = Mac.getInstance(HMAC_ALGORITHM);
+            MAC.set(mac);
+        }
+        mac.init(searchKey);
+        return mac;
+    }
+}
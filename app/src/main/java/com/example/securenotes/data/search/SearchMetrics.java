@@ -0,0 +1,110 @@
+package com.example.securenotes.data.search;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Contatori della pipeline di ricerca, condivisi da tutto il processo.
+// Latenza = dall'avvio della query sul thread in background ai risultati decriptati e filtrati.
+public class SearchMetrics {
+
+    private static volatile SearchMetrics INSTANCE;
+
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();          //query annullate mentre erano in coda o in esecuzione
+    private final AtomicLong debounced = new AtomicLong();          //digitazioni sostituite prima di partire
+    private final AtomicLong cacheHits = new AtomicLong();          //query già in SearchResultCache
+    private final AtomicLong narrowed = new AtomicLong();           //query risolte filtrando in memoria il risultato di un prefisso
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+    private volatile long lastLatencyNanos;
+
+    private SearchMetrics() {
+    }
+
+    public static SearchMetrics getInstance() {
+        if (INSTANCE == null) {
+            synchronized (SearchMetrics.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new SearchMetrics();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    public void recordStarted() {
+        started.incrementAndGet();
+    }
+
+    public void recordCompleted(long latencyNanos) {
+        completed.incrementAndGet();
+        totalLatencyNanos.addAndGet(latencyNanos);
+        lastLatencyNanos = latencyNanos;
+        long max;
+        do {
+            max = maxLatencyNanos.get();
+        } while (latencyNanos > max && !maxLatencyNanos.compareAndSet(max, latencyNanos));
+    }
+
+    public void recordCancelled() {
+        cancelled.incrementAndGet();
+    }
+
+    public void recordDebounced() {
+        debounced.incrementAndGet();
+    }
+
+    public void recordCacheHit() {
+        cacheHits.incrementAndGet();
+    }
+
+    public void recordNarrowed() {
+        narrowed.incrementAndGet();
+    }
+
+    public long getCacheHitCount() {
+        return cacheHits.get();
+    }
+
+    public long getNarrowedCount() {
+        return narrowed.get();
+    }
+
+    public long getStartedCount() {
+        return started.get();
+    }
+
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    public long getCancelledCount() {
+        return cancelled.get();
+    }
+
+    public long getDebouncedCount() {
+        return debounced.get();
+    }
+
+    public long getLastLatencyMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(lastLatencyNanos);
+    }
+
+    public long getMaxLatencyMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxLatencyNanos.get());
+    }
+
+    public long getAverageLatencyMillis() {
+        long count = completed.get();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalLatencyNanos.get() / count);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "ricerche avviate=%d completate=%d annullate=%d scartate dal debounce=%d dalla cache=%d ristrette=%d latenza ultima=%dms media=%dms max=%dms",
+                getStartedCount(), getCompletedCount(), getCancelledCount(), getDebouncedCount(), getCacheHitCount(), getNarrowedCount(),
+                getLastLatencyMillis(), getAverageLatencyMillis(), getMaxLatencyMillis());
+    }
+}
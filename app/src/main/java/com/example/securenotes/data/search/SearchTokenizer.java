@@ -0,0 +1,93 @@
+package com.example.securenotes.data.search;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+// Divide un testo in termini (sequenze di lettere/cifre, minuscole) e genera i token indicizzati.
+// Per ogni termine si indicizzano solo i prefissi di 3, 5 e 8 caratteri: una ricerca "crypt" trova anche
+// "cryptography" senza scansionare le note, e l'indice resta a 1-3 righe per parola distinta.
+// Una query usa il prefisso indicizzato più lungo che contiene; i falsi positivi si scartano dopo la decrittografia.
+public final class SearchTokenizer {
+
+    public static final int MIN_TERM_LENGTH = 3;
+    private static final int[] INDEXED_PREFIX_LENGTHS = {3, 5, 8};
+
+    private SearchTokenizer() {
+    }
+
+    public static List<String> terms(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null) {
+            return terms;
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean wordChar = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                if (i - start >= MIN_TERM_LENGTH) {
+                    terms.add(lower.substring(start, i));
+                }
+                start = -1;
+            }
+        }
+        return terms;
+    }
+
+    // Token distinti da indicizzare per il contenuto di una nota
+    public static Set<String> indexTokens(String text) {
+        Set<String> tokens = new LinkedHashSet<>();
+        for (String term : terms(text)) {
+            for (int length : INDEXED_PREFIX_LENGTHS) {
+                if (length > term.length()) {
+                    break;
+                }
+                tokens.add(term.substring(0, length));
+            }
+        }
+        return tokens;
+    }
+
+    // Token da cercare per una query: uno per termine, il prefisso indicizzato più lungo del termine
+    public static Set<String> queryTokens(String query) {
+        Set<String> tokens = new LinkedHashSet<>();
+        for (String term : terms(query)) {
+            int prefixLength = INDEXED_PREFIX_LENGTHS[0];
+            for (int length : INDEXED_PREFIX_LENGTHS) {
+                if (length <= term.length()) {
+                    prefixLength = length;
+                }
+            }
+            tokens.add(term.substring(0, prefixLength));
+        }
+        return tokens;
+    }
+
+    // Verifica sul testo decriptato: ogni termine della query deve essere prefisso di una parola.
+    // Serve a scartare i falsi positivi dovuti ai prefissi troncati.
+    public static boolean matchesAllTerms(String text, String query) {
+        List<String> queryTerms = terms(query);
+        if (queryTerms.isEmpty()) {
+            return false;
+        }
+        List<String> textTerms = terms(text);
+        for (String queryTerm : queryTerms) {
+            boolean found = false;
+            for (String textTerm : textTerms) {
+                if (textTerm.startsWith(queryTerm)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,386 @@
+package com.example.securenotes.data.search;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Indice a trigrammi in memoria su titolo, tag e contenuto decriptati, valido solo per la sessione sbloccata.
+// Ogni parola è preceduta da uno spazio (" proj" -> " pr", "pro", "roj"): il primo trigramma lega la ricerca
+// all'inizio della parola, i successivi rendono tollerabile un errore di battitura.
+// Una nota è candidata se contiene almeno MIN_MATCH_RATIO dei trigrammi della query; il punteggio pesa
+// i trigrammi trovati nel titolo più di quelli nei tag e nel contenuto, a parità vince la nota più recente.
+// Nell'indice restano solo trigrammi e id: nessun testo in chiaro.
+public class TrigramIndex {
+
+    public static final int MAX_INDEXED_CONTENT_CHARS = 8 * 1024;      //oltre, le note lunghe non aggiungono quasi trigrammi nuovi
+    private static final double MIN_MATCH_RATIO = 0.5;
+
+    private static final int FIELD_TITLE = 1;
+    private static final int FIELD_TAGS = 2;
+    private static final int FIELD_CONTENT = 4;
+    private static final int FIELD_BITS = 3;
+    private static final int FIELD_MASK = (1 << FIELD_BITS) - 1;
+
+    private static final int WEIGHT_TITLE = 5;
+    private static final int WEIGHT_TAGS = 3;
+    private static final int WEIGHT_CONTENT = 1;
+
+    private static volatile TrigramIndex INSTANCE;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Integer, PostingList> postings = new HashMap<>();     //trigramma -> (slot << FIELD_BITS | campi)
+    private final Map<Integer, Integer> slotByNoteId = new HashMap<>();
+    private final ArrayDeque<Integer> freeSlots = new ArrayDeque<>();
+    private int[] slotNoteIds = new int[64];
+    private long[] slotTimestamps = new long[64];
+    private int[][] slotEntries = new int[64][];        //trigrammi della nota, servono per toglierla dalle posting list
+    private int slotCount;
+    private volatile boolean ready;
+    private boolean building;
+    private volatile int epoch;             //cambia ad ogni clear(): una costruzione iniziata prima si ferma
+
+    public TrigramIndex() {
+    }
+
+    public static TrigramIndex getInstance() {
+        if (INSTANCE == null) {
+            synchronized (TrigramIndex.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new TrigramIndex();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    // --- Stato ---
+
+    // Pronto quando tutte le note della sessione sono state indicizzate
+    public boolean isReady() {
+        return ready;
+    }
+
+    // true per un solo chiamante finché l'indice non viene svuotato: chi lo riceve costruisce l'indice
+    public synchronized boolean beginBuild() {
+        if (ready || building) {
+            return false;
+        }
+        building = true;
+        return true;
+    }
+
+    public synchronized void abortBuild() {
+        building = false;
+    }
+
+    // Ignorato se nel frattempo l'indice è stato svuotato (logout durante la costruzione)
+    public synchronized void markReady(int buildEpoch) {
+        if (buildEpoch != epoch) {
+            return;
+        }
+        building = false;
+        ready = true;
+    }
+
+    public int getEpoch() {
+        return epoch;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return slotByNoteId.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Chiamato al logout
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            synchronized (this) {
+                ready = false;
+                building = false;
+                epoch++;
+            }
+            postings.clear();
+            slotByNoteId.clear();
+            freeSlots.clear();
+            slotNoteIds = new int[64];
+            slotTimestamps = new long[64];
+            slotEntries = new int[64][];
+            slotCount = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // --- Aggiornamenti ---
+
+    public void put(int noteId, String title, String tags, String content, long timestamp) {
+        int[] entries = noteTrigrams(title, tags, content);         //calcolati fuori dal lock
+        lock.writeLock().lock();
+        try {
+            Integer existing = slotByNoteId.get(noteId);
+            if (existing != null) {
+                unlink(existing);
+            }
+            int slot = existing != null ? existing : allocateSlot();
+            slotByNoteId.put(noteId, slot);
+            slotNoteIds[slot] = noteId;
+            slotTimestamps[slot] = timestamp;
+            slotEntries[slot] = entries;
+            for (int entry : entries) {
+                int trigram = entry >> FIELD_BITS;
+                PostingList list = postings.get(trigram);
+                if (list == null) {
+                    list = new PostingList();
+                    postings.put(trigram, list);
+                }
+                list.add(slot << FIELD_BITS | (entry & FIELD_MASK));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(int noteId) {
+        lock.writeLock().lock();
+        try {
+            Integer slot = slotByNoteId.remove(noteId);
+            if (slot != null) {
+                unlink(slot);
+                slotEntries[slot] = null;
+                freeSlots.push(slot);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // --- Ricerca ---
+
+    // true se la query produce almeno un trigramma (almeno due caratteri in una parola)
+    public static boolean isSearchable(String query) {
+        return queryTrigrams(query).length > 0;
+    }
+
+    // Id delle note in ordine di rilevanza (poi recenza), al massimo limit
+    public List<Integer> search(String query, int limit) {
+        int[] trigrams = queryTrigrams(query);
+        if (trigrams.length == 0 || limit <= 0) {
+            return Collections.emptyList();
+        }
+        lock.readLock().lock();
+        try {
+            int[] hits = new int[slotCount];
+            int[] scores = new int[slotCount];
+            int[] touched = new int[Math.min(slotCount, 1024)];
+            int touchedCount = 0;
+            for (int trigram : trigrams) {
+                PostingList list = postings.get(trigram);
+                if (list == null) {
+                    continue;
+                }
+                for (int i = 0; i < list.size; i++) {
+                    int posting = list.items[i];
+                    int slot = posting >>> FIELD_BITS;
+                    if (hits[slot]++ == 0) {
+                        if (touchedCount == touched.length) {
+                            touched = Arrays.copyOf(touched, Math.min(slotCount, touched.length * 2));
+                        }
+                        touched[touchedCount++] = slot;
+                    }
+                    scores[slot] += fieldWeight(posting & FIELD_MASK);
+                }
+            }
+
+            int minHits = Math.max(1, (int) Math.ceil(trigrams.length * MIN_MATCH_RATIO));
+            // Top-k con un heap il cui primo elemento è il peggiore tra quelli tenuti
+            PriorityQueue<Integer> best = new PriorityQueue<>(Math.min(limit, touchedCount) + 1,
+                    (a, b) -> compareSlots(b, a, scores));
+            for (int i = 0; i < touchedCount; i++) {
+                int slot = touched[i];
+                if (hits[slot] < minHits) {
+                    continue;
+                }
+                if (best.size() < limit) {
+                    best.add(slot);
+                } else if (compareSlots(slot, best.peek(), scores) < 0) {
+                    best.poll();
+                    best.add(slot);
+                }
+            }
+
+            List<Integer> rankedSlots = new ArrayList<>(best);
+            Collections.sort(rankedSlots, (a, b) -> compareSlots(a, b, scores));
+            List<Integer> noteIds = new ArrayList<>(rankedSlots.size());
+            for (int slot : rankedSlots) {
+                noteIds.add(slotNoteIds[slot]);
+            }
+            return noteIds;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Negativo se a va prima di b: punteggio più alto, poi nota più recente, poi id più alto
+    private int compareSlots(int a, int b, int[] scores) {
+        if (scores[a] != scores[b]) {
+            return scores[a] > scores[b] ? -1 : 1;
+        }
+        if (slotTimestamps[a] != slotTimestamps[b]) {
+            return slotTimestamps[a] > slotTimestamps[b] ? -1 : 1;
+        }
+        return Integer.compare(slotNoteIds[b], slotNoteIds[a]);
+    }
+
+    private static int fieldWeight(int fields) {
+        if ((fields & FIELD_TITLE) != 0) {
+            return WEIGHT_TITLE;
+        }
+        return (fields & FIELD_TAGS) != 0 ? WEIGHT_TAGS : WEIGHT_CONTENT;
+    }
+
+    // --- Interni ---
+
+    private int allocateSlot() {
+        if (!freeSlots.isEmpty()) {
+            return freeSlots.pop();
+        }
+        if (slotCount == slotNoteIds.length) {
+            int capacity = slotCount * 2;
+            slotNoteIds = Arrays.copyOf(slotNoteIds, capacity);
+            slotTimestamps = Arrays.copyOf(slotTimestamps, capacity);
+            slotEntries = Arrays.copyOf(slotEntries, capacity);
+        }
+        return slotCount++;
+    }
+
+    private void unlink(int slot) {
+        int[] entries = slotEntries[slot];
+        if (entries == null) {
+            return;
+        }
+        for (int entry : entries) {
+            int trigram = entry >> FIELD_BITS;
+            PostingList list = postings.get(trigram);
+            if (list != null) {
+                list.removeSlot(slot);
+                if (list.size == 0) {
+                    postings.remove(trigram);
+                }
+            }
+        }
+    }
+
+    // Trigrammi distinti della nota, ciascuno con i campi in cui compare: (trigramma << FIELD_BITS | campi)
+    static int[] noteTrigrams(String title, String tags, String content) {
+        String indexedContent = content != null && content.length() > MAX_INDEXED_CONTENT_CHARS
+                ? content.substring(0, MAX_INDEXED_CONTENT_CHARS)
+                : content;
+        long[] buffer = new long[64];
+        int[] count = {0};
+        buffer = collect(title, FIELD_TITLE, buffer, count);
+        buffer = collect(tags, FIELD_TAGS, buffer, count);
+        buffer = collect(indexedContent, FIELD_CONTENT, buffer, count);
+        Arrays.sort(buffer, 0, count[0]);
+
+        int[] entries = new int[count[0]];
+        int distinct = 0;
+        for (int i = 0; i < count[0]; ) {
+            int trigram = (int) (buffer[i] >> FIELD_BITS);
+            int fields = 0;
+            while (i < count[0] && (int) (buffer[i] >> FIELD_BITS) == trigram) {
+                fields |= (int) (buffer[i] & FIELD_MASK);
+                i++;
+            }
+            entries[distinct++] = trigram << FIELD_BITS | fields;
+        }
+        return Arrays.copyOf(entries, distinct);
+    }
+
+    static int[] queryTrigrams(String query) {
+        int[] count = {0};
+        long[] buffer = collect(query, 0, new long[16], count);
+        Arrays.sort(buffer, 0, count[0]);
+        int[] trigrams = new int[count[0]];
+        int distinct = 0;
+        for (int i = 0; i < count[0]; i++) {
+            if (i == 0 || buffer[i] != buffer[i - 1]) {
+                trigrams[distinct++] = (int) (buffer[i] >> FIELD_BITS);
+            }
+        }
+        return Arrays.copyOf(trigrams, distinct);
+    }
+
+    // Aggiunge a buffer i trigrammi di ogni parola di text (preceduta da uno spazio), marcati con il campo
+    private static long[] collect(String text, int field, long[] buffer, int[] count) {
+        if (text == null || text.isEmpty()) {
+            return buffer;
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        char first = ' ';
+        char second = ' ';
+        int wordLength = 0;
+        for (int i = 0; i <= lower.length(); i++) {
+            char c = i < lower.length() ? lower.charAt(i) : ' ';
+            if (!Character.isLetterOrDigit(c)) {
+                wordLength = 0;
+                first = ' ';
+                second = ' ';
+                continue;
+            }
+            if (wordLength >= 1) {          //" p" + r, poi "pr" + o, ...
+                if (count[0] == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                long trigram = trigramKey(first, second, c);
+                buffer[count[0]++] = trigram << FIELD_BITS | field;
+            }
+            first = second;
+            second = c;
+            wordLength++;
+        }
+        return buffer;
+    }
+
+    // Chiave a 28 bit (poi spostata di FIELD_BITS): collisioni rare, e al massimo aggiungono un candidato in più
+    private static int trigramKey(char a, char b, char c) {
+        int hash = (a * 31 + b) * 31 + c;
+        hash ^= hash >>> 15;
+        hash *= 0x2c1b3c6d;
+        hash ^= hash >>> 12;
+        return hash & 0x0FFFFFFF;
+    }
+
+    // Lista di interi non ordinata: la rimozione scambia l'elemento con l'ultimo
+    private static class PostingList {
+        int[] items = new int[4];
+        int size;
+
+        void add(int posting) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+            }
+            items[size++] = posting;
+        }
+
+        void removeSlot(int slot) {
+            for (int i = 0; i < size; i++) {
+                if (items[i] >>> FIELD_BITS == slot) {
+                    items[i] = items[--size];
+                    return;
+                }
+            }
+        }
+    }
+}
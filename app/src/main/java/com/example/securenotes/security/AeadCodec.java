@@ -0,0 +1,236 @@
+package com.example.securenotes.security;
+
+import android.util.Base64;
+
+import com.example.securenotes.utils.Constants;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+// Unico percorso AES-GCM dell'app per note, PIN, backup e archivio file.
+// Formato: IV (12 byte) || ciphertext || tag (16 byte).
+// Ogni thread riusa la propria istanza di Cipher e IV/ciphertext vengono letti per offset/lunghezza,
+// senza copiarli in array intermedi.
+public final class AeadCodec {
+
+    public static final int IV_SIZE_BYTES = SecurityUtils.GCM_IV_SIZE_BYTES;
+    public static final int TAG_SIZE_BYTES = SecurityUtils.getGcmTagLengthBytes();
+    private static final int TAG_SIZE_BITS = TAG_SIZE_BYTES * 8;
+
+    private static final int MAX_CACHED_SCRATCH_BYTES = 1024 * 1024;    //note enormi non restano agganciate al thread
+
+    private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+
+    // Cipher per le operazioni one-shot (doFinal)
+    private static final ThreadLocal<Cipher> ONE_SHOT_CIPHER = new ThreadLocal<>();
+    // Cipher per gli stream (file): separato perché resta inizializzato tra più chiamate update()
+    private static final ThreadLocal<Cipher> STREAM_CIPHER = new ThreadLocal<>();
+    private static final ThreadLocal<byte[]> IV_SCRATCH = new ThreadLocal<>();
+    private static final ThreadLocal<byte[]> PLAINTEXT_SCRATCH = new ThreadLocal<>();
+
+    private AeadCodec() {
+    }
+
+    // --- Operazioni su array ---
+
+    public static byte[] encrypt(byte[] plaintext, SecretKey key) throws GeneralSecurityException {
+        return encrypt(plaintext, 0, plaintext.length, key);
+    }
+
+    public static byte[] encrypt(byte[] plaintext, int offset, int length, SecretKey key) throws GeneralSecurityException {
+        Cipher cipher = cipher(ONE_SHOT_CIPHER);
+        byte[] iv = nextIv();
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_SIZE_BITS, iv));
+
+        byte[] combined = new byte[IV_SIZE_BYTES + cipher.getOutputSize(length)];      //unica allocazione: IV + ciphertext + tag
+        System.arraycopy(iv, 0, combined, 0, IV_SIZE_BYTES);
+        int written = cipher.doFinal(plaintext, offset, length, combined, IV_SIZE_BYTES);
+        return written == combined.length - IV_SIZE_BYTES ? combined : Arrays.copyOf(combined, IV_SIZE_BYTES + written);
+    }
+
+    // Formato con intestazione in chiaro: header || IV || ciphertext || tag.
+    // L'header è autenticato come AAD, quindi non può essere alterato senza far fallire il tag.
+    public static byte[] encryptWithHeader(byte[] header, byte[] plaintext, int offset, int length, SecretKey key) throws GeneralSecurityException {
+        Cipher cipher = cipher(ONE_SHOT_CIPHER);
+        byte[] iv = nextIv();
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_SIZE_BITS, iv));
+        cipher.updateAAD(header);
+
+        int bodyOffset = header.length + IV_SIZE_BYTES;
+        byte[] combined = new byte[bodyOffset + cipher.getOutputSize(length)];
+        System.arraycopy(header, 0, combined, 0, header.length);
+        System.arraycopy(iv, 0, combined, header.length, IV_SIZE_BYTES);
+        int written = cipher.doFinal(plaintext, offset, length, combined, bodyOffset);
+        return written == combined.length - bodyOffset ? combined : Arrays.copyOf(combined, bodyOffset + written);
+    }
+
+    public static byte[] decryptWithHeader(byte[] combined, int headerLength, SecretKey key) throws GeneralSecurityException {
+        Cipher cipher = initDecryptWithHeader(combined, headerLength, key);
+        int bodyOffset = headerLength + IV_SIZE_BYTES;
+        byte[] plaintext = new byte[cipher.getOutputSize(combined.length - bodyOffset)];
+        int written = cipher.doFinal(combined, bodyOffset, combined.length - bodyOffset, plaintext, 0);
+        return written == plaintext.length ? plaintext : Arrays.copyOf(plaintext, written);
+    }
+
+    public static String decryptWithHeaderToString(byte[] combined, int headerLength, SecretKey key) throws GeneralSecurityException {
+        Cipher cipher = initDecryptWithHeader(combined, headerLength, key);
+        int bodyOffset = headerLength + IV_SIZE_BYTES;
+        byte[] scratch = plaintextScratch(cipher.getOutputSize(combined.length - bodyOffset));
+        int written = cipher.doFinal(combined, bodyOffset, combined.length - bodyOffset, scratch, 0);
+        try {
+            return new String(scratch, 0, written, StandardCharsets.UTF_8);
+        } finally {
+            Arrays.fill(scratch, 0, written, (byte) 0);
+        }
+    }
+
+    public static byte[] decrypt(byte[] combined, SecretKey key) throws GeneralSecurityException {
+        return decrypt(combined, 0, combined.length, key);
+    }
+
+    public static byte[] decrypt(byte[] combined, int offset, int length, SecretKey key) throws GeneralSecurityException {
+        Cipher cipher = initDecrypt(combined, offset, length, key);
+        byte[] plaintext = new byte[cipher.getOutputSize(length - IV_SIZE_BYTES)];
+        int written = cipher.doFinal(combined, offset + IV_SIZE_BYTES, length - IV_SIZE_BYTES, plaintext, 0);
+        return written == plaintext.length ? plaintext : Arrays.copyOf(plaintext, written);
+    }
+
+    // Decripta direttamente in una String UTF-8 passando da un buffer per thread, azzerato dopo l'uso
+    public static String decryptToString(byte[] combined, int offset, int length, SecretKey key) throws GeneralSecurityException {
+        Cipher cipher = initDecrypt(combined, offset, length, key);
+        byte[] scratch = plaintextScratch(cipher.getOutputSize(length - IV_SIZE_BYTES));
+        int written = cipher.doFinal(combined, offset + IV_SIZE_BYTES, length - IV_SIZE_BYTES, scratch, 0);
+        try {
+            return new String(scratch, 0, written, StandardCharsets.UTF_8);
+        } finally {
+            Arrays.fill(scratch, 0, written, (byte) 0);
+        }
+    }
+
+    // --- Stringhe Base64 (note, PIN) ---
+
+    public static String encryptToBase64(String plaintext, SecretKey key) throws GeneralSecurityException {
+        return Base64.encodeToString(encrypt(plaintext.getBytes(StandardCharsets.UTF_8), key), Base64.DEFAULT);
+    }
+
+    public static String decryptFromBase64(String encoded, SecretKey key) throws GeneralSecurityException {
+        byte[] combined;
+        try {
+            combined = Base64.decode(encoded, Base64.DEFAULT);
+        } catch (IllegalArgumentException e) {
+            throw new GeneralSecurityException("Ciphertext Base64 non valido", e);
+        }
+        return decryptToString(combined, 0, combined.length, key);
+    }
+
+    // --- Stream (archivio file) ---
+
+    // Nuovo IV casuale da scrivere in testa al file
+    public static byte[] generateIv() {
+        byte[] iv = new byte[IV_SIZE_BYTES];
+        SECURE_RANDOM.nextBytes(iv);
+        return iv;
+    }
+
+    // Cipher del thread corrente pronto per update()/doFinal() su uno stream
+    public static Cipher initStreamCipher(int mode, SecretKey key, byte[] iv, int ivOffset) throws GeneralSecurityException {
+        Cipher cipher = cipher(STREAM_CIPHER);
+        cipher.init(mode, key, new GCMParameterSpec(TAG_SIZE_BITS, iv, ivOffset, IV_SIZE_BYTES));
+        return cipher;
+    }
+
+    // --- Segmenti (archivio file, formato a segmenti) ---
+
+    // Cifra un segmento con un nonce esplicito (derivato dall'indice del segmento, vedi SegmentedAead): out riceve ciphertext || tag
+    public static int sealSegment(SecretKey key, byte[] nonce, byte[] aad, byte[] in, int inOffset, int inLength, byte[] out, int outOffset) throws GeneralSecurityException {
+        Cipher cipher = cipher(ONE_SHOT_CIPHER);
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_SIZE_BITS, nonce));
+        cipher.updateAAD(aad);
+        return cipher.doFinal(in, inOffset, inLength, out, outOffset);
+    }
+
+    // Decripta e autentica un solo segmento: un segmento alterato fallisce subito, senza leggere il resto del file
+    public static int openSegment(SecretKey key, byte[] nonce, byte[] aad, byte[] in, int inOffset, int inLength, byte[] out, int outOffset) throws GeneralSecurityException {
+        if (inLength < TAG_SIZE_BYTES) {
+            throw new GeneralSecurityException("Segmento troppo corto: " + inLength + " byte");
+        }
+        Cipher cipher = cipher(ONE_SHOT_CIPHER);
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_SIZE_BITS, nonce));
+        cipher.updateAAD(aad);
+        return cipher.doFinal(in, inOffset, inLength, out, outOffset);
+    }
+
+    // Varianti su ByteBuffer per i cicli su FileChannel: nessun array per segmento, i buffer (anche diretti) si riusano.
+    // Leggono in.remaining() byte da in e scrivono in out dalla sua posizione corrente; restituiscono i byte scritti.
+    public static int sealSegment(SecretKey key, byte[] nonce, byte[] aad, ByteBuffer in, ByteBuffer out) throws GeneralSecurityException {
+        Cipher cipher = cipher(ONE_SHOT_CIPHER);
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_SIZE_BITS, nonce));
+        cipher.updateAAD(aad);
+        return cipher.doFinal(in, out);
+    }
+
+    public static int openSegment(SecretKey key, byte[] nonce, byte[] aad, ByteBuffer in, ByteBuffer out) throws GeneralSecurityException {
+        if (in.remaining() < TAG_SIZE_BYTES) {
+            throw new GeneralSecurityException("Segmento troppo corto: " + in.remaining() + " byte");
+        }
+        Cipher cipher = cipher(ONE_SHOT_CIPHER);
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_SIZE_BITS, nonce));
+        cipher.updateAAD(aad);
+        return cipher.doFinal(in, out);
+    }
+
+    // --- Interni ---
+
+    private static Cipher initDecrypt(byte[] combined, int offset, int length, SecretKey key) throws GeneralSecurityException {
+        if (length < IV_SIZE_BYTES + TAG_SIZE_BYTES) {
+            throw new GeneralSecurityException("Ciphertext troppo corto: " + length + " byte");
+        }
+        Cipher cipher = cipher(ONE_SHOT_CIPHER);
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_SIZE_BITS, combined, offset, IV_SIZE_BYTES));
+        return cipher;
+    }
+
+    private static Cipher initDecryptWithHeader(byte[] combined, int headerLength, SecretKey key) throws GeneralSecurityException {
+        Cipher cipher = initDecrypt(combined, headerLength, combined.length - headerLength, key);
+        cipher.updateAAD(combined, 0, headerLength);
+        return cipher;
+    }
+
+    private static Cipher cipher(ThreadLocal<Cipher> holder) throws GeneralSecurityException {
+        Cipher cipher = holder.get();
+        if (cipher == null) {
+            cipher = Cipher.getInstance(Constants.TRANSFORMATION);
+            holder.set(cipher);
+        }
+        return cipher;
+    }
+
+    private static byte[] nextIv() {
+        byte[] iv = IV_SCRATCH.get();
+        if (iv == null) {
+            iv = new byte[IV_SIZE_BYTES];
+            IV_SCRATCH.set(iv);
+        }
+        SECURE_RANDOM.nextBytes(iv);
+        return iv;
+    }
+
+    private static byte[] plaintextScratch(int minSize) {
+        if (minSize > MAX_CACHED_SCRATCH_BYTES) {
+            return new byte[minSize];
+        }
+        byte[] scratch = PLAINTEXT_SCRATCH.get();
+        if (scratch == null || scratch.length < minSize) {
+            scratch = new byte[Math.max(minSize, 4096)];
+            PLAINTEXT_SCRATCH.set(scratch);
+        }
+        return scratch;
+    }
+}
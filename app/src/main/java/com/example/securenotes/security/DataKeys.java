@@ -0,0 +1,63 @@
+package com.example.securenotes.security;
+
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+// Chiavi dati per singolo elemento (nota o file archiviato): ogni elemento è cifrato con una propria chiave AES casuale,
+// salvata nella riga del database cifrata ("wrapped") con la chiave note/file della sessione.
+// Eliminare la riga distrugge la chiave: il ciphertext residuo (file su disco, pagine libere) non è più decifrabile,
+// quindi la cancellazione costa O(1) indipendentemente dalla dimensione dei dati.
+// Formato della chiave cifrata: 'S' 'N' 'K' <versione> || IV || chiave cifrata || tag.
+public final class DataKeys {
+
+    private static final byte[] WRAP_HEADER = {'S', 'N', 'K', 1};
+    private static final int KEY_SIZE_BYTES = 32;         //AES-256
+
+    private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+
+    private DataKeys() {
+    }
+
+    public static SecretKey generate() {
+        byte[] raw = new byte[KEY_SIZE_BYTES];
+        SECURE_RANDOM.nextBytes(raw);
+        try {
+            return new SecretKeySpec(raw, "AES");
+        } finally {
+            Arrays.fill(raw, (byte) 0);             //SecretKeySpec conserva una propria copia
+        }
+    }
+
+    public static byte[] wrap(SecretKey dataKey, SecretKey masterKey) throws GeneralSecurityException {
+        byte[] raw = dataKey.getEncoded();
+        try {
+            return AeadCodec.encryptWithHeader(WRAP_HEADER, raw, 0, raw.length, masterKey);
+        } finally {
+            Arrays.fill(raw, (byte) 0);
+        }
+    }
+
+    public static SecretKey unwrap(byte[] wrappedKey, SecretKey masterKey) throws GeneralSecurityException {
+        if (wrappedKey.length < WRAP_HEADER.length || !Arrays.equals(Arrays.copyOf(wrappedKey, WRAP_HEADER.length), WRAP_HEADER)) {
+            throw new GeneralSecurityException("Chiave dati in formato sconosciuto");
+        }
+        byte[] raw = AeadCodec.decryptWithHeader(wrappedKey, WRAP_HEADER.length, masterKey);
+        try {
+            if (raw.length != KEY_SIZE_BYTES) {
+                throw new GeneralSecurityException("Chiave dati di lunghezza non valida: " + raw.length);
+            }
+            return new SecretKeySpec(raw, "AES");
+        } finally {
+            Arrays.fill(raw, (byte) 0);
+        }
+    }
+
+    // Chiave con cui è cifrato un elemento: le righe precedenti alle chiavi dati (wrappedKey null) usano direttamente la chiave di sessione
+    public static SecretKey keyFor(byte[] wrappedKey, SecretKey masterKey) throws GeneralSecurityException {
+        return wrappedKey == null ? masterKey : unwrap(wrappedKey, masterKey);
+    }
+}
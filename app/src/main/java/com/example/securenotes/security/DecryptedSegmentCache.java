@@ -0,0 +1,236 @@
+package com.example.securenotes.security;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+// Cache LRU in memoria dei segmenti già decifrati dei file dell'archivio, condivisa da tutti i SegmentedFileReader:
+// riaprire lo stesso documento poco dopo (o saltare avanti e indietro nel viewer) non ripaga la decifratura.
+// Limiti: MAX_BYTES di testo in chiaro e TTL_MS dall'ultimo accesso. Il testo in chiaro non va mai su disco;
+// le voci rimosse vengono azzerate e il logout svuota tutto.
+// L'ordine della mappa coincide con l'ordine di lastAccess (orologio monotono, ogni get riuscito aggiorna entrambi):
+// le voci da far scadere sono sempre in testa.
+public class DecryptedSegmentCache {
+
+    private static final String TAG = "DecryptedSegmentCache";
+
+    private static final long MAX_BYTES = 16L * 1024 * 1024;
+    private static final long TTL_MS = TimeUnit.MINUTES.toMillis(2);
+
+    private static volatile DecryptedSegmentCache INSTANCE;
+
+    // Esegue sweep dopo delayMs. Sostituibile nei test, dove il Looper principale non esiste.
+    interface SweepScheduler {
+        void schedule(Runnable sweep, long delayMs);
+    }
+
+    private final long maxBytes;
+    private final long ttlMs;
+    private final LongSupplier clock;
+    private final SweepScheduler sweepScheduler;
+    private final LinkedHashMap<String, CachedSegment> entries = new LinkedHashMap<>(64, 0.75f, true);     //ordine di accesso = LRU
+    private long totalBytes;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private long expirationCount;
+    private boolean sweepScheduled;
+
+    private DecryptedSegmentCache() {
+        this(MAX_BYTES, TTL_MS, () -> System.nanoTime() / 1_000_000L, new MainLooperScheduler());
+    }
+
+    DecryptedSegmentCache(long maxBytes, long ttlMs, LongSupplier clock, SweepScheduler sweepScheduler) {
+        this.maxBytes = maxBytes;
+        this.ttlMs = ttlMs;
+        this.clock = clock;
+        this.sweepScheduler = sweepScheduler;
+    }
+
+    public static DecryptedSegmentCache getInstance() {
+        if (INSTANCE == null) {
+            synchronized (DecryptedSegmentCache.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new DecryptedSegmentCache();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    // Copia in out il segmento se è in cache e appartiene allo stesso file (stessa intestazione); restituisce la lunghezza o -1
+    public synchronized int get(String fileId, byte[] header, int index, byte[] out) {
+        long now = clock.getAsLong();
+        expireOlderThan(now - ttlMs);
+        String key = key(fileId, index);
+        CachedSegment cached = entries.get(key);
+        if (cached == null) {
+            missCount++;
+            return -1;
+        }
+        if (!Arrays.equals(cached.header, header)) {
+            // stesso percorso ma file riscritto: la voce non servirà più e get() l'ha appena spostata in coda
+            // senza aggiornare lastAccess, quindi va tolta subito
+            entries.remove(key);
+            remove(cached);
+            missCount++;
+            return -1;
+        }
+        hitCount++;
+        cached.lastAccess = now;
+        System.arraycopy(cached.plaintext, 0, out, 0, cached.plaintext.length);
+        return cached.plaintext.length;
+    }
+
+    public synchronized void put(String fileId, byte[] header, int index, byte[] plaintext, int length) {
+        if (length > maxBytes / 4) {
+            return;
+        }
+        long now = clock.getAsLong();
+        CachedSegment previous = entries.put(key(fileId, index), new CachedSegment(header, Arrays.copyOf(plaintext, length), now));
+        if (previous != null) {
+            remove(previous);
+        }
+        totalBytes += length;
+
+        expireOlderThan(now - ttlMs);
+        Iterator<CachedSegment> eldest = entries.values().iterator();
+        while (totalBytes > maxBytes && eldest.hasNext()) {
+            CachedSegment segment = eldest.next();
+            eldest.remove();
+            remove(segment);
+            evictionCount++;
+        }
+        scheduleSweepLocked();
+    }
+
+    // File eliminato dall'archivio: i suoi segmenti non devono restare in memoria fino alla scadenza
+    public synchronized void evictFile(String fileId) {
+        String prefix = fileId + '#';
+        Iterator<Map.Entry<String, CachedSegment>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, CachedSegment> entry = iterator.next();
+            if (entry.getKey().startsWith(prefix)) {
+                iterator.remove();
+                remove(entry.getValue());
+            }
+        }
+    }
+
+    // Chiamato al logout: nessun segmento in chiaro deve sopravvivere alla sessione
+    public synchronized void clear() {
+        if (!entries.isEmpty() || hitCount + missCount > 0) {
+            Log.d(TAG, "Svuotata: " + statsLocked());
+        }
+        for (CachedSegment segment : entries.values()) {
+            Arrays.fill(segment.plaintext, (byte) 0);
+        }
+        entries.clear();
+        totalBytes = 0;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public synchronized long getExpirationCount() {
+        return expirationCount;
+    }
+
+    public synchronized long getSizeBytes() {
+        return totalBytes;
+    }
+
+    public synchronized String getStats() {
+        return statsLocked();
+    }
+
+    private String statsLocked() {
+        long lookups = hitCount + missCount;
+        return String.format(Locale.ROOT, "%d hit, %d miss (%.0f%%), %d rimossi per spazio, %d scaduti, %d KB in cache",
+                hitCount, missCount, lookups == 0 ? 0.0 : hitCount * 100.0 / lookups, evictionCount, expirationCount, totalBytes / 1024);
+    }
+
+    // Senza altri accessi le voci scadute verrebbero rimosse solo alla prossima lettura: un controllo ritardato le azzera
+    // anche se il viewer non viene più usato. Un solo controllo in sospeso alla volta, fissato alla scadenza della voce
+    // in testa: le voci aggiunte o lette dopo scadono più tardi, quindi nessuna resta in memoria oltre TTL_MS.
+    private void scheduleSweepLocked() {
+        if (sweepScheduled || entries.isEmpty()) {
+            return;
+        }
+        CachedSegment eldest = entries.values().iterator().next();
+        sweepScheduled = true;
+        sweepScheduler.schedule(this::sweep, Math.max(0, eldest.lastAccess + ttlMs - clock.getAsLong()));
+    }
+
+    private synchronized void sweep() {
+        sweepScheduled = false;
+        expireOlderThan(clock.getAsLong() - ttlMs);
+        scheduleSweepLocked();
+    }
+
+    // In ordine di accesso le voci più vecchie sono in testa: ci si ferma alla prima ancora valida
+    private void expireOlderThan(long cutoff) {
+        Iterator<CachedSegment> eldest = entries.values().iterator();
+        while (eldest.hasNext()) {
+            CachedSegment segment = eldest.next();
+            if (segment.lastAccess > cutoff) {              //scade esattamente dopo TTL_MS: il controllo pianificato la trova già scaduta
+                break;
+            }
+            eldest.remove();
+            remove(segment);
+            expirationCount++;
+        }
+    }
+
+    private void remove(CachedSegment segment) {
+        totalBytes -= segment.plaintext.length;
+        Arrays.fill(segment.plaintext, (byte) 0);
+    }
+
+    private static String key(String fileId, int index) {
+        return fileId + '#' + index;
+    }
+
+    // Handler creato al primo controllo pianificato, non alla costruzione della cache
+    private static final class MainLooperScheduler implements SweepScheduler {
+
+        private Handler handler;            //usato solo con il lock della cache
+
+        @Override
+        public void schedule(Runnable sweep, long delayMs) {
+            if (handler == null) {
+                handler = new Handler(Looper.getMainLooper());
+            }
+            handler.postDelayed(sweep, delayMs);
+        }
+    }
+
+    private static class CachedSegment {
+        final byte[] header;
+        final byte[] plaintext;
+        long lastAccess;
+
+        CachedSegment(byte[] header, byte[] plaintext, long lastAccess) {
+            this.header = header.clone();
+            this.plaintext = plaintext;
+            this.lastAccess = lastAccess;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.securenotes.security;
+
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+import android.util.Log;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+// KEK del vault nell'Android Keystore: la chiave non lascia mai il Keystore (né le SharedPreferences né un backup
+// la contengono), quindi la DEK cifrata da sola non basta a leggere note e file.
+// Formato della DEK cifrata: 'S' 'N' 'V' <versione> || IV || DEK cifrata || tag.
+// Cipher nuovo a ogni operazione: un Cipher già usato con chiavi software non accetta chiavi del Keystore.
+final class KeystoreKek {
+
+    private static final String TAG = "KeystoreKek";
+
+    private static final String ANDROID_KEYSTORE = "AndroidKeyStore";
+    private static final String ALIAS_PREFIX = "securenotes_vault_kek_";
+    private static final byte[] WRAP_HEADER = {'S', 'N', 'V', 1};
+    private static final int IV_SIZE_BYTES = 12;
+    private static final int TAG_SIZE_BITS = 128;
+    private static final int DEK_SIZE_BYTES = 32;
+
+    private KeystoreKek() {
+    }
+
+    // Nuova KEK con un alias mai usato: la precedente resta valida finché il chiamante non la elimina
+    static String create() throws GeneralSecurityException {
+        String alias = ALIAS_PREFIX + UUID.randomUUID();
+        KeyGenerator generator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, ANDROID_KEYSTORE);
+        generator.init(new KeyGenParameterSpec.Builder(alias, KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+                .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+                .setKeySize(256)
+                .build());
+        generator.generateKey();
+        return alias;
+    }
+
+    static byte[] wrap(SecretKey dek, String alias) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, keyOf(alias));             //IV casuale generato dal Keystore
+        cipher.updateAAD(WRAP_HEADER);
+        byte[] raw = dek.getEncoded();
+        try {
+            byte[] sealed = cipher.doFinal(raw);
+            byte[] iv = cipher.getIV();
+            byte[] wrapped = new byte[WRAP_HEADER.length + iv.length + sealed.length];
+            System.arraycopy(WRAP_HEADER, 0, wrapped, 0, WRAP_HEADER.length);
+            System.arraycopy(iv, 0, wrapped, WRAP_HEADER.length, iv.length);
+            System.arraycopy(sealed, 0, wrapped, WRAP_HEADER.length + iv.length, sealed.length);
+            return wrapped;
+        } finally {
+            Arrays.fill(raw, (byte) 0);
+        }
+    }
+
+    static SecretKey unwrap(byte[] wrapped, String alias) throws GeneralSecurityException {
+        if (wrapped.length < WRAP_HEADER.length + IV_SIZE_BYTES || !Arrays.equals(Arrays.copyOf(wrapped, WRAP_HEADER.length), WRAP_HEADER)) {
+            throw new GeneralSecurityException("DEK cifrata in formato sconosciuto");
+        }
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, keyOf(alias), new GCMParameterSpec(TAG_SIZE_BITS, wrapped, WRAP_HEADER.length, IV_SIZE_BYTES));
+        cipher.updateAAD(WRAP_HEADER);
+        int bodyOffset = WRAP_HEADER.length + IV_SIZE_BYTES;
+        byte[] raw = cipher.doFinal(wrapped, bodyOffset, wrapped.length - bodyOffset);
+        try {
+            if (raw.length != DEK_SIZE_BYTES) {
+                throw new GeneralSecurityException("DEK di lunghezza non valida: " + raw.length);
+            }
+            return new SecretKeySpec(raw, "AES");
+        } finally {
+            Arrays.fill(raw, (byte) 0);
+        }
+    }
+
+    // Elimina le KEK del vault tranne keep (null = tutte): vecchie KEK dopo una rotazione o un'interruzione a metà
+    static void deleteAllExcept(String keep) {
+        try {
+            KeyStore keyStore = loadKeyStore();
+            for (String alias : Collections.list(keyStore.aliases())) {
+                if (alias.startsWith(ALIAS_PREFIX) && !alias.equals(keep)) {
+                    keyStore.deleteEntry(alias);
+                    Log.d(TAG, "KEK eliminata dal Keystore: " + alias);
+                }
+            }
+        } catch (GeneralSecurityException | IOException e) {
+            Log.e(TAG, "Impossibile eliminare le vecchie KEK dal Keystore.", e);
+        }
+    }
+
+    private static SecretKey keyOf(String alias) throws GeneralSecurityException {
+        try {
+            KeyStore.Entry entry = loadKeyStore().getEntry(alias, null);
+            if (!(entry instanceof KeyStore.SecretKeyEntry)) {
+                // es. dati ripristinati da un backup su un altro dispositivo: la DEK non è più recuperabile
+                throw new GeneralSecurityException("KEK non presente nel Keystore: " + alias);
+            }
+            return ((KeyStore.SecretKeyEntry) entry).getSecretKey();
+        } catch (IOException e) {
+            throw new GeneralSecurityException("Keystore non disponibile", e);
+        }
+    }
+
+    private static KeyStore loadKeyStore() throws GeneralSecurityException, IOException {
+        KeyStore keyStore = KeyStore.getInstance(ANDROID_KEYSTORE);
+        keyStore.load(null);
+        return keyStore;
+    }
+}
@@ -0,0 +1,189 @@
+package com.example.securenotes.security;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.SecretKey;
+
+// Formato versionato dei dati cifrati: 'S' 'N' 'X' <versione> || IV || ciphertext || tag.
+// Versione 1 = dati in chiaro, versione 2 = dati compressi con Deflate prima della cifratura.
+// Versione 3 = file dell'archivio a segmenti autenticati singolarmente (vedi SegmentedAead).
+// L'intestazione è autenticata (AAD). I dati senza intestazione (formato precedente: IV || ciphertext || tag)
+// restano leggibili: se l'intestazione non è presente o il tag non torna, si riprova come formato legacy.
+public final class PayloadCodec {
+
+    public static final byte[] MAGIC = {'S', 'N', 'X'};
+    public static final int HEADER_SIZE = MAGIC.length + 1;
+    public static final byte VERSION_RAW = 1;
+    public static final byte VERSION_DEFLATE = 2;
+    public static final byte VERSION_SEGMENTED = 3;
+
+    public static final int MIN_COMPRESSIBLE_BYTES = 512;        //sotto questa soglia l'overhead Deflate non ripaga
+    public static final int SAMPLE_BYTES = 64 * 1024;
+    private static final double MAX_SAMPLE_RATIO = 0.9;           //se il campione si riduce meno del 10% non si comprime
+    public static final int DEFLATE_LEVEL = Deflater.BEST_SPEED;
+
+    private PayloadCodec() {
+    }
+
+    // --- Array (contenuto e anteprima delle note) ---
+
+    public static byte[] seal(byte[] plaintext, SecretKey key, boolean allowCompression) throws GeneralSecurityException {
+        if (allowCompression && isWorthCompressing(plaintext, 0, plaintext.length)) {
+            byte[] compressed = deflate(plaintext);
+            if (compressed.length < plaintext.length) {
+                return AeadCodec.encryptWithHeader(header(VERSION_DEFLATE), compressed, 0, compressed.length, key);
+            }
+        }
+        return AeadCodec.encryptWithHeader(header(VERSION_RAW), plaintext, 0, plaintext.length, key);
+    }
+
+    public static byte[] open(byte[] sealed, SecretKey key) throws GeneralSecurityException {
+        int version = versionOf(sealed, 0, sealed.length);
+        if (version == VERSION_RAW || version == VERSION_DEFLATE) {
+            try {
+                byte[] body = AeadCodec.decryptWithHeader(sealed, HEADER_SIZE, key);
+                if (version == VERSION_RAW) {
+                    return body;
+                }
+                try {
+                    return inflate(body);
+                } finally {
+                    Arrays.fill(body, (byte) 0);
+                }
+            } catch (AEADBadTagException e) {
+                // un ciphertext legacy il cui IV inizia per caso con "SNX": si riprova sotto
+            }
+        }
+        return AeadCodec.decrypt(sealed, key);
+    }
+
+    public static String openToString(byte[] sealed, SecretKey key) throws GeneralSecurityException {
+        int version = versionOf(sealed, 0, sealed.length);
+        if (version == VERSION_RAW) {
+            try {
+                return AeadCodec.decryptWithHeaderToString(sealed, HEADER_SIZE, key);       //percorso senza copie intermedie
+            } catch (AEADBadTagException e) {
+                return AeadCodec.decryptToString(sealed, 0, sealed.length, key);
+            }
+        }
+        if (version == -1) {
+            return AeadCodec.decryptToString(sealed, 0, sealed.length, key);
+        }
+        byte[] plaintext = open(sealed, key);
+        try {
+            return new String(plaintext, StandardCharsets.UTF_8);
+        } finally {
+            Arrays.fill(plaintext, (byte) 0);
+        }
+    }
+
+    // --- Intestazione ---
+
+    public static byte[] header(byte version) {
+        return new byte[]{MAGIC[0], MAGIC[1], MAGIC[2], version};
+    }
+
+    // Versione dichiarata dall'intestazione, -1 se i dati non hanno intestazione (formato legacy)
+    public static int versionOf(byte[] data, int offset, int length) {
+        if (length < HEADER_SIZE + AeadCodec.IV_SIZE_BYTES + AeadCodec.TAG_SIZE_BYTES
+                || data[offset] != MAGIC[0] || data[offset + 1] != MAGIC[1] || data[offset + 2] != MAGIC[2]) {
+            return -1;
+        }
+        return data[offset + 3];
+    }
+
+    // --- Politica di compressione ---
+
+    // true/false se il MIME type basta a decidere, null se serve un campione dei dati
+    public static Boolean isCompressibleMimeType(String mimeType) {
+        if (mimeType == null) {
+            return null;
+        }
+        String mime = mimeType.toLowerCase(Locale.ROOT);
+        if (mime.startsWith("text/") || mime.equals("image/svg+xml") || mime.equals("image/bmp")
+                || mime.equals("audio/wav") || mime.equals("audio/x-wav")
+                || mime.endsWith("/json") || mime.endsWith("+json") || mime.endsWith("/xml") || mime.endsWith("+xml")
+                || mime.equals("application/javascript") || mime.equals("application/sql") || mime.equals("application/rtf")
+                || mime.equals("application/x-sh")) {
+            return true;
+        }
+        if (mime.startsWith("image/") || mime.startsWith("video/") || mime.startsWith("audio/")
+                || mime.contains("zip") || mime.contains("compressed") || mime.contains("rar")
+                || mime.equals("application/x-bzip2") || mime.equals("application/x-xz") || mime.equals("application/zstd")
+                || mime.equals("application/java-archive") || mime.equals("application/vnd.android.package-archive")
+                || mime.startsWith("application/vnd.openxmlformats-officedocument.")          //docx/xlsx/pptx sono zip
+                || mime.startsWith("application/vnd.oasis.opendocument.")) {
+            return false;
+        }
+        return null;
+    }
+
+    // Comprime un campione dei primi SAMPLE_BYTES e decide in base al rapporto ottenuto
+    public static boolean isWorthCompressing(byte[] data, int offset, int length) {
+        if (length < MIN_COMPRESSIBLE_BYTES) {
+            return false;
+        }
+        int sampleLength = Math.min(length, SAMPLE_BYTES);
+        Deflater deflater = new Deflater(DEFLATE_LEVEL, true);
+        try {
+            deflater.setInput(data, offset, sampleLength);
+            deflater.finish();
+            byte[] sink = new byte[8192];
+            long compressed = 0;
+            while (!deflater.finished()) {
+                compressed += deflater.deflate(sink);
+            }
+            return compressed < sampleLength * MAX_SAMPLE_RATIO;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    // --- Deflate ---
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(DEFLATE_LEVEL);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int written = deflater.deflate(buffer);
+                out.write(buffer, 0, written);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] compressed) throws GeneralSecurityException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 3);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int written = inflater.inflate(buffer);
+                if (written == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new GeneralSecurityException("Dati compressi troncati");
+                }
+                out.write(buffer, 0, written);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new GeneralSecurityException("Dati compressi non validi", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -22,7 +22,7 @@ public class SecurityUtils {
     private static final String TAG = "SecurityUtils";
     private static final String STANDARD_PREFS_FILE = "secure_notes_prefs";
     private static final String KEY_PIN_SECRET_SEED = "pin_secret_seed"; // Seed per la chiave del PIN (PBKDF2)
-    private static final String KEY_NOTE_SECRET_SEED = "note_secret_seed"; // Seed per la chiave delle note/file (PBKDF2)
+    static final String KEY_NOTE_SECRET_SEED = "note_secret_seed"; // Seed della chiave note/file prima di VaultKeyStore (PBKDF2)
     private static final String KEY_FILE_MASTER_SEED = "file_master_seed"; // Seed per la MasterKey dei file (PBKDF2)
 
     private static final int AES_KEY_SIZE_BITS = 256;
@@ -70,6 +70,18 @@ public class SecurityUtils {
         }
 
         byte[] seedBytes = Base64.decode(seedString, Base64.DEFAULT);       //seedString viene decodificato da Base64 a seedBytes per essere usato dall'algoritmo PBKDF2
+        return deriveAesKeyFromSeed(seedBytes, seedKey);
+    }
+
+    // Seed casuale da salvare (Base64) nelle SharedPreferences
+    static byte[] newSeed() {
+        byte[] seed = new byte[16];
+        new SecureRandom().nextBytes(seed);
+        return seed;
+    }
+
+    // PBKDF2 sul seed: stessa derivazione per tutte le chiavi basate su seed (alias solo per i log)
+    static SecretKey deriveAesKeyFromSeed(byte[] seedBytes, String seedKey) throws GeneralSecurityException {
         char[] password = Base64.encodeToString(seedBytes, Base64.DEFAULT).toCharArray();
 
         try {
@@ -88,11 +100,6 @@ public class SecurityUtils {
         return getOrCreateAesKeyFromPBKDF2(context, KEY_PIN_SECRET_SEED);
     }
 
-    //metodi public per accedere a getOrCreateAesKeyFromPBKDF2
-    public static SecretKey getOrCreateNotesAndFilesAesKey(Context context) throws GeneralSecurityException {
-        return getOrCreateAesKeyFromPBKDF2(context, KEY_NOTE_SECRET_SEED);
-    }
-
     // Generatore Initialization Vector
     public static byte[] generateRandomIv() throws NoSuchAlgorithmException {
         SecureRandom secureRandom = new SecureRandom();
@@ -0,0 +1,108 @@
+package com.example.securenotes.security;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+// Formato a segmenti dei file dell'archivio (PayloadCodec.VERSION_SEGMENTED):
+//   'S' 'N' 'X' 3 || dimensione segmento (4 byte) || prefisso nonce (7 byte) || segmento 0 || ... || segmento n-1
+// Ogni segmento contiene SEGMENT_SIZE byte in chiaro (l'ultimo anche meno) cifrati con AES-GCM come messaggio a sé:
+//   nonce = prefisso (7) || indice del segmento (4) || 1 se è l'ultimo, altrimenti 0 (1)
+//   AAD   = intestazione del file
+// Un segmento si decifra senza leggere gli altri (accesso casuale, decifratura in parallelo) e la corruzione
+// emerge al primo segmento alterato. Indice e flag nel nonce impediscono di riordinare o troncare i segmenti.
+public final class SegmentedAead {
+
+    public static final int SEGMENT_SIZE = 64 * 1024;
+    static final int MAX_SEGMENT_SIZE = 4 * 1024 * 1024;
+    static final int NONCE_PREFIX_SIZE = AeadCodec.IV_SIZE_BYTES - 5;
+    public static final int HEADER_SIZE = PayloadCodec.HEADER_SIZE + 4 + NONCE_PREFIX_SIZE;
+    public static final int TAG_SIZE = AeadCodec.TAG_SIZE_BYTES;
+
+    private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+    // Buffer diretti del thread corrente per i cicli su FileChannel: [0] e [1] testo in chiaro, [2] segmento cifrato
+    private static final ThreadLocal<ByteBuffer[]> DIRECT_SCRATCH = new ThreadLocal<>();
+
+    private SegmentedAead() {
+    }
+
+    static byte[] newHeader(int segmentSize) {
+        byte[] header = new byte[HEADER_SIZE];
+        System.arraycopy(PayloadCodec.header(PayloadCodec.VERSION_SEGMENTED), 0, header, 0, PayloadCodec.HEADER_SIZE);
+        writeInt(header, PayloadCodec.HEADER_SIZE, segmentSize);
+        byte[] prefix = new byte[NONCE_PREFIX_SIZE];
+        SECURE_RANDOM.nextBytes(prefix);
+        System.arraycopy(prefix, 0, header, PayloadCodec.HEADER_SIZE + 4, NONCE_PREFIX_SIZE);
+        return header;
+    }
+
+    // true se i primi byte del file sono un'intestazione a segmenti (anche per un file vuoto: intestazione + un tag)
+    public static boolean isSegmented(byte[] head, int length) {
+        return length >= HEADER_SIZE + TAG_SIZE
+                && head[0] == PayloadCodec.MAGIC[0] && head[1] == PayloadCodec.MAGIC[1] && head[2] == PayloadCodec.MAGIC[2]
+                && head[3] == PayloadCodec.VERSION_SEGMENTED;
+    }
+
+    static int segmentSizeOf(byte[] header) throws GeneralSecurityException {
+        int segmentSize = readInt(header, PayloadCodec.HEADER_SIZE);
+        if (segmentSize <= 0 || segmentSize > MAX_SEGMENT_SIZE) {
+            throw new GeneralSecurityException("Dimensione del segmento non valida: " + segmentSize);
+        }
+        return segmentSize;
+    }
+
+    // allocateDirect costa più di un segmento piccolo: i buffer si riusano tra un file e l'altro.
+    // Segmenti più grandi di SEGMENT_SIZE (solo file scritti con altre impostazioni) non restano agganciati al thread.
+    static ByteBuffer[] directScratch(int segmentSize) {
+        ByteBuffer[] buffers = DIRECT_SCRATCH.get();
+        if (buffers != null && buffers[0].capacity() >= segmentSize) {
+            for (ByteBuffer buffer : buffers) {
+                buffer.clear();
+            }
+            buffers[0].limit(segmentSize);
+            buffers[1].limit(segmentSize);
+            buffers[2].limit(segmentSize + TAG_SIZE);
+            return buffers;
+        }
+        buffers = new ByteBuffer[]{
+                ByteBuffer.allocateDirect(segmentSize),
+                ByteBuffer.allocateDirect(segmentSize),
+                ByteBuffer.allocateDirect(segmentSize + TAG_SIZE)
+        };
+        if (segmentSize <= SEGMENT_SIZE) {
+            DIRECT_SCRATCH.set(buffers);
+        }
+        return buffers;
+    }
+
+    // Sovrascrive il testo in chiaro rimasto in un buffer diretto (Arrays.fill non si applica)
+    static void wipe(ByteBuffer buffer) {
+        buffer.clear();
+        while (buffer.remaining() >= 8) {
+            buffer.putLong(0L);
+        }
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) 0);
+        }
+        buffer.clear();
+    }
+
+    // Scrive in nonce (12 byte) il nonce del segmento indicato
+    static void nonce(byte[] header, int segmentIndex, boolean lastSegment, byte[] nonce) {
+        System.arraycopy(header, PayloadCodec.HEADER_SIZE + 4, nonce, 0, NONCE_PREFIX_SIZE);
+        writeInt(nonce, NONCE_PREFIX_SIZE, segmentIndex);
+        nonce[AeadCodec.IV_SIZE_BYTES - 1] = (byte) (lastSegment ? 1 : 0);
+    }
+
+    private static void writeInt(byte[] target, int offset, int value) {
+        target[offset] = (byte) (value >>> 24);
+        target[offset + 1] = (byte) (value >>> 16);
+        target[offset + 2] = (byte) (value >>> 8);
+        target[offset + 3] = (byte) value;
+    }
+
+    private static int readInt(byte[] source, int offset) {
+        return ((source[offset] & 0xFF) << 24) | ((source[offset + 1] & 0xFF) << 16)
+                | ((source[offset + 2] & 0xFF) << 8) | (source[offset + 3] & 0xFF);
+    }
+}
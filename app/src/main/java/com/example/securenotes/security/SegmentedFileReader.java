@@ -0,0 +1,188 @@
+package com.example.securenotes.security;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.SecretKey;
+
+// Lettura ad accesso casuale di un file nel formato a segmenti (vedi SegmentedAead).
+// readSegment usa letture posizionali e il Cipher del thread corrente: più thread possono decifrare segmenti diversi
+// in parallelo. read(position, ...) tiene in cache l'ultimo segmento decifrato per le letture sequenziali a piccoli blocchi
+// e passa da DecryptedSegmentCache, condivisa tra le aperture dello stesso file.
+public class SegmentedFileReader implements Closeable {
+
+    private final FileChannel channel;
+    private final SecretKey key;
+    private final DecryptedSegmentCache segmentCache;
+    private final String cacheId;               //identità del file in DecryptedSegmentCache
+    private final byte[] header = new byte[SegmentedAead.HEADER_SIZE];
+    private final int segmentSize;
+    private final int segmentCount;
+    private final long plaintextSize;
+    private final ThreadLocal<byte[]> sealedScratch = new ThreadLocal<>();
+    private final ThreadLocal<byte[]> nonceScratch = new ThreadLocal<>();
+
+    // Ultimo segmento decifrato da read(): protetto da this
+    private byte[] cachedSegment;
+    private int cachedIndex = -1;
+    private int cachedLength;
+
+    public SegmentedFileReader(File file, SecretKey key) throws IOException, GeneralSecurityException {
+        this(file, key, DecryptedSegmentCache.getInstance());
+    }
+
+    SegmentedFileReader(File file, SecretKey key, DecryptedSegmentCache segmentCache) throws IOException, GeneralSecurityException {
+        this.channel = new RandomAccessFile(file, "r").getChannel();
+        this.key = key;
+        this.segmentCache = segmentCache;
+        this.cacheId = file.getAbsolutePath();
+        try {
+            if (readFully(ByteBuffer.wrap(header), 0) != header.length || !SegmentedAead.isSegmented(header, header.length + SegmentedAead.TAG_SIZE)) {
+                throw new GeneralSecurityException("Intestazione a segmenti non valida");
+            }
+            segmentSize = SegmentedAead.segmentSizeOf(header);
+            long body = channel.size() - SegmentedAead.HEADER_SIZE;
+            long sealedSegmentSize = (long) segmentSize + SegmentedAead.TAG_SIZE;
+            if (body < SegmentedAead.TAG_SIZE) {
+                throw new GeneralSecurityException("File a segmenti troncato");
+            }
+            long count = (body + sealedSegmentSize - 1) / sealedSegmentSize;
+            long lastSealed = body - (count - 1) * sealedSegmentSize;
+            if (lastSealed < SegmentedAead.TAG_SIZE || count > Integer.MAX_VALUE) {
+                throw new GeneralSecurityException("File a segmenti troncato");
+            }
+            segmentCount = (int) count;
+            plaintextSize = (count - 1) * segmentSize + lastSealed - SegmentedAead.TAG_SIZE;
+        } catch (IOException | GeneralSecurityException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public long size() {
+        return plaintextSize;
+    }
+
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    // Decifra e autentica il segmento indicato in out (almeno getSegmentSize() byte); restituisce i byte in chiaro
+    public int readSegment(int index, byte[] out) throws IOException, GeneralSecurityException {
+        if (index < 0 || index >= segmentCount) {
+            throw new IOException("Segmento fuori intervallo: " + index);
+        }
+        long sealedSegmentSize = (long) segmentSize + SegmentedAead.TAG_SIZE;
+        long position = SegmentedAead.HEADER_SIZE + index * sealedSegmentSize;
+        int sealedLength = (int) Math.min(sealedSegmentSize, channel.size() - position);
+
+        byte[] sealed = sealedScratch.get();
+        if (sealed == null || sealed.length < sealedSegmentSize) {
+            sealed = new byte[(int) sealedSegmentSize];
+            sealedScratch.set(sealed);
+        }
+        if (readFully(ByteBuffer.wrap(sealed, 0, sealedLength), position) != sealedLength) {
+            throw new IOException("Segmento " + index + " incompleto");
+        }
+        byte[] nonce = nonceScratch.get();
+        if (nonce == null) {
+            nonce = new byte[AeadCodec.IV_SIZE_BYTES];
+            nonceScratch.set(nonce);
+        }
+        SegmentedAead.nonce(header, index, index == segmentCount - 1, nonce);
+        return AeadCodec.openSegment(key, nonce, header, sealed, 0, sealedLength, out, 0);
+    }
+
+    // Legge len byte in chiaro a partire da position; restituisce -1 oltre la fine del file
+    public synchronized int read(long position, byte[] dst, int off, int len) throws IOException, GeneralSecurityException {
+        if (position >= plaintextSize) {
+            return -1;
+        }
+        if (cachedSegment == null) {
+            cachedSegment = new byte[segmentSize];
+        }
+        int total = 0;
+        while (total < len && position < plaintextSize) {
+            int index = (int) (position / segmentSize);
+            if (index != cachedIndex) {
+                cachedIndex = -1;               //se la decifratura fallisce la cache resta vuota
+                cachedLength = segmentCache.get(cacheId, header, index, cachedSegment);
+                if (cachedLength < 0) {
+                    cachedLength = readSegment(index, cachedSegment);
+                    segmentCache.put(cacheId, header, index, cachedSegment, cachedLength);
+                }
+                cachedIndex = index;
+            }
+            int inSegment = (int) (position - (long) index * segmentSize);
+            int n = Math.min(len - total, cachedLength - inSegment);
+            System.arraycopy(cachedSegment, inSegment, dst, off + total, n);
+            total += n;
+            position += n;
+        }
+        return total;
+    }
+
+    // Decifra tutto il file in ordine: ogni segmento viene scritto solo dopo averne verificato il tag.
+    // Lettura e decifratura passano dai buffer diretti del thread (SegmentedAead.directScratch).
+    public void decryptTo(WritableByteChannel out) throws IOException, GeneralSecurityException {
+        ByteBuffer[] scratch = SegmentedAead.directScratch(segmentSize);
+        ByteBuffer segment = scratch[0];
+        ByteBuffer sealed = scratch[2];
+        byte[] nonce = new byte[AeadCodec.IV_SIZE_BYTES];
+        long position = SegmentedAead.HEADER_SIZE;
+        try {
+            for (int index = 0; index < segmentCount; index++) {
+                sealed.clear().limit(segmentSize + SegmentedAead.TAG_SIZE);
+                if (index == segmentCount - 1) {
+                    sealed.limit((int) (channel.size() - position));
+                }
+                int sealedLength = readFully(sealed, position);
+                if (sealedLength != sealed.limit()) {
+                    throw new IOException("Segmento " + index + " incompleto");
+                }
+                sealed.flip();
+                position += sealedLength;
+
+                SegmentedAead.nonce(header, index, index == segmentCount - 1, nonce);
+                segment.clear().limit(segmentSize);
+                AeadCodec.openSegment(key, nonce, header, sealed, segment);
+                segment.flip();
+                SegmentedFileWriter.writeFully(out, segment);
+            }
+        } finally {
+            SegmentedAead.wipe(segment);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (cachedSegment != null) {
+            Arrays.fill(cachedSegment, (byte) 0);
+            cachedIndex = -1;
+        }
+        channel.close();
+    }
+
+    private int readFully(ByteBuffer target, long position) throws IOException {
+        int total = 0;
+        while (target.hasRemaining()) {
+            int read = channel.read(target, position + total);
+            if (read == -1) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.securenotes.security;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.SecretKey;
+
+// Cifra un canale nel formato a segmenti (vedi SegmentedAead). Testo in chiaro e segmento cifrato vivono in buffer
+// diretti del thread, riusati per tutto il file e tra un file e l'altro: nessuna allocazione per segmento.
+// Il segmento successivo viene letto prima di cifrare quello corrente, così si sa sempre quale segmento è l'ultimo.
+public class SegmentedFileWriter {
+
+    private final SecretKey key;
+    private final int segmentSize;
+
+    public SegmentedFileWriter(SecretKey key) {
+        this(key, SegmentedAead.SEGMENT_SIZE);
+    }
+
+    SegmentedFileWriter(SecretKey key, int segmentSize) {
+        this.key = key;
+        this.segmentSize = segmentSize;
+    }
+
+    // Legge in fino alla fine e scrive il file cifrato in out; restituisce i byte in chiaro letti. Non chiude i canali.
+    public long encrypt(ReadableByteChannel in, WritableByteChannel out) throws IOException, GeneralSecurityException {
+        byte[] header = SegmentedAead.newHeader(segmentSize);
+        byte[] nonce = new byte[AeadCodec.IV_SIZE_BYTES];
+        ByteBuffer[] scratch = SegmentedAead.directScratch(segmentSize);
+        ByteBuffer current = scratch[0];
+        ByteBuffer next = scratch[1];
+        ByteBuffer sealed = scratch[2];
+
+        long total = 0;
+        try {
+            writeFully(out, ByteBuffer.wrap(header));
+            fill(in, current);
+            int segmentIndex = 0;
+            boolean lastSegment;
+            do {
+                // con il segmento pieno si guarda avanti: se non arriva altro, quello corrente è l'ultimo
+                lastSegment = current.hasRemaining() || fill(in, next) == 0;
+                current.flip();
+                total += current.remaining();
+
+                SegmentedAead.nonce(header, segmentIndex, lastSegment, nonce);
+                sealed.clear().limit(segmentSize + SegmentedAead.TAG_SIZE);
+                AeadCodec.sealSegment(key, nonce, header, current, sealed);
+                sealed.flip();
+                writeFully(out, sealed);
+
+                ByteBuffer swap = current;           //il segmento già letto diventa quello corrente
+                current = next;
+                next = swap;
+                next.clear().limit(segmentSize);
+                segmentIndex++;
+            } while (!lastSegment);
+        } finally {
+            SegmentedAead.wipe(current);
+            SegmentedAead.wipe(next);
+        }
+        return total;
+    }
+
+    // Riempie target finché c'è spazio o il canale finisce; restituisce i byte letti
+    static int fill(ReadableByteChannel in, ByteBuffer target) throws IOException {
+        int total = 0;
+        while (target.hasRemaining()) {
+            int read = in.read(target);
+            if (read == -1) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    static void writeFully(WritableByteChannel out, ByteBuffer source) throws IOException {
+        while (source.hasRemaining()) {
+            out.write(source);
+        }
+    }
+}
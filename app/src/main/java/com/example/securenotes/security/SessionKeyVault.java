@@ -0,0 +1,171 @@
+package com.example.securenotes.security;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+// Vault delle chiavi per la sessione sbloccata: la derivazione PBKDF2 avviene una sola volta dopo il login
+// e la stessa SecretKey viene condivisa da tutti i repository. Al logout le chiavi vengono scartate.
+// Il vault parte bloccato e lo sblocca solo il login (unlockAsync): da bloccato nessun percorso, nemmeno in
+// background (receiver, indicizzazioni, provider), può ricaricare la DEK.
+public class SessionKeyVault {
+
+    private static final String TAG = "SessionKeyVault";
+
+    private static volatile SessionKeyVault INSTANCE;
+
+    private final Executor unlockExecutor = Executors.newSingleThreadExecutor();
+
+    private volatile SecretKey notesAndFilesKey;
+    private volatile SecretKey searchIndexKey;
+    private volatile SecretKey chunkDigestKey;
+    private volatile boolean locked = true;             //impostato da wipe(), tolto solo dal login
+
+    private static final String SEARCH_KEY_LABEL = "securenotes-search-index-v1";
+    private static final String CHUNK_DIGEST_KEY_LABEL = "securenotes-chunk-digest-v1";
+
+    // Contatori per verificare che il KDF sia uscito dal percorso critico
+    private final AtomicLong derivationCount = new AtomicLong();
+    private final AtomicLong cacheHitCount = new AtomicLong();
+
+    private SessionKeyVault() {
+    }
+
+    public static SessionKeyVault getInstance() {
+        if (INSTANCE == null) {
+            synchronized (SessionKeyVault.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new SessionKeyVault();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    // Chiave AES per note e file (la DEK di VaultKeyStore): sbloccata al primo utilizzo della sessione, poi servita dalla memoria
+    public SecretKey getNotesAndFilesKey(Context context) throws GeneralSecurityException {
+        SecretKey key = notesAndFilesKey;
+        if (key != null) {
+            cacheHitCount.incrementAndGet();
+            return key;
+        }
+        synchronized (this) {
+            if (locked) {
+                throw new GeneralSecurityException("Vault bloccato: serve un nuovo login.");
+            }
+            if (notesAndFilesKey == null) {             //un solo thread esegue PBKDF2, gli altri attendono il risultato
+                long start = System.nanoTime();
+                notesAndFilesKey = VaultKeyStore.loadOrCreateDataEncryptionKey(context.getApplicationContext());
+                derivationCount.incrementAndGet();
+                Log.d(TAG, "Chiave note/file derivata in " + (System.nanoTime() - start) / 1_000_000 + " ms.");
+            } else {
+                cacheHitCount.incrementAndGet();
+            }
+            return notesAndFilesKey;
+        }
+    }
+
+    // Chiave HMAC dell'indice di ricerca, derivata dalla chiave delle note con un'etichetta dedicata:
+    // i token dell'indice non sono riutilizzabili come materiale di cifratura
+    public SecretKey getSearchIndexKey(Context context) throws GeneralSecurityException {
+        SecretKey key = searchIndexKey;
+        if (key != null) {
+            return key;
+        }
+        SecretKey derived = deriveLabeledKey(context, SEARCH_KEY_LABEL);
+        synchronized (this) {
+            if (searchIndexKey == null) {
+                searchIndexKey = derived;
+            }
+            return searchIndexKey;
+        }
+    }
+
+    // Chiave HMAC per le impronte dei blocchi delle note lunghe
+    public SecretKey getChunkDigestKey(Context context) throws GeneralSecurityException {
+        SecretKey key = chunkDigestKey;
+        if (key != null) {
+            return key;
+        }
+        SecretKey derived = deriveLabeledKey(context, CHUNK_DIGEST_KEY_LABEL);
+        synchronized (this) {
+            if (chunkDigestKey == null) {
+                chunkDigestKey = derived;
+            }
+            return chunkDigestKey;
+        }
+    }
+
+    private SecretKey deriveLabeledKey(Context context, String label) throws GeneralSecurityException {
+        SecretKey notesKey = getNotesAndFilesKey(context);
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(notesKey.getEncoded(), "HmacSHA256"));
+        return new SecretKeySpec(mac.doFinal(label.getBytes(StandardCharsets.UTF_8)), "HmacSHA256");
+    }
+
+    // Solo dal login: sblocca il vault e deriva le chiavi in background, così il primo accesso ai dati non attende PBKDF2
+    public void unlockAsync(Context context) {
+        Context appContext = context.getApplicationContext();
+        synchronized (this) {
+            locked = false;
+        }
+        unlockExecutor.execute(() -> {
+            try {
+                getNotesAndFilesKey(appContext);
+            } catch (GeneralSecurityException e) {
+                Log.e(TAG, "Derivazione anticipata della chiave fallita.", e);
+            }
+        });
+    }
+
+    // Cambio PIN: ricifra solo la DEK con una nuova KEK del Keystore, note e file non vengono riscritti.
+    // Bloccante (Keystore): fuori dal main thread. Con il vault bloccato fallisce come getNotesAndFilesKey.
+    public void rotateKeyEncryptionKey(Context context) throws GeneralSecurityException {
+        Context appContext = context.getApplicationContext();
+        long start = System.nanoTime();
+        VaultKeyStore.rotateKeyEncryptionKey(appContext, getNotesAndFilesKey(appContext));
+        Log.d(TAG, "Rotazione della KEK completata in " + (System.nanoTime() - start) / 1_000_000 + " ms.");
+    }
+
+    // Wipe completo: distrugge DEK e KEK, poi svuota la memoria
+    public void destroyKeys(Context context) {
+        if (!VaultKeyStore.destroy(context.getApplicationContext())) {
+            Log.e(TAG, "Impossibile eliminare le chiavi del vault.");
+        }
+        wipe();
+    }
+
+    // Chiamato dal logout: le chiavi derivate non sopravvivono alla sessione e non vengono ricaricate fino al login
+    public synchronized void wipe() {
+        locked = true;
+        notesAndFilesKey = null;
+        searchIndexKey = null;
+        chunkDigestKey = null;
+        Log.d(TAG, "Vault svuotato. Derivazioni: " + derivationCount.get() + ", cache hit: " + cacheHitCount.get());
+    }
+
+    public boolean isUnlocked() {
+        return notesAndFilesKey != null;
+    }
+
+    public boolean isLocked() {
+        return locked;
+    }
+
+    public long getDerivationCount() {
+        return derivationCount.get();
+    }
+
+    public long getCacheHitCount() {
+        return cacheHitCount.get();
+    }
+}
@@ -23,14 +23,21 @@ import androidx.annotation.Nullable;
 import com.example.securenotes.ui.login.LoginActivity;
 import com.example.securenotes.utils.Constants;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 
 public class SessionManager implements Application.ActivityLifecycleCallbacks {
 
     private static final String TAG = "SessionManager";
     private Application application;
     private Runnable logoutRunnable;
+    private Runnable sessionExpiredRunnable;
     private Handler handler;
 
+    // Componenti che tengono dati in chiaro in memoria e devono svuotarsi al logout (es. cache note decriptate)
+    private final List<Runnable> logoutListeners = new CopyOnWriteArrayList<>();
+
     private long inactivityTimeoutMillis; // Timeout per l'inattività complessiva
 
     private static final String PREFS_NAME = "app_settings";
@@ -43,6 +50,7 @@ public class SessionManager implements Application.ActivityLifecycleCallbacks {
     public SessionManager(Application application, Runnable logoutRunnable) {
         this.application = application;
         this.logoutRunnable = logoutRunnable;
+        this.sessionExpiredRunnable = this::onSessionExpired;
         this.handler = new Handler(Looper.getMainLooper());                     //loop del ciclo dell main thread
         this.application.registerActivityLifecycleCallbacks(this);
 
@@ -56,17 +64,40 @@ public class SessionManager implements Application.ActivityLifecycleCallbacks {
 
     private void startLogoutTimer() {           // Avvia il timer di logout.
         stopLogoutTimer();
-        handler.postDelayed(logoutRunnable, inactivityTimeoutMillis);                   //handler esegue logoutRunnable solo dopo inactivityTimeoutMillis
+        handler.postDelayed(sessionExpiredRunnable, inactivityTimeoutMillis);           //handler esegue logoutRunnable solo dopo inactivityTimeoutMillis
         Log.d(TAG, "Timer di logout avviato per " + inactivityTimeoutMillis + " ms (inattività complessiva).");
     }
 
 
     private void stopLogoutTimer() {          // Ferma il timer di logout
-        handler.removeCallbacks(logoutRunnable);
+        handler.removeCallbacks(sessionExpiredRunnable);
         Log.d(TAG, "Timer di logout fermato.");
     }
 
 
+    // Registra un listener eseguito (sul main thread) prima del logoutRunnable
+    public void addLogoutListener(Runnable listener) {
+        logoutListeners.add(listener);
+    }
+
+    public void removeLogoutListener(Runnable listener) {
+        logoutListeners.remove(listener);
+    }
+
+    private void onSessionExpired() {
+        Log.d(TAG, "Sessione scaduta: notifico " + logoutListeners.size() + " listener.");
+        for (Runnable listener : logoutListeners) {
+            listener.run();
+        }
+        logoutRunnable.run();
+    }
+
+    // Logout immediato (es. dopo il wipe completo); va chiamato sul main thread
+    public void logoutNow() {
+        stopLogoutTimer();
+        onSessionExpired();
+    }
+
     public void resetLogoutTimer() {        // Resetta il timer (chiamato ad ogni attività dell'utente o ripresa di Activity)
         Log.d(TAG, "Timer di logout resettato.");
         startLogoutTimer();
@@ -155,6 +186,12 @@ public class SessionManager implements Application.ActivityLifecycleCallbacks {
         // Resetta il timer di inattività ogni volta che un'Activity di contenuto riprende
 
         if (!activity.getClass().getSimpleName().equals("LoginActivity")) {
+            if (SessionKeyVault.getInstance().isLocked()) {
+                // Activity ripristinata senza login (es. processo ricreato): il vault non si sblocca da solo
+                Log.d(TAG, "Vault bloccato in " + activity.getClass().getSimpleName() + ": torno al login.");
+                logoutNow();
+                return;
+            }
             resetLogoutTimer(); // Resetta il timer di inattività (foreground o background)
         }
     }
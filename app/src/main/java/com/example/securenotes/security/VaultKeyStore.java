@@ -0,0 +1,98 @@
+package com.example.securenotes.security;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Base64;
+import android.util.Log;
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.SecretKey;
+
+// Gerarchia delle chiavi del vault (envelope encryption):
+//   KEK (key-encryption key, nell'Android Keystore, vedi KeystoreKek) -> cifra la DEK
+//   DEK (data-encryption key, stabile) -> cifra le chiavi dati di note e file (vedi DataKeys) e le righe legacy
+// Cambiare la KEK richiede solo di ricifrare i 32 byte della DEK: note e file non vengono toccati.
+// Nelle SharedPreferences: alias della KEK e DEK cifrata, sempre scritti insieme in un unico commit.
+// La KEK non esce dal dispositivo: preferenze copiate o ripristinate da un backup altrove non bastano a ricavare la DEK
+// (di contro un ripristino su un altro dispositivo non recupera note e file).
+// Ogni cambio PIN ruota la KEK ed elimina la precedente, così anche le copie vecchie della DEK cifrata diventano inutili.
+final class VaultKeyStore {
+
+    private static final String TAG = "VaultKeyStore";
+
+    private static final String KEY_KEK_ALIAS = "vault_kek_alias";
+    private static final String KEY_WRAPPED_DEK = "vault_wrapped_dek";
+    // Versione precedente: KEK derivata da un seed salvato accanto alla DEK cifrata. Letto solo per migrare.
+    private static final String KEY_KEK_SEED = "vault_kek_seed";
+
+    private VaultKeyStore() {
+    }
+
+    // Carica la DEK; al primo avvio la crea. Usa Keystore o PBKDF2: va chiamato una volta per sessione (SessionKeyVault)
+    static synchronized SecretKey loadOrCreateDataEncryptionKey(Context context) throws GeneralSecurityException {
+        SharedPreferences prefs = SecurityUtils.getStandardSharedPreferences(context);
+        String kekAlias = prefs.getString(KEY_KEK_ALIAS, null);
+        String wrappedDek = prefs.getString(KEY_WRAPPED_DEK, null);
+        if (kekAlias != null && wrappedDek != null) {
+            SecretKey dek = KeystoreKek.unwrap(Base64.decode(wrappedDek, Base64.DEFAULT), kekAlias);
+            KeystoreKek.deleteAllExcept(kekAlias);              //KEK orfane di una rotazione interrotta
+            return dek;
+        }
+
+        String kekSeed = prefs.getString(KEY_KEK_SEED, null);
+        if (kekSeed != null && wrappedDek != null) {
+            // DEK cifrata con la KEK derivata dal seed: la stessa DEK passa sotto una KEK del Keystore
+            SecretKey seedKek = SecurityUtils.deriveAesKeyFromSeed(Base64.decode(kekSeed, Base64.DEFAULT), KEY_KEK_SEED);
+            SecretKey dek = DataKeys.unwrap(Base64.decode(wrappedDek, Base64.DEFAULT), seedKek);
+            storeWrapped(prefs, dek);
+            Log.d(TAG, "KEK migrata nel Keystore.");
+            return dek;
+        }
+
+        // Prima installazione della gerarchia: se esiste la chiave note/file precedente diventa la DEK,
+        // così tutto ciò che è già cifrato resta leggibile senza ricifrare nulla
+        String legacySeed = prefs.getString(SecurityUtils.KEY_NOTE_SECRET_SEED, null);
+        SecretKey dek = legacySeed != null
+                ? SecurityUtils.deriveAesKeyFromSeed(Base64.decode(legacySeed, Base64.DEFAULT), SecurityUtils.KEY_NOTE_SECRET_SEED)
+                : DataKeys.generate();
+        storeWrapped(prefs, dek);
+        Log.d(TAG, "Gerarchia delle chiavi creata" + (legacySeed != null ? " dalla chiave note/file esistente." : "."));
+        return dek;
+    }
+
+    // Nuova KEK per la stessa DEK: la vecchia KEK viene eliminata dal Keystore solo dopo il commit della nuova
+    static synchronized void rotateKeyEncryptionKey(Context context, SecretKey dek) throws GeneralSecurityException {
+        storeWrapped(SecurityUtils.getStandardSharedPreferences(context), dek);
+        Log.d(TAG, "KEK ruotata.");
+    }
+
+    // Senza DEK cifrata e KEK nessuna chiave dati è più decifrabile. La prossima sessione ne crea una nuova.
+    static synchronized boolean destroy(Context context) {
+        boolean removed = SecurityUtils.getStandardSharedPreferences(context).edit()
+                .remove(KEY_KEK_ALIAS)
+                .remove(KEY_WRAPPED_DEK)
+                .remove(KEY_KEK_SEED)
+                .remove(SecurityUtils.KEY_NOTE_SECRET_SEED)
+                .commit();
+        KeystoreKek.deleteAllExcept(null);
+        return removed;
+    }
+
+    private static void storeWrapped(SharedPreferences prefs, SecretKey dek) throws GeneralSecurityException {
+        String previousAlias = prefs.getString(KEY_KEK_ALIAS, null);
+        String alias = KeystoreKek.create();
+        byte[] wrappedDek = KeystoreKek.wrap(dek, alias);
+        boolean saved = prefs.edit()
+                .putString(KEY_KEK_ALIAS, alias)
+                .putString(KEY_WRAPPED_DEK, Base64.encodeToString(wrappedDek, Base64.DEFAULT))
+                .remove(KEY_KEK_SEED)                                       //i seed permetterebbero di ricavare la DEK
+                .remove(SecurityUtils.KEY_NOTE_SECRET_SEED)
+                .commit();              //alias e DEK cifrata cambiano insieme o per niente
+        if (!saved) {
+            KeystoreKek.deleteAllExcept(previousAlias);                 //resta valida la coppia precedente
+            throw new GeneralSecurityException("Impossibile salvare la DEK cifrata.");
+        }
+        KeystoreKek.deleteAllExcept(alias);
+    }
+}
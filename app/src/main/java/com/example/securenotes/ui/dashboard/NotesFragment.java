@@ -20,9 +20,8 @@ import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
-import androidx.lifecycle.LiveData;
-import androidx.lifecycle.Observer;
 import androidx.lifecycle.ViewModelProvider;
+import androidx.paging.PagingData;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
@@ -31,13 +30,13 @@ import com.google.android.material.snackbar.Snackbar;
 
 import com.example.securenotes.R;
 import com.example.securenotes.data.model.Note;
+import com.example.securenotes.data.model.NoteSummary;
 import com.example.securenotes.ui.dashboard.adapter.NoteAdapter;
 import com.example.securenotes.ui.dashboard.viewmodel.NoteViewModel;
 import com.example.securenotes.ui.noteeditor.NoteEditorActivity;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
 
 
 public class NotesFragment extends Fragment {
@@ -48,7 +47,8 @@ public class NotesFragment extends Fragment {
     private FloatingActionButton addNoteFab;
     private EditText searchNotesEditText;
 
-    private LiveData<List<Note>> currentSearchLiveData;
+    private PagingData<NoteSummary> latestPagedNotes;          //ultima generazione di pagine, ripristinata quando la ricerca viene svuotata
+    private boolean isSearchActive = false;
 
     // Launcher for requesting SCHEDULE_EXACT_ALARM permission
     private ActivityResultLauncher<Intent> requestScheduleExactAlarmPermissionLauncher;
@@ -91,17 +91,12 @@ public class NotesFragment extends Fragment {
 
         noteViewModel = new ViewModelProvider(this).get(NoteViewModel.class);
         performExpiredNotesCleanup();
-        noteViewModel.getAllNotes().observe(getViewLifecycleOwner(), new Observer<List<Note>>() {
-            @Override
-            public void onChanged(List<Note> notes) {
-                Log.d(TAG, "Note caricate nell'Observer. Numero di note: " + notes.size());
-                for (Note note : notes) {
-                    Log.d(TAG, "Nota ID: " + note.getId() +
-                            ", Titolo: " + note.getTitle() +
-                            ", Autodistruzione: " + note.getSelfDestructTimestamp() +
-                            ", Tags: " + note.getTags());
-                }
-                adapter.setNotes(notes);
+        // Lista paginata: mostrata solo quando non c'è una ricerca attiva
+        noteViewModel.getPagedNotes().observe(getViewLifecycleOwner(), pagingData -> {
+            latestPagedNotes = pagingData;
+            if (!isSearchActive) {
+                Log.d(TAG, "Nuova generazione di pagine ricevuta dall'Observer.");
+                adapter.submitData(getViewLifecycleOwner().getLifecycle(), pagingData);
             }
         });
 
@@ -113,26 +108,22 @@ public class NotesFragment extends Fragment {
 
         adapter.setOnItemClickListener(new NoteAdapter.OnItemClickListener() {              //se premi la nota ti porta in edit
             @Override
-            public void onItemClick(Note note) {
+            public void onItemClick(NoteSummary summary) {
+                // Solo l'id: l'editor legge e decripta la nota in background
                 Intent intent = new Intent(getContext(), NoteEditorActivity.class);
-                intent.putExtra(NoteEditorActivity.EXTRA_NOTE_ID, note.getId());
-                intent.putExtra(NoteEditorActivity.EXTRA_NOTE_TITLE, note.getTitle());
-                intent.putExtra(NoteEditorActivity.EXTRA_NOTE_CONTENT, note.getContent());
-                intent.putExtra(NoteEditorActivity.EXTRA_NOTE_TIMESTAMP, note.getTimestamp());
-                intent.putExtra(NoteEditorActivity.EXTRA_NOTE_SELF_DESTRUCT_TIMESTAMP, note.getSelfDestructTimestamp());
-                intent.putExtra(NoteEditorActivity.EXTRA_NOTE_TAGS, note.getTags());
+                intent.putExtra(NoteEditorActivity.EXTRA_NOTE_ID, summary.getId());
                 startActivity(intent);
             }
         });
 
         adapter.setOnDeleteClickListener(new NoteAdapter.OnDeleteClickListener() {
             @Override
-            public void onDeleteClick(Note note) {
+            public void onDeleteClick(NoteSummary note) {
                 new android.app.AlertDialog.Builder(getContext())
                         .setTitle("Delete Note")
                         .setMessage("Are you sure you want to permanently delete this note?")
                         .setPositiveButton("Delete", (dialog, which) -> {
-                            noteViewModel.delete(note);
+                            noteViewModel.deleteById(note.getId());
                             Toast.makeText(getContext(), "Note delete: " + note.getTitle(), Toast.LENGTH_SHORT).show();
                         })
                         .setNegativeButton("Cancel", null)
@@ -140,6 +131,24 @@ public class NotesFragment extends Fragment {
             }
         });
 
+        // Un solo Observer per tutta la vita della view: i risultati arrivano già decriptati da un thread in background
+        noteViewModel.getSearchResults().observe(getViewLifecycleOwner(), notes -> {
+            if (notes == null) {                //nessuna ricerca: si torna alla lista paginata
+                isSearchActive = false;
+                if (latestPagedNotes != null) {
+                    adapter.submitData(getViewLifecycleOwner().getLifecycle(), latestPagedNotes);
+                }
+                return;
+            }
+            isSearchActive = true;
+            Log.d(TAG, "Note di ricerca caricate. Numero di note: " + notes.size());
+            List<NoteSummary> summaries = new ArrayList<>(notes.size());
+            for (Note note : notes) {
+                summaries.add(new NoteSummary(note));
+            }
+            adapter.submitData(getViewLifecycleOwner().getLifecycle(), PagingData.from(summaries));
+        });
+
         searchNotesEditText = view.findViewById(R.id.search_notes_edit_text);
         searchNotesEditText.addTextChangedListener(new TextWatcher() {
             @Override
@@ -147,51 +156,16 @@ public class NotesFragment extends Fragment {
 
             @Override
             public void onTextChanged(CharSequence s, int start, int before, int count) {
-                String query = s.toString();
-                if (currentSearchLiveData != null) {
-                    currentSearchLiveData.removeObservers(getViewLifecycleOwner());
-                }
-
-                if (query.isEmpty()) {
-                    currentSearchLiveData = noteViewModel.getAllNotes();
-                } else {
-                    currentSearchLiveData = noteViewModel.searchNotes(query);
-                }
-
-                currentSearchLiveData.observe(getViewLifecycleOwner(), new Observer<List<Note>>() {
-                    @Override
-                    public void onChanged(List<Note> notes) {
-                        Log.d(TAG, "Note di ricerca caricate. Numero di note: " + notes.size());
-                        adapter.setNotes(notes);
-                    }
-                });
+                noteViewModel.setSearchQuery(s.toString());            //debounce e annullamento sono nel ViewModel
             }
 
             @Override
             public void afterTextChanged(Editable s) {}
         });
 
-        currentSearchLiveData = noteViewModel.getAllNotes();
-        currentSearchLiveData.observe(getViewLifecycleOwner(), new Observer<List<Note>>() {
-            @Override
-            public void onChanged(List<Note> notes) {
-                Log.d(TAG, "Note iniziali caricate. Numero di note: " + notes.size());
-                adapter.setNotes(notes);
-            }
-        });
-
         return view;
     }
 
-    @Override
-    public void onDestroyView() {
-        super.onDestroyView();
-        if (currentSearchLiveData != null) {
-            currentSearchLiveData.removeObservers(getViewLifecycleOwner());
-        }
-    }
-
-
     private void checkAndStartNoteEditorActivity() {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) { // Android 12 (API 31) and above
             AlarmManager alarmManager = (AlarmManager) requireContext().getSystemService(Context.ALARM_SERVICE);
@@ -8,22 +8,43 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.paging.PagingDataAdapter;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.securenotes.R;
-import com.example.securenotes.data.model.Note;
+import com.example.securenotes.data.model.NoteSummary;
 
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Locale;
+import java.util.Objects;
 
-public class NoteAdapter extends RecyclerView.Adapter<NoteAdapter.NoteHolder> {         // Ogni NoteHolder contiene dei riferimenti diretti a tutte le View che compongono un singolo elemento della lista
+// Adapter paginato: riceve PagingData di NoteSummary (titolo, date, tag, anteprima) e fa il diff tra pagine sul thread di background
+public class NoteAdapter extends PagingDataAdapter<NoteSummary, NoteAdapter.NoteHolder> {         // Ogni NoteHolder contiene dei riferimenti diretti a tutte le View che compongono un singolo elemento della lista
+
+    private static final DiffUtil.ItemCallback<NoteSummary> DIFF_CALLBACK = new DiffUtil.ItemCallback<NoteSummary>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull NoteSummary oldItem, @NonNull NoteSummary newItem) {
+            return oldItem.getId() == newItem.getId();
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull NoteSummary oldItem, @NonNull NoteSummary newItem) {
+            return oldItem.getTimestamp() == newItem.getTimestamp()
+                    && oldItem.getSelfDestructTimestamp() == newItem.getSelfDestructTimestamp()
+                    && Objects.equals(oldItem.getTitle(), newItem.getTitle())
+                    && Objects.equals(oldItem.getPreview(), newItem.getPreview())
+                    && Objects.equals(oldItem.getTags(), newItem.getTags());
+        }
+    };
 
-    private List<Note> notes = new ArrayList<>();
     private OnItemClickListener itemClickListener;
     private OnDeleteClickListener deleteClickListener;
 
+    public NoteAdapter() {
+        super(DIFF_CALLBACK);
+    }
+
     @NonNull
     @Override
     public NoteHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {         //Viene chiamato quando la RecyclerView ha bisogno di creare una nuova View( mostrare un nuovo elemento)
@@ -34,9 +55,12 @@ public class NoteAdapter extends RecyclerView.Adapter<NoteAdapter.NoteHolder> {
 
     @Override
     public void onBindViewHolder(@NonNull NoteHolder holder, int position) {                //Viene chiamato dalla RecyclerView ogni volta che deve visualizzare o aggiornare i dati di un elemento in una specifica posizione della lista
-        Note currentNote = notes.get(position);
+        NoteSummary currentNote = getItem(position);
+        if (currentNote == null) {                  //segnaposto: pagina non ancora caricata
+            return;
+        }
         holder.textViewTitle.setText(currentNote.getTitle());
-        holder.textViewContentPreview.setText(currentNote.getContent());
+        holder.textViewContentPreview.setText(currentNote.getPreview());
 
         SimpleDateFormat sdf = new SimpleDateFormat("dd MMMM yyyy, HH:mm", Locale.getDefault());
         holder.textViewTimestamp.setText(sdf.format(new java.util.Date(currentNote.getTimestamp())));
@@ -55,18 +79,8 @@ public class NoteAdapter extends RecyclerView.Adapter<NoteAdapter.NoteHolder> {
 
     }
 
-    @Override
-    public int getItemCount() {
-        return notes.size();
-    }
-
-    public void setNotes(List<Note> notes) {
-        this.notes = notes;
-        notifyDataSetChanged();             //dice alla RecyclerView che i dati sono cambiati e che deve ridisegnare la lista
-    }
-
-    public Note getNoteAt(int position) {
-        return notes.get(position);
+    public NoteSummary getNoteAt(int position) {
+        return getItem(position);
     }
 
     class NoteHolder extends RecyclerView.ViewHolder {
@@ -90,8 +104,9 @@ public class NoteAdapter extends RecyclerView.Adapter<NoteAdapter.NoteHolder> {
                 @Override
                 public void onClick(View v) {
                     int position = getAdapterPosition();
-                    if (itemClickListener != null && position != RecyclerView.NO_POSITION) {
-                        itemClickListener.onItemClick(notes.get(position));
+                    NoteSummary note = position != RecyclerView.NO_POSITION ? getItem(position) : null;
+                    if (itemClickListener != null && note != null) {
+                        itemClickListener.onItemClick(note);
                     }
                 }
             });
@@ -100,8 +115,9 @@ public class NoteAdapter extends RecyclerView.Adapter<NoteAdapter.NoteHolder> {
                 @Override
                 public void onClick(View v) {
                     int position = getAdapterPosition();
-                    if (deleteClickListener != null && position != RecyclerView.NO_POSITION) {
-                        deleteClickListener.onDeleteClick(notes.get(position));
+                    NoteSummary note = position != RecyclerView.NO_POSITION ? getItem(position) : null;
+                    if (deleteClickListener != null && note != null) {
+                        deleteClickListener.onDeleteClick(note);
                     }
                 }
             });
@@ -109,7 +125,7 @@ public class NoteAdapter extends RecyclerView.Adapter<NoteAdapter.NoteHolder> {
     }
 
     public interface OnItemClickListener {
-        void onItemClick(Note note);
+        void onItemClick(NoteSummary note);
     }
 
     public void setOnItemClickListener(OnItemClickListener listener) {
@@ -117,7 +133,7 @@ public class NoteAdapter extends RecyclerView.Adapter<NoteAdapter.NoteHolder> {
     }
 
     public interface OnDeleteClickListener {
-        void onDeleteClick(Note note);
+        void onDeleteClick(NoteSummary note);
     }
 
     public void setOnDeleteClickListener(OnDeleteClickListener listener) {
@@ -1,31 +1,52 @@
 package com.example.securenotes.ui.dashboard.viewmodel;
 
 import android.app.Application;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.Transformations;
+import androidx.lifecycle.ViewModelKt;
+import androidx.paging.PagingData;
+import androidx.paging.PagingLiveData;
 
 import com.example.securenotes.data.model.Note;
+import com.example.securenotes.data.model.NoteSummary;
+import com.example.securenotes.data.model.TagCount;
 import com.example.securenotes.data.repository.NoteRepository;
+import com.example.securenotes.data.search.SearchMetrics;
 
 import java.util.List;
 
 public class NoteViewModel extends AndroidViewModel {
+    private static final String TAG = "NoteViewModel";
+    private static final long SEARCH_DEBOUNCE_MS = 250;         //sotto questa pausa tra due tasti la query non parte
+
     private NoteRepository repository;
-    private LiveData<List<Note>> allNotes;
-    private LiveData<List<Note>> filteredNotes; // Per gestire i filtri dei tag
+    private LiveData<PagingData<NoteSummary>> pagedNotes;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final MutableLiveData<String> searchQuery = new MutableLiveData<>("");
+    private final LiveData<List<Note>> searchResults;
+    private Runnable pendingQuery;
 
     public NoteViewModel(Application application) {
         super(application);
-        repository = new NoteRepository(application);
-        allNotes = repository.getAllDecryptedNotes();
-        // Inizialmente i filteredNotes sono uguali a allNotes
-        filteredNotes = allNotes;
+        repository = NoteRepository.getInstance(application);
+        // cachedIn: le pagine già decriptate sopravvivono alle rotazioni e non vengono ricaricate
+        pagedNotes = PagingLiveData.cachedIn(repository.getPagedNoteSummaries(), ViewModelKt.getViewModelScope(this));
+        // switchMap smette di osservare la query precedente: NoteSearchLiveData annulla query e decrittografia in corso
+        // Query vuota = null: la UI torna alla lista paginata
+        searchResults = Transformations.switchMap(searchQuery, query -> query.isEmpty()
+                ? new MutableLiveData<>(null)
+                : repository.searchNotes(query));
     }
 
-    public LiveData<List<Note>> getAllNotes() {
-        return filteredNotes; // Restituisce i note filtrati o tutti i note se nessun filtro
+    public LiveData<PagingData<NoteSummary>> getPagedNotes() {
+        return pagedNotes;
     }
 
 
@@ -47,21 +68,64 @@ public class NoteViewModel extends AndroidViewModel {
         repository.delete(note);
     }
 
-    public void filterByTag(String tag) {
-        if (tag == null) {
-            filteredNotes = allNotes; // Mostra tutte le note se il tag è vuoto o "all"
-        } else {
-            // Esegue la ricerca tramite il repository, che gestisce la decrittografia
-            filteredNotes = repository.searchNotes(tag);
+    public void deleteById(int noteId) {
+        repository.deleteById(noteId);
+    }
+
+    // Per mostrare tutte le note si osserva getPagedNotes()
+    public LiveData<List<Note>> filterByTag(String tag) {
+        // Join indicizzato su note_tags: "work" non trova più "homework"
+        return repository.getNotesByTag(tag);
+    }
+
+    public LiveData<List<Note>> filterByAllTags(String tags) {
+        return repository.getNotesWithAllTags(tags);
+    }
+
+    public LiveData<List<TagCount>> getTagCounts() {
+        return repository.getTagCounts();
+    }
+
+    // Da chiamare ad ogni modifica del testo: la query parte solo dopo SEARCH_DEBOUNCE_MS senza nuove digitazioni
+    public void setSearchQuery(String query) {
+        String normalizedQuery = query == null ? "" : query.trim();
+        if (pendingQuery != null) {
+            mainHandler.removeCallbacks(pendingQuery);
+            SearchMetrics.getInstance().recordDebounced();
+            pendingQuery = null;
         }
+        if (normalizedQuery.isEmpty()) {
+            searchQuery.setValue("");           //svuotare la ricerca non deve aspettare
+            return;
+        }
+        pendingQuery = () -> {
+            pendingQuery = null;
+            if (!normalizedQuery.equals(searchQuery.getValue())) {
+                searchQuery.setValue(normalizedQuery);
+            }
+        };
+        mainHandler.postDelayed(pendingQuery, SEARCH_DEBOUNCE_MS);
+    }
+
+    public LiveData<List<Note>> getSearchResults() {
+        return searchResults;
     }
 
-    public LiveData<List<Note>> searchNotes(String query) {
-        return repository.searchNotes(query);
+    public SearchMetrics getSearchMetrics() {
+        return SearchMetrics.getInstance();
     }
 
     public void cleanupExpiredNotes(long currentTime) {
 
         repository.cleanupExpiredNotes(currentTime);
     }
+
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        if (pendingQuery != null) {
+            mainHandler.removeCallbacks(pendingQuery);
+        }
+        Log.d(TAG, "Statistiche ricerca: " + SearchMetrics.getInstance());
+    }
 }
\ No newline at end of file
@@ -1,22 +1,22 @@
 package com.example.securenotes.ui.filearchive;
 
 import android.app.Activity;
+import android.content.ClipData;
 import android.content.Intent;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
-import android.provider.OpenableColumns;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.ProgressBar;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.activity.result.ActivityResultLauncher;
 import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import androidx.core.content.FileProvider;
 import androidx.fragment.app.Fragment;
 import androidx.lifecycle.Observer;
 import androidx.lifecycle.ViewModelProvider;
@@ -27,10 +27,12 @@ import com.google.android.material.floatingactionbutton.FloatingActionButton;
 
 import com.example.securenotes.R;
 import com.example.securenotes.data.model.ArchivedFile;
+import com.example.securenotes.data.provider.ArchiveContentProvider;
+import com.example.securenotes.data.repository.FileImportPipeline;
 import com.example.securenotes.ui.filearchive.adapter.FileAdapter;
 import com.example.securenotes.ui.filearchive.viewmodel.FileArchiveViewModel;
 
-import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
 
 public class FileArchiveFragment extends Fragment {
@@ -39,26 +41,23 @@ public class FileArchiveFragment extends Fragment {
     private FileArchiveViewModel fileArchiveViewModel;
     private FileAdapter fileAdapter;
     private FloatingActionButton addFileFab;
+    private View importProgressContainer;
+    private ProgressBar importProgressBar;
+    private TextView importProgressText;
 
-    // Launcher per selezionare un file dal sistema
+    // Launcher per selezionare uno o più file dal sistema
     private ActivityResultLauncher<Intent> pickFileLauncher = registerForActivityResult(
             new ActivityResultContracts.StartActivityForResult(),
             result -> {                                                                 //dichiarazione del picker
                 if (result.getResultCode() == Activity.RESULT_OK && result.getData() != null) {
-                    Uri uri = result.getData().getData();
-                    if (uri != null) {
-                        try {
-                            String originalFileName = getFileName(uri);
-                            String mimeType = getContext().getContentResolver().getType(uri);
-
-                            Toast.makeText(getContext(), "Uploading and Encrypting " + originalFileName + "...", Toast.LENGTH_SHORT).show();
-
-                            fileArchiveViewModel.uploadAndEncryptFile(uri, originalFileName, mimeType);     //carica file
-
-                        } catch (Exception e) {
-                            Log.e(TAG, "Errore durante la selezione o l'upload del file", e);
-                            Toast.makeText(getContext(), "Error uploading file: " + e.getLocalizedMessage(), Toast.LENGTH_LONG).show();
-                        }
+                    List<Uri> uris = selectedUris(result.getData());
+                    if (uris.isEmpty()) {
+                        return;
+                    }
+                    if (fileArchiveViewModel.importFiles(uris)) {       //nome, tipo e contenuto vengono letti dai thread dell'importazione
+                        Toast.makeText(getContext(), "Uploading and Encrypting " + uris.size() + " file(s)...", Toast.LENGTH_SHORT).show();
+                    } else {
+                        Toast.makeText(getContext(), "An import is already in progress.", Toast.LENGTH_SHORT).show();
                     }
                 }
             }
@@ -89,6 +88,13 @@ public class FileArchiveFragment extends Fragment {
         });
 
 
+        importProgressContainer = view.findViewById(R.id.import_progress_container);
+        importProgressBar = view.findViewById(R.id.import_progress_bar);
+        importProgressText = view.findViewById(R.id.import_progress_text);
+        view.findViewById(R.id.import_cancel_button).setOnClickListener(v -> fileArchiveViewModel.cancelImport());
+        fileArchiveViewModel.getImportProgress().observe(getViewLifecycleOwner(), this::showImportProgress);
+        fileArchiveViewModel.getImportFileProgress().observe(getViewLifecycleOwner(), this::showFilesInProgress);
+
         addFileFab = view.findViewById(R.id.add_file_fab);
         addFileFab.setOnClickListener(v -> openFilePicker());       //Crea e lancia un Intent con Intent.ACTION_OPEN_DOCUMENT per aprire il selettore di file del sistema
 
@@ -118,71 +124,85 @@ public class FileArchiveFragment extends Fragment {
         return view;
     }
 
-    @Override
-    public void onStop() {
-        super.onStop();
-        fileArchiveViewModel.cleanTempFiles();
-    }
-
 
     // Apre il picker di file del sistema
     private void openFilePicker() {
         Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
         intent.addCategory(Intent.CATEGORY_OPENABLE);
         intent.setType("*/*");
+        intent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true);
         pickFileLauncher.launch(intent);
     }
 
-    // Recupera il nome del file dall'URI
-    private String getFileName(Uri uri) {
-        String result = null;
-        if (uri.getScheme().equals("content")) {
-            try (Cursor cursor = getContext().getContentResolver().query(uri, null, null, null, null)) {
-                if (cursor != null && cursor.moveToFirst()) {
-                    int nameIndex = cursor.getColumnIndex(OpenableColumns.DISPLAY_NAME);
-                    if (nameIndex != -1) {
-                        result = cursor.getString(nameIndex);
-                    }
+    // Con EXTRA_ALLOW_MULTIPLE la selezione multipla arriva in ClipData, quella singola in getData()
+    private static List<Uri> selectedUris(Intent data) {
+        List<Uri> uris = new ArrayList<>();
+        ClipData clipData = data.getClipData();
+        if (clipData != null) {
+            for (int i = 0; i < clipData.getItemCount(); i++) {
+                Uri uri = clipData.getItemAt(i).getUri();
+                if (uri != null) {
+                    uris.add(uri);
                 }
             }
+        } else if (data.getData() != null) {
+            uris.add(data.getData());
         }
-        if (result == null) {                                               //dal path prende il nome del file
-            result = uri.getPath();
-            int cut = result.lastIndexOf('/');
-            if (cut != -1) {
-                result = result.substring(cut + 1);
+        return uris;
+    }
+
+    private void showImportProgress(FileImportPipeline.Progress progress) {
+        if (progress.isFinished()) {
+            if (importProgressContainer.getVisibility() != View.VISIBLE) {
+                return;             //esito già mostrato: LiveData lo ripropone a ogni nuova vista (es. rotazione)
+            }
+            importProgressContainer.setVisibility(View.GONE);
+            String message = progress.getCompleted() + " file(s) imported";
+            if (progress.getFailed() > 0) {
+                message += ", " + progress.getFailed() + " failed";
             }
+            if (progress.getCancelled() > 0) {
+                message += ", " + progress.getCancelled() + " cancelled";
+            }
+            Toast.makeText(getContext(), message, Toast.LENGTH_LONG).show();
+            return;
         }
-        return result;
+        importProgressContainer.setVisibility(View.VISIBLE);
+        importProgressBar.setMax(progress.getTotal());
+        importProgressBar.setProgress(progress.getProcessed());
     }
 
-    private void viewArchivedFile(ArchivedFile file) {
-        Toast.makeText(getContext(), "Decrittografia di " + file.getOriginalName() + "...", Toast.LENGTH_SHORT).show();
-        fileArchiveViewModel.decryptFileForViewing(file).observe(getViewLifecycleOwner(), new Observer<File>() {        //decriptare il file
-            @Override
-            public void onChanged(File decryptedFile) {
-                if (decryptedFile != null && decryptedFile.exists()) {
-                    try {
-                        Uri contentUri = FileProvider.getUriForFile(                            //ottengo URI
-                                getContext(),
-                                getContext().getApplicationContext().getPackageName() + ".fileprovider",
-                                decryptedFile
-                        );
-                        Intent viewIntent = new Intent(Intent.ACTION_VIEW);
-                        viewIntent.setDataAndType(contentUri, file.getMimeType());
-                        viewIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
-                        startActivity(viewIntent);
-                    } catch (IllegalArgumentException e) {
-                        Log.e(TAG, "FileProvider error or URI creation failed: " + e.getMessage());
-                        Toast.makeText(getContext(), "Unable to open file: internal error.", Toast.LENGTH_LONG).show();
-                    } catch (Exception e) {
-                        Log.e(TAG, "Errore nell'apertura del file con app esterna: " + file.getOriginalName(), e);
-                        Toast.makeText(getContext(), "No app found to open the file or error: " + e.getLocalizedMessage(), Toast.LENGTH_LONG).show();
-                    }
-                } else {
-                    Toast.makeText(getContext(), "Decryption error or file not found.", Toast.LENGTH_LONG).show();
+    // Nomi e percentuale dei file in lavorazione sotto la barra complessiva
+    private void showFilesInProgress(List<FileImportPipeline.FileProgress> files) {
+        int processed = 0;
+        StringBuilder running = new StringBuilder();
+        for (FileImportPipeline.FileProgress file : files) {
+            if (file.getState() == FileImportPipeline.State.RUNNING) {
+                if (running.length() > 0) {
+                    running.append(", ");
+                }
+                running.append(file.getName());
+                if (file.getTotalBytes() > 0) {
+                    running.append(" (").append(file.getBytesRead() * 100 / file.getTotalBytes()).append("%)");
                 }
+            } else if (file.getState() != FileImportPipeline.State.QUEUED) {
+                processed++;
             }
-        });
+        }
+        importProgressText.setText(processed + "/" + files.size() + (running.length() > 0 ? " - " + running : ""));
+    }
+
+    // Nessuna copia in chiaro: il viewer legge dal provider, che decripta al volo solo ciò che richiede
+    private void viewArchivedFile(ArchivedFile file) {
+        Uri contentUri = ArchiveContentProvider.uriFor(file);
+        Intent viewIntent = new Intent(Intent.ACTION_VIEW);
+        viewIntent.setDataAndType(contentUri, file.getMimeType());
+        viewIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        try {
+            startActivity(viewIntent);
+        } catch (Exception e) {
+            Log.e(TAG, "Errore nell'apertura del file con app esterna: " + file.getOriginalName(), e);
+            Toast.makeText(getContext(), "No app found to open the file or error: " + e.getLocalizedMessage(), Toast.LENGTH_LONG).show();
+        }
     }
-}
\ No newline at end of file
+}
@@ -2,19 +2,15 @@ package com.example.securenotes.ui.filearchive.viewmodel;
 
 import android.app.Application;
 import android.net.Uri;
-import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
-import androidx.lifecycle.MutableLiveData;
 
 import com.example.securenotes.data.model.ArchivedFile;
 import com.example.securenotes.data.repository.FileArchiveRepository;
+import com.example.securenotes.data.repository.FileImportPipeline;
 
-import java.io.File;
-import java.io.IOException;
-import java.security.GeneralSecurityException;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -24,50 +20,35 @@ public class FileArchiveViewModel extends AndroidViewModel {
     private FileArchiveRepository repository;
     private LiveData<List<ArchivedFile>> allArchivedFiles;
     private ExecutorService viewModelExecutor; // Executor per operazioni ViewModel asincrone
+    private FileImportPipeline importPipeline;
 
     public FileArchiveViewModel(@NonNull Application application) {
         super(application);
         repository = new FileArchiveRepository(application);
         allArchivedFiles = repository.getAllArchivedFilesMetadata();
         viewModelExecutor = Executors.newSingleThreadExecutor();
+        importPipeline = new FileImportPipeline(repository, application.getContentResolver());
     }
 
     public LiveData<List<ArchivedFile>> getAllArchivedFiles() {
         return allArchivedFiles;
     }
 
-    // Metodo per caricare e criptare un file
-    public void uploadAndEncryptFile(Uri uri, String originalFileName, String mimeType) {
-        viewModelExecutor.execute(() -> {
-            try {
-                ArchivedFile newFile = repository.encryptAndSaveFile(uri, originalFileName, mimeType);
-                if (newFile != null) {
-                    Log.d(TAG, "File " + originalFileName + " criptato e salvato con ID: " + newFile.getId());
-                } else {
-                    Log.e(TAG, "Fallimento nella crittografia e salvataggio del file: " + originalFileName);
-                }
-            } catch (IOException | GeneralSecurityException e) {
-                Log.e(TAG, "Errore durante l'upload e la crittografia del file: " + originalFileName, e);
-
-            }
-        });
+    // Importa i documenti scelti nel picker (anche molti insieme) sul pool dell'importazione
+    public boolean importFiles(List<Uri> uris) {
+        return importPipeline.start(uris);
     }
 
+    public void cancelImport() {
+        importPipeline.cancel();
+    }
 
-    public LiveData<File> decryptFileForViewing(ArchivedFile archivedFile) {
-        MutableLiveData<File> decryptedFileLiveData = new MutableLiveData<>();
-        viewModelExecutor.execute(() -> {
-            try {
-                File decryptedTempFile = repository.decryptFileToTemp(archivedFile);
-                decryptedFileLiveData.postValue(decryptedTempFile);
-                Log.d(TAG, "File " + archivedFile.getOriginalName() + " decriptato per visualizzazione.");
-            } catch (IOException | GeneralSecurityException e) {
-                Log.e(TAG, "Errore durante la decrittografia del file per la visualizzazione: " + archivedFile.getOriginalName(), e);
-                decryptedFileLiveData.postValue(null); // Segnala errore alla UI
+    public LiveData<FileImportPipeline.Progress> getImportProgress() {
+        return importPipeline.getProgress();
+    }
 
-            }
-        });
-        return decryptedFileLiveData;
+    public LiveData<List<FileImportPipeline.FileProgress>> getImportFileProgress() {
+        return importPipeline.getFileProgress();
     }
 
     // Metodo per eliminare un file
@@ -75,16 +56,12 @@ public class FileArchiveViewModel extends AndroidViewModel {
         viewModelExecutor.execute(() -> repository.deleteFileMetadata(archivedFile));
     }
 
-    // Metodo per pulire i file temporanei decriptati (chiamato ad esempio all'uscita dall'Activity)
-    public void cleanTempFiles() {
-        viewModelExecutor.execute(() -> repository.cleanTempDecryptedFiles());
-    }
-
     @Override
     protected void onCleared() {
         super.onCleared();
 
         viewModelExecutor.shutdownNow();
+        importPipeline.cancel();            //i file già importati restano, quello in corso viene scartato
 
     }
 }
\ No newline at end of file
@@ -2,7 +2,6 @@ package com.example.securenotes.ui.login;
 
 import android.content.Intent;
 import android.os.Bundle;
-import android.util.Base64;
 import android.util.Log;
 import android.view.View;
 import android.view.ViewGroup;
@@ -18,24 +17,19 @@ import androidx.biometric.BiometricPrompt;
 import androidx.core.content.ContextCompat;
 
 import com.example.securenotes.R;
+import com.example.securenotes.security.AeadCodec;
 import com.example.securenotes.security.SecurityUtils;
+import com.example.securenotes.security.SessionKeyVault;
 import com.example.securenotes.ui.dashboard.DashboardActivity;
 import com.example.securenotes.SecureNotesApplication;
 import com.example.securenotes.security.SessionManager;
 import com.example.securenotes.utils.Constants;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
-import java.security.NoSuchAlgorithmException;
 import java.util.concurrent.Executor;
 
-import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
-import javax.crypto.spec.GCMParameterSpec;
-import javax.crypto.spec.IvParameterSpec;
-
-import static javax.crypto.Cipher.DECRYPT_MODE;
 
 public class LoginActivity extends AppCompatActivity {
 
@@ -43,8 +37,6 @@ public class LoginActivity extends AppCompatActivity {
     private static final String KEY_USER_PIN = "user_pin";
     private static final String PIN_ENCRYPTION_KEY_ALIAS = "pin_encryption_key";
 
-    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
-
     private BiometricPrompt biometricPrompt;
     private BiometricPrompt.PromptInfo promptInfo;
 
@@ -274,7 +266,7 @@ public class LoginActivity extends AppCompatActivity {
                 return;
             }
 
-            String decryptedStoredPin = decrypt(encryptedStoredPinWithIv, pinSecretKey);        //decripto con SecretKey
+            String decryptedStoredPin = AeadCodec.decryptFromBase64(encryptedStoredPinWithIv, pinSecretKey);        //decripto con SecretKey
 
             if (enteredPin.equals(decryptedStoredPin)) {
                 Toast.makeText(this, "PIN authentication successful!", Toast.LENGTH_SHORT).show();
@@ -304,7 +296,7 @@ public class LoginActivity extends AppCompatActivity {
                 return;
             }
 
-            String encryptedPinWithIv = encrypt(newPin, pinSecretKey);      //cripto la nuova password
+            String encryptedPinWithIv = AeadCodec.encryptToBase64(newPin, pinSecretKey);      //cripto la nuova password
             if (SecurityUtils.saveSecureString(this, Constants.KEY_USER_PIN, encryptedPinWithIv)) {
                 Toast.makeText(this, "PIN set successfully!", Toast.LENGTH_SHORT).show();
                 isPinSet = true;
@@ -327,58 +319,9 @@ public class LoginActivity extends AppCompatActivity {
     }
 
     private void navigateToDashboard() {
+        SessionKeyVault.getInstance().unlockAsync(this);       //deriva la chiave delle note mentre la Dashboard si apre
         Intent intent = new Intent(LoginActivity.this, DashboardActivity.class);
         startActivity(intent);
         finish();
     }
-
-    private String encrypt(String data, SecretKey secretKey) throws GeneralSecurityException {
-        try {
-            byte[] iv = SecurityUtils.generateRandomIv();       //genera un random IV
-            GCMParameterSpec gcmSpec = new GCMParameterSpec(SecurityUtils.getGcmTagLengthBytes() * 8, iv);     //creo una GCM con la IV
-
-            Cipher cipher = Cipher.getInstance(Constants.TRANSFORMATION);       //AES/GCM/NoPadding
-            cipher.init(Cipher.ENCRYPT_MODE, secretKey, gcmSpec);       //inizializzo chiper per criptare
-
-            byte[] encryptedBytes = cipher.doFinal(data.getBytes(StandardCharsets.UTF_8));  //cripto
-
-            byte[] combined = new byte[iv.length + encryptedBytes.length];              //combino dati criptati e iv
-            System.arraycopy(iv, 0, combined, 0, iv.length);
-            System.arraycopy(encryptedBytes, 0, combined, iv.length, encryptedBytes.length);
-
-            return Base64.encodeToString(combined, Base64.DEFAULT);   //byte -> base64
-        }
-        catch (GeneralSecurityException | IllegalArgumentException e) {
-            Log.e(TAG, "Errore di crittografia: " + e.getMessage(), e);
-            throw e;
-        } catch (Exception e) {
-            Log.e(TAG, "Errore generico durante la crittografia: " + e.getMessage(), e);
-            throw new GeneralSecurityException("Errore generico di crittografia", e);
-        }
-    }
-
-    private String decrypt(String encryptedData, SecretKey secretKey) throws GeneralSecurityException {
-        try {
-            byte[] combined = Base64.decode(encryptedData, Base64.DEFAULT);         //decodifico da base64->byte
-
-            byte[] iv = new byte[SecurityUtils.GCM_IV_SIZE_BYTES];                  //estraggo iv
-            System.arraycopy(combined, 0, iv, 0, iv.length);
-            GCMParameterSpec gcmSpec = new GCMParameterSpec(SecurityUtils.getGcmTagLengthBytes() * 8, iv);
-
-            byte[] ciphertext = new byte[combined.length - iv.length];
-            System.arraycopy(combined, iv.length, ciphertext, 0, ciphertext.length);
-
-            Cipher cipher = Cipher.getInstance(Constants.TRANSFORMATION);
-            cipher.init(DECRYPT_MODE, secretKey, gcmSpec);                          //inizializzo chipper in moaita decript
-
-            byte[] decryptedBytes = cipher.doFinal(ciphertext);
-            return new String(decryptedBytes, StandardCharsets.UTF_8);
-        } catch (GeneralSecurityException | IllegalArgumentException e) {
-            Log.e(TAG, "Errore di decrittografia (GCM): " + e.getMessage(), e);
-            throw e;
-        } catch (Exception e) {
-            Log.e(TAG, "Errore generico durante la decrittografia (GCM): " + e.getMessage(), e);
-            throw new GeneralSecurityException("Errore generico di decrittografia", e);
-        }
-    }
 }
\ No newline at end of file
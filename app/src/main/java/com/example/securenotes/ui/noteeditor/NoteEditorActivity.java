@@ -1,10 +1,7 @@
 package com.example.securenotes.ui.noteeditor;
 
-import android.app.AlarmManager;
 import android.app.DatePickerDialog;
-import android.app.PendingIntent;
 import android.app.TimePickerDialog;
-import android.content.Context;
 import android.content.Intent;
 import android.os.Build;
 import android.os.Bundle;
@@ -13,6 +10,7 @@ import android.util.Log;
 import android.view.View;
 import android.widget.Button;
 import android.widget.EditText;
+import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
@@ -23,9 +21,9 @@ import androidx.lifecycle.ViewModelProvider;
 
 import com.example.securenotes.R;
 import com.example.securenotes.data.model.Note;
-import com.example.securenotes.data.receiver.NoteSelfDestructReceiver;
+import com.example.securenotes.data.receiver.SelfDestructScheduler;
 import com.example.securenotes.data.repository.NoteRepository;
-import com.example.securenotes.ui.dashboard.viewmodel.NoteViewModel;
+import com.example.securenotes.ui.noteeditor.viewmodel.NoteEditorViewModel;
 
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
@@ -37,16 +35,13 @@ public class NoteEditorActivity extends AppCompatActivity {
 
     private static final String TAG = "NoteEditorActivity";
 
+    // Unico extra: titolo, contenuto e tag non passano più dalla transazione Binder
     public static final String EXTRA_NOTE_ID = "com.example.securenotes.EXTRA_NOTE_ID";
-    public static final String EXTRA_NOTE_TITLE = "com.example.securenotes.EXTRA_NOTE_TITLE";
-    public static final String EXTRA_NOTE_CONTENT = "com.example.securenotes.EXTRA_NOTE_CONTENT";
-    public static final String EXTRA_NOTE_TIMESTAMP = "com.example.securenotes.EXTRA_NOTE_TIMESTAMP";
-    public static final String EXTRA_NOTE_SELF_DESTRUCT_TIMESTAMP = "com.example.securenotes.EXTRA_NOTE_SELF_DESTRUCT_TIMESTAMP";
-    public static final String EXTRA_NOTE_TAGS = "com.example.securenotes.EXTRA_NOTE_TAGS";
 
     private EditText editTextTitle;
     private EditText editTextContent;
     private Button buttonSaveNote;
+    private ProgressBar loadingIndicator;
 
     private EditText editTextTags;
 
@@ -57,17 +52,14 @@ public class NoteEditorActivity extends AppCompatActivity {
 
     private boolean isSelfDestructSetByUser = false;
 
-    private NoteViewModel noteViewModel;
+    private NoteEditorViewModel editorViewModel;
+    private SelfDestructScheduler selfDestructScheduler;
     private int noteId = -1;
     private long originalTimestamp;
     private long originalSelfDestructTimestamp;
 
     private static final long MIN_AUTODESTRUCT_MILLIS = TimeUnit.MINUTES.toMillis(1);
 
-    // Variabili per memorizzare lo stato dell'allarme in attesa del permesso
-    private int pendingNoteId = -1;
-    private long pendingSelfDestructTimestamp = 0;
-
     // Launcher per richiedere il permesso SCHEDULE_EXACT_ALARM
     private ActivityResultLauncher<Intent> requestScheduleExactAlarmPermissionLauncher;
 
@@ -76,28 +68,20 @@ public class NoteEditorActivity extends AppCompatActivity {
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_note_editor);
+        selfDestructScheduler = new SelfDestructScheduler(this);
 
 
         requestScheduleExactAlarmPermissionLauncher = registerForActivityResult(
                 new ActivityResultContracts.StartActivityForResult(),
                 result -> {
                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
-                        AlarmManager alarmManager = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
-                        if (alarmManager != null && alarmManager.canScheduleExactAlarms()) {
+                        if (selfDestructScheduler.canScheduleExactAlarms()) {
                             Log.d(TAG, "Permesso SCHEDULE_EXACT_ALARM concesso dopo la richiesta.");
-                            // Se il permesso è stato concesso e c'è un allarme in sospeso, impostalo
-                            if (pendingNoteId != -1 && pendingSelfDestructTimestamp > 0) {
-                                setSelfDestructAlarmInternal(pendingNoteId, pendingSelfDestructTimestamp);
-                                // Resetta le variabili in sospeso
-                                pendingNoteId = -1;
-                                pendingSelfDestructTimestamp = 0;
-                            }
+                            // L'allarme già armato è inesatto: lo riarma come esatto
+                            selfDestructScheduler.scheduleNextAsync();
                         } else {
                             Log.w(TAG, "Permesso SCHEDULE_EXACT_ALARM negato dopo la richiesta.");
                             Toast.makeText(this, "Permission to set exact alarms was denied. Auto-delete notes may not work precisely.", Toast.LENGTH_LONG).show();
-
-                            pendingNoteId = -1;
-                            pendingSelfDestructTimestamp = 0;
                         }
                     }
                 }
@@ -106,6 +90,7 @@ public class NoteEditorActivity extends AppCompatActivity {
         editTextTitle = findViewById(R.id.edit_text_title);
         editTextContent = findViewById(R.id.edit_text_content);
         buttonSaveNote = findViewById(R.id.button_save_note);
+        loadingIndicator = findViewById(R.id.note_loading_indicator);
 
         editTextTags = findViewById(R.id.edit_text_tags);
 
@@ -117,31 +102,29 @@ public class NoteEditorActivity extends AppCompatActivity {
 
         selfDestructCalendar = Calendar.getInstance();
 
-        noteViewModel = new ViewModelProvider(this).get(NoteViewModel.class);
+        editorViewModel = new ViewModelProvider(this).get(NoteEditorViewModel.class);
 
         Intent intent = getIntent();
         if (intent.hasExtra(EXTRA_NOTE_ID)) {                   //se è stato passsato l'id di una nota
             setTitle("Modify note");
             noteId = intent.getIntExtra(EXTRA_NOTE_ID, -1);
-            editTextTitle.setText(intent.getStringExtra(EXTRA_NOTE_TITLE));
-            editTextContent.setText(intent.getStringExtra(EXTRA_NOTE_CONTENT));
-            originalTimestamp = intent.getLongExtra(EXTRA_NOTE_TIMESTAMP, System.currentTimeMillis());
-
-            editTextTags.setText(intent.getStringExtra(EXTRA_NOTE_TAGS));
-
-            long existingSelfDestructTimestamp = intent.getLongExtra(EXTRA_NOTE_SELF_DESTRUCT_TIMESTAMP, 0);
-            originalSelfDestructTimestamp = existingSelfDestructTimestamp;
-            if (existingSelfDestructTimestamp > 0) {
-                selfDestructCalendar.setTimeInMillis(existingSelfDestructTimestamp);
-                updateSelfDestructDisplay();
-                isSelfDestructSetByUser = true;
-            }
+
+            editorViewModel.isLoading().observe(this, this::showLoading);
+            editorViewModel.hasLoadFailed().observe(this, failed -> {
+                if (failed) {
+                    Toast.makeText(this, "Unable to open note", Toast.LENGTH_SHORT).show();
+                    finish();
+                }
+            });
+            editorViewModel.loadNote(noteId);           //lettura e decrittografia in background
 
         } else {
             setTitle("New note");
             originalTimestamp = System.currentTimeMillis();
             originalSelfDestructTimestamp = 0;
+            editorViewModel.restoreNewNoteDraft();
         }
+        editorViewModel.getNote().observe(this, this::bindNote);
 
         buttonSaveNote.setOnClickListener(view -> saveNote());
 
@@ -160,6 +143,41 @@ public class NoteEditorActivity extends AppCompatActivity {
 
     }
 
+    // Riempie i campi con la nota caricata dal ViewModel (anche dopo una rotazione, con la bozza conservata)
+    private void bindNote(Note note) {
+        if (note == null) {
+            return;
+        }
+        editTextTitle.setText(note.getTitle());
+        editTextContent.setText(note.getContent());
+        editTextTags.setText(note.getTags());
+        originalTimestamp = note.getTimestamp();
+
+        long existingSelfDestructTimestamp = note.getSelfDestructTimestamp();
+        originalSelfDestructTimestamp = existingSelfDestructTimestamp;
+        if (existingSelfDestructTimestamp > 0 && !isSelfDestructSetByUser) {
+            selfDestructCalendar.setTimeInMillis(existingSelfDestructTimestamp);
+            updateSelfDestructDisplay();
+            isSelfDestructSetByUser = true;
+        }
+    }
+
+    // Finché la nota non è decriptata i campi restano bloccati: un salvataggio ora la svuoterebbe
+    private void showLoading(boolean isLoading) {
+        loadingIndicator.setVisibility(isLoading ? View.VISIBLE : View.GONE);
+        editTextTitle.setEnabled(!isLoading);
+        editTextContent.setEnabled(!isLoading);
+        editTextTags.setEnabled(!isLoading);
+        buttonSaveNote.setEnabled(!isLoading);
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        // Prima di super: è super.onSaveInstanceState a scrivere il SavedStateHandle del ViewModel
+        editorViewModel.keepDraft(editTextTitle.getText().toString(), editTextContent.getText().toString(), editTextTags.getText().toString(), originalTimestamp);
+        super.onSaveInstanceState(outState);
+    }
+
     private void saveNote() {
         String title = editTextTitle.getText().toString().trim();
         String content = editTextContent.getText().toString().trim();
@@ -196,15 +214,14 @@ public class NoteEditorActivity extends AppCompatActivity {
 
             Note newNote = new Note(title, content, timestamp, selfDestructTimestamp, tags);
             long finalSelfDestructTimestamp = selfDestructTimestamp;
-            noteViewModel.insert(newNote, new NoteRepository.OnNoteInsertedCallback() {
+            editorViewModel.insert(newNote, new NoteRepository.OnNoteInsertedCallback() {
                 @Override
                 public void onNoteInserted(int newNoteId) {                                         //IMPLEMENTAZIONE del metodo di callback
                     runOnUiThread(() -> {
+                        // L'allarme è già stato riarmato dal repository dopo l'inserimento
+                        Log.d(TAG, "SaveNote Callback: ID nota generato: " + newNoteId);
                         if (finalSelfDestructTimestamp > 0) {
-                            Log.d(TAG, "SaveNote Callback: ID nota generato: " + newNoteId + ". Tentativo di impostare allarme.");
-                            handleSelfDestructAlarm(newNoteId, finalSelfDestructTimestamp);
-                        } else {
-                            Log.d(TAG, "SaveNote Callback: ID nota generato: " + newNoteId + ". Nessun allarme da impostare.");
+                            ensureExactAlarmPermission();
                         }
                         Toast.makeText(NoteEditorActivity.this, "Note saved!", Toast.LENGTH_SHORT).show();
                         finish();
@@ -212,22 +229,15 @@ public class NoteEditorActivity extends AppCompatActivity {
                 }
             });
         } else {
-            // Modifica nota esistente
-            if (originalSelfDestructTimestamp > 0) {
-                Log.d(TAG, "SaveNote: Allarme originale esistente per ID " + noteId + ". Tentativo di cancellazione.");
-                cancelSelfDestructAlarm(noteId);
-            }
-
+            // Modifica nota esistente: il repository riarma l'allarme sulla nuova scadenza più vicina
             Note existingNote = new Note(title, content, originalTimestamp, selfDestructTimestamp, tags);
             existingNote.setId(noteId);
-            noteViewModel.update(existingNote);
+            editorViewModel.update(existingNote);
 
             if (selfDestructTimestamp > 0) {
-                Log.d(TAG, "SaveNote: Allarme da impostare/riprogrammare per nota ID " + noteId);
-                // Chiamiamo il wrapper che gestisce il permesso
-                handleSelfDestructAlarm(noteId, selfDestructTimestamp);
-            } else {
-                Log.d(TAG, "SaveNote: Allarme rimosso per nota ID " + noteId + " (selfDestructTimestamp è 0).");
+                ensureExactAlarmPermission();
+            } else if (originalSelfDestructTimestamp > 0) {
+                Log.d(TAG, "SaveNote: Autodistruzione rimossa per nota ID " + noteId);
             }
             Toast.makeText(this, "Updated note!", Toast.LENGTH_SHORT).show();
             finish();
@@ -293,11 +303,8 @@ public class NoteEditorActivity extends AppCompatActivity {
         }
     }
 
+    // La scadenza viene tolta dal database al salvataggio; l'allarme segue il database
     private void clearAutodestruct() {
-        if (noteId != -1) {
-            Log.d(TAG, "clearAutodestruct: Richiesta di rimozione autodistruzione per nota ID " + noteId + ". Tentativo di cancellare allarme.");
-            cancelSelfDestructAlarm(noteId);
-        }
         selfDestructCalendar.setTimeInMillis(0);
         updateSelfDestructDisplay();
         Toast.makeText(this, "Self-destruct removed.", Toast.LENGTH_SHORT).show();
@@ -305,63 +312,16 @@ public class NoteEditorActivity extends AppCompatActivity {
     }
 
 
-    private void handleSelfDestructAlarm(int noteId, long selfDestructTimestamp) {
+    // Senza permesso l'allarme viene armato comunque (non esatto): qui si chiede solo di renderlo preciso
+    private void ensureExactAlarmPermission() {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
-            AlarmManager alarmManager = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
-            if (alarmManager != null && !alarmManager.canScheduleExactAlarms()) {
-                Log.w(TAG, "handleSelfDestructAlarm: Permesso SCHEDULE_EXACT_ALARM non concesso. Richiedo all'utente.");
+            if (!selfDestructScheduler.canScheduleExactAlarms()) {
+                Log.w(TAG, "ensureExactAlarmPermission: Permesso SCHEDULE_EXACT_ALARM non concesso. Richiedo all'utente.");
                 Toast.makeText(this, "Please enable 'Alarms & reminders' permission for SecureNotes to auto-delete notes precisely.", Toast.LENGTH_LONG).show();
 
-                // Salva l'ID e il timestamp per reimpostare l'allarme dopo che il permesso è stato concesso
-                pendingNoteId = noteId;
-                pendingSelfDestructTimestamp = selfDestructTimestamp;
-
                 Intent permissionIntent = new Intent(Settings.ACTION_REQUEST_SCHEDULE_EXACT_ALARM);
                 requestScheduleExactAlarmPermissionLauncher.launch(permissionIntent);
-                return;
             }
         }
-        // Se il permesso è già concesso o non è necessario (pre-Android 12), imposta l'allarme direttamente
-        setSelfDestructAlarmInternal(noteId, selfDestructTimestamp);
-    }
-
-
-
-    private void setSelfDestructAlarmInternal(int noteId, long selfDestructTimestamp) {
-        if (noteId == -1 || selfDestructTimestamp <= System.currentTimeMillis()) {
-            Log.w(TAG, "setSelfDestructAlarmInternal: Impossibile impostare allarme: ID nota non valido o timestamp nel passato. ID: " + noteId + ", Timestamp: " + selfDestructTimestamp + " (Current Time: " + System.currentTimeMillis() + ")");
-            return;
-        }
-
-        AlarmManager alarmManager = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
-        Intent intent = new Intent(this, NoteSelfDestructReceiver.class);
-        intent.setAction(NoteSelfDestructReceiver.ACTION_SELF_DESTRUCT_NOTE);
-        intent.putExtra(NoteSelfDestructReceiver.EXTRA_NOTE_ID, noteId);
-
-        PendingIntent pendingIntent = PendingIntent.getBroadcast(this, noteId, intent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
-
-        if (alarmManager != null) {
-            alarmManager.setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, selfDestructTimestamp, pendingIntent);
-            Log.i(TAG, "Allarme autodistruzione IMPOSTATO per nota ID " + noteId + " a " + new SimpleDateFormat("dd/MM/yyyy HH:mm:ss", Locale.getDefault()).format(selfDestructTimestamp));
-        } else {
-            Log.e(TAG, "setSelfDestructAlarmInternal: AlarmManager è nullo. Impossibile impostare l'allarme.");
-        }
-    }
-
-    private void cancelSelfDestructAlarm(int noteId) {
-        AlarmManager alarmManager = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
-        Intent intent = new Intent(this, NoteSelfDestructReceiver.class);
-        intent.setAction(NoteSelfDestructReceiver.ACTION_SELF_DESTRUCT_NOTE);
-        intent.putExtra(NoteSelfDestructReceiver.EXTRA_NOTE_ID, noteId);
-
-        PendingIntent pendingIntent = PendingIntent.getBroadcast(this, noteId, intent, PendingIntent.FLAG_NO_CREATE | PendingIntent.FLAG_IMMUTABLE);
-
-        if (alarmManager != null && pendingIntent != null) {
-            alarmManager.cancel(pendingIntent);
-            pendingIntent.cancel();
-            Log.i(TAG, "Allarme autodistruzione CANCELLATO per nota ID: " + noteId);
-        } else {
-            Log.d(TAG, "Nessun allarme da cancellare per nota ID: " + noteId + ". PendingIntent non trovato o AlarmManager nullo.");
-        }
     }
-}
\ No newline at end of file
+}
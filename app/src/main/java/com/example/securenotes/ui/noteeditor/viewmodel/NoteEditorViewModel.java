@@ -0,0 +1,136 @@
+package com.example.securenotes.ui.noteeditor.viewmodel;
+
+import android.app.Application;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.AndroidViewModel;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.SavedStateHandle;
+
+import com.example.securenotes.data.model.Note;
+import com.example.securenotes.data.repository.NoteRepository;
+
+// Stato dell'editor: la nota arriva solo come id e viene letta e decriptata in background.
+// Il ViewModel sopravvive alle rotazioni, quindi la nota non viene ricaricata né ripassata in un Bundle.
+// Le modifiche non salvate stanno anche nel SavedStateHandle, così sopravvivono alla morte del processo.
+public class NoteEditorViewModel extends AndroidViewModel {
+    private static final String TAG = "NoteEditorViewModel";
+
+    private static final String KEY_DRAFT_TITLE = "draft_title";
+    private static final String KEY_DRAFT_CONTENT = "draft_content";
+    private static final String KEY_DRAFT_TAGS = "draft_tags";
+    private static final String KEY_DRAFT_TIMESTAMP = "draft_timestamp";
+    // Oltre questa lunghezza il contenuto non entra nello stato salvato (limite Binder): resta solo nel ViewModel
+    private static final int MAX_SAVED_CONTENT_CHARS = 64 * 1024;
+
+    private final SavedStateHandle savedState;
+    private NoteRepository repository;
+    private final MutableLiveData<Note> note = new MutableLiveData<>();
+    private final MutableLiveData<Boolean> loading = new MutableLiveData<>(false);
+    private final MutableLiveData<Boolean> loadFailed = new MutableLiveData<>(false);
+    private int requestedNoteId = -1;
+
+    public NoteEditorViewModel(@NonNull Application application, @NonNull SavedStateHandle savedState) {
+        super(application);
+        this.savedState = savedState;
+        repository = NoteRepository.getInstance(application);
+    }
+
+    public LiveData<Note> getNote() {
+        return note;
+    }
+
+    public LiveData<Boolean> isLoading() {
+        return loading;
+    }
+
+    public LiveData<Boolean> hasLoadFailed() {
+        return loadFailed;
+    }
+
+    // Idempotente: dopo una rotazione la nota è già in memoria e non viene riletta dal DB
+    public void loadNote(int noteId) {
+        if (noteId == requestedNoteId) {
+            return;
+        }
+        requestedNoteId = noteId;
+        loading.setValue(true);
+        Note draft = readDraft();           //letto sul main thread: il SavedStateHandle non è thread-safe
+        // Se il contenuto è già nella cache dei decriptati non c'è nessuna decrittografia, solo la lettura della riga
+        repository.loadDecryptedNote(noteId, loadedNote -> {
+            if (loadedNote == null) {
+                Log.e(TAG, "Nota con ID " + noteId + " non trovata o non decriptabile.");
+                loadFailed.postValue(true);
+            } else {
+                note.postValue(draft != null ? mergeDraft(loadedNote, draft) : loadedNote);
+            }
+            loading.postValue(false);
+        });
+    }
+
+    // Nota nuova: dopo la morte del processo non c'è niente da caricare, la bozza salvata è tutto ciò che resta
+    public void restoreNewNoteDraft() {
+        Note draft = readDraft();
+        if (note.getValue() == null && draft != null) {
+            note.setValue(mergeDraft(new Note("", "", draft.getTimestamp(), 0, ""), draft));
+        }
+    }
+
+    // Conserva le modifiche non salvate nel ViewModel (rotazioni) e nel SavedStateHandle (morte del processo).
+    // Va chiamato prima di super.onSaveInstanceState, che scrive lo stato del SavedStateHandle
+    public void keepDraft(String title, String content, String tags, long timestamp) {
+        if (Boolean.TRUE.equals(loading.getValue())) {
+            return;                 //i campi sono ancora vuoti: la nota caricata non va sovrascritta
+        }
+        savedState.set(KEY_DRAFT_TITLE, title);
+        savedState.set(KEY_DRAFT_TAGS, tags);
+        savedState.set(KEY_DRAFT_TIMESTAMP, timestamp);
+        if (content.length() <= MAX_SAVED_CONTENT_CHARS) {
+            savedState.set(KEY_DRAFT_CONTENT, content);
+        } else {
+            savedState.remove(KEY_DRAFT_CONTENT);           //dopo la morte del processo torna il contenuto salvato nel DB
+            Log.w(TAG, "Contenuto della bozza troppo lungo per lo stato salvato: " + content.length() + " caratteri.");
+        }
+        Note current = note.getValue();
+        if (current == null) {
+            note.setValue(new Note(title, content, timestamp, 0, tags));        //nota nuova non ancora salvata
+            return;
+        }
+        current.setTitle(title);
+        current.setContent(content);
+        current.setTags(tags);
+    }
+
+    // Campi null = non salvati nella bozza (es. contenuto oltre MAX_SAVED_CONTENT_CHARS)
+    private Note readDraft() {
+        Long timestamp = savedState.get(KEY_DRAFT_TIMESTAMP);
+        if (timestamp == null) {
+            return null;
+        }
+        return new Note(savedState.get(KEY_DRAFT_TITLE), savedState.get(KEY_DRAFT_CONTENT), timestamp, 0, savedState.get(KEY_DRAFT_TAGS));
+    }
+
+    // La nota di destinazione porta id, timestamp e autodistruzione; la bozza solo i campi modificati dall'utente
+    private static Note mergeDraft(Note target, Note draft) {
+        if (draft.getTitle() != null) {
+            target.setTitle(draft.getTitle());
+        }
+        if (draft.getContent() != null) {
+            target.setContent(draft.getContent());
+        }
+        if (draft.getTags() != null) {
+            target.setTags(draft.getTags());
+        }
+        return target;
+    }
+
+    public void insert(Note note, NoteRepository.OnNoteInsertedCallback callback) {
+        repository.insert(note, callback);
+    }
+
+    public void update(Note note) {
+        repository.update(note);
+    }
+}
@@ -1,8 +1,8 @@
 package com.example.securenotes.ui.pinmanagement;
 
+import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
-import android.util.Base64;
 import android.util.Log;
 import android.view.MenuItem;
 import android.widget.Button;
@@ -13,21 +13,18 @@ import androidx.appcompat.app.ActionBar;
 import androidx.appcompat.app.AppCompatActivity;
 
 import com.example.securenotes.R;
+import com.example.securenotes.security.AeadCodec;
 import com.example.securenotes.security.SecurityUtils;
+import com.example.securenotes.security.SessionKeyVault;
 import com.example.securenotes.security.SessionManager;
 import com.example.securenotes.SecureNotesApplication;
 import com.example.securenotes.ui.login.LoginActivity;
+import com.example.securenotes.utils.AppExecutors;
 import com.example.securenotes.utils.Constants;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
-import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
-import javax.crypto.spec.GCMParameterSpec;
-import javax.crypto.spec.IvParameterSpec;
-
-import static javax.crypto.Cipher.DECRYPT_MODE;
 
 public class ChangePinActivity extends AppCompatActivity {
 
@@ -104,7 +101,7 @@ public class ChangePinActivity extends AppCompatActivity {
             }
 
             // 3. Decripta il PIN attuale e confrontalo
-            String decryptedStoredPin = decrypt(encryptedStoredPinWithIv, pinSecretKey);
+            String decryptedStoredPin = AeadCodec.decryptFromBase64(encryptedStoredPinWithIv, pinSecretKey);
 
             if (!oldPin.equals(decryptedStoredPin)) {
                 Toast.makeText(this, "PIN attuale errato.", Toast.LENGTH_SHORT).show();
@@ -112,9 +109,10 @@ public class ChangePinActivity extends AppCompatActivity {
             }
 
             // 4. Se il PIN attuale è corretto, cripta e salva il nuovo PIN
-            String newEncryptedPinWithIv = encrypt(newPin, pinSecretKey); // Usa la stessa chiave
+            String newEncryptedPinWithIv = AeadCodec.encryptToBase64(newPin, pinSecretKey); // Usa la stessa chiave
             if (SecurityUtils.saveSecureString(this, Constants.KEY_USER_PIN, newEncryptedPinWithIv)) {
                 Toast.makeText(this, "PIN changed successfully!", Toast.LENGTH_SHORT).show();
+                rotateVaultKeyEncryptionKey();
 
                 finish(); // Chiudi questa Activity
             } else {
@@ -127,53 +125,16 @@ public class ChangePinActivity extends AppCompatActivity {
         }
     }
 
-
-    private String encrypt(String data, SecretKey secretKey) throws GeneralSecurityException {
-        try {
-            byte[] iv = SecurityUtils.generateRandomIv();
-            GCMParameterSpec gcmSpec = new GCMParameterSpec(SecurityUtils.getGcmTagLengthBytes() * 8, iv);
-
-            Cipher cipher = Cipher.getInstance(Constants.TRANSFORMATION); // Usa Constants per TRANSFORMATION
-            cipher.init(Cipher.ENCRYPT_MODE, secretKey, gcmSpec);
-
-            byte[] encryptedBytes = cipher.doFinal(data.getBytes(StandardCharsets.UTF_8));
-
-            byte[] combined = new byte[iv.length + encryptedBytes.length];
-            System.arraycopy(iv, 0, combined, 0, iv.length);
-            System.arraycopy(encryptedBytes, 0, combined, iv.length, encryptedBytes.length);
-
-            return Base64.encodeToString(combined, Base64.DEFAULT);
-        } catch (GeneralSecurityException | IllegalArgumentException e) {
-            Log.e(TAG, "Errore di crittografia: " + e.getMessage(), e);
-            throw e;
-        } catch (Exception e) {
-            Log.e(TAG, "Errore generico durante la crittografia: " + e.getMessage(), e);
-            throw new GeneralSecurityException("Errore generico di crittografia", e);
-        }
-    }
-
-    private String decrypt(String encryptedData, SecretKey secretKey) throws GeneralSecurityException {
-        try {
-            byte[] combined = Base64.decode(encryptedData, Base64.DEFAULT);
-
-            byte[] iv = new byte[SecurityUtils.GCM_IV_SIZE_BYTES];
-            System.arraycopy(combined, 0, iv, 0, iv.length);
-            GCMParameterSpec gcmSpec = new GCMParameterSpec(SecurityUtils.getGcmTagLengthBytes() * 8, iv);
-
-            Cipher cipher = Cipher.getInstance(Constants.TRANSFORMATION); // Usa Constants per TRANSFORMATION
-            cipher.init(DECRYPT_MODE, secretKey, gcmSpec);
-
-            byte[] ciphertext = new byte[combined.length - iv.length];
-            System.arraycopy(combined, iv.length, ciphertext, 0, ciphertext.length);
-
-            byte[] decryptedBytes = cipher.doFinal(ciphertext);
-            return new String(decryptedBytes, StandardCharsets.UTF_8);
-        } catch (GeneralSecurityException | IllegalArgumentException e) {
-            Log.e(TAG, "Errore di decrittografia (GCM): " + e.getMessage(), e);
-            throw e;
-        } catch (Exception e) {
-            Log.e(TAG, "Errore generico durante la decrittografia (GCM): " + e.getMessage(), e);
-            throw new GeneralSecurityException("Errore generico di decrittografia", e);
-        }
+    // Nuova KEK insieme al nuovo PIN: viene ricifrata solo la DEK (32 byte), non le note né i file archiviati.
+    // La vecchia KEK viene eliminata dal Keystore: copie precedenti della DEK cifrata (es. backup) non si aprono più
+    private void rotateVaultKeyEncryptionKey() {
+        Context appContext = getApplicationContext();
+        AppExecutors.getInstance().background().execute(() -> {
+            try {
+                SessionKeyVault.getInstance().rotateKeyEncryptionKey(appContext);
+            } catch (GeneralSecurityException e) {
+                Log.e(TAG, "Rotazione della KEK dopo il cambio PIN fallita: " + e.getMessage(), e);
+            }
+        });
     }
-}
\ No newline at end of file
+}
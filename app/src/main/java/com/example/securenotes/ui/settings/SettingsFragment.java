@@ -6,6 +6,8 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.InputType;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -26,8 +28,10 @@ import androidx.fragment.app.Fragment;
 import com.example.securenotes.R;
 import com.example.securenotes.SecureNotesApplication;
 import com.example.securenotes.security.SessionManager;
+import com.example.securenotes.utils.AppExecutors;
 import com.example.securenotes.utils.BackupManager;
 import com.example.securenotes.utils.Constants;
+import com.example.securenotes.utils.PanicWipeManager;
 
 
 import java.io.IOException;
@@ -46,6 +50,7 @@ public class SettingsFragment extends Fragment {
     private Button saveTimeoutButton;
     private Button exportBackupButton;
     private Button changePinButton;
+    private Button panicWipeButton;
     private TextView currentTimeoutTextView;
     private RadioGroup nightModeRadioGroup;
 
@@ -66,6 +71,7 @@ public class SettingsFragment extends Fragment {
         saveTimeoutButton = view.findViewById(R.id.save_timeout_button);
         exportBackupButton = view.findViewById(R.id.export_backup_button);
         changePinButton = view.findViewById(R.id.change_pin_button);
+        panicWipeButton = view.findViewById(R.id.panic_wipe_button);
         currentTimeoutTextView = view.findViewById(R.id.current_timeout_text_view);
         nightModeRadioGroup = view.findViewById(R.id.night_mode_radio_group);
 
@@ -116,6 +122,7 @@ public class SettingsFragment extends Fragment {
         saveTimeoutButton.setOnClickListener(v -> saveTimeout());
         exportBackupButton.setOnClickListener(v -> showManualBackupPasswordDialog(view));
         changePinButton.setOnClickListener(v -> changePin());
+        panicWipeButton.setOnClickListener(v -> confirmPanicWipe());
 
         loadAndSetNightModePreference();
         nightModeRadioGroup.setOnCheckedChangeListener((group, checkedId) -> {
@@ -233,4 +240,23 @@ public class SettingsFragment extends Fragment {
                 .setNegativeButton("Annulla", null)
                 .show();
     }
-}
\ No newline at end of file
+
+    // Wipe completo: distrugge le chiavi (istantaneo anche con archivi grandi) e chiude la sessione
+    private void confirmPanicWipe() {
+        new AlertDialog.Builder(getContext())
+                .setTitle("Delete everything")
+                .setMessage("All notes and archived files will be permanently destroyed. This cannot be undone.")
+                .setPositiveButton("Delete", (dialog, which) -> {
+                    Context appContext = requireContext().getApplicationContext();
+                    AppExecutors.getInstance().background().execute(() -> {
+                        new PanicWipeManager(appContext).wipeAll();
+                        new Handler(Looper.getMainLooper()).post(() -> {
+                            Toast.makeText(appContext, "All data deleted.", Toast.LENGTH_LONG).show();
+                            sessionManager.logoutNow();
+                        });
+                    });
+                })
+                .setNegativeButton("Annulla", null)
+                .show();
+    }
+}
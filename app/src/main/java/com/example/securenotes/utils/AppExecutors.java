@@ -0,0 +1,47 @@
+package com.example.securenotes.utils;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Pool condiviso per il lavoro in background dei componenti senza un repository (BroadcastReceiver, avvio dell'app).
+// Numero di thread limitato: molti allarmi insieme finiscono in coda invece di creare un thread ciascuno.
+public class AppExecutors {
+
+    private static final int MAX_BACKGROUND_THREADS = 2;
+    private static final long IDLE_TIMEOUT_SECONDS = 30;
+
+    private static volatile AppExecutors INSTANCE;
+
+    private final ExecutorService background;
+
+    private AppExecutors() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_BACKGROUND_THREADS, MAX_BACKGROUND_THREADS,
+                IDLE_TIMEOUT_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "app-background-" + threadNumber.incrementAndGet());
+                    thread.setPriority(Thread.NORM_PRIORITY - 1);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);          //nessun thread vivo quando non c'è lavoro
+        background = executor;
+    }
+
+    public static AppExecutors getInstance() {
+        if (INSTANCE == null) {
+            synchronized (AppExecutors.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new AppExecutors();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    public ExecutorService background() {
+        return background;
+    }
+}
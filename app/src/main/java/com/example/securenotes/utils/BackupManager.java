@@ -7,7 +7,7 @@ import android.util.Log;
 import com.example.securenotes.data.database.AppDatabase;
 import com.example.securenotes.data.model.ArchivedFile;
 import com.example.securenotes.data.model.Note;
-import com.example.securenotes.security.SecurityUtils;
+import com.example.securenotes.security.AeadCodec;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
@@ -26,10 +26,8 @@ import java.util.UUID;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
-import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
-import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
 
@@ -40,11 +38,9 @@ public class BackupManager {
     private Context context;
     private AppDatabase db;
 
-    private static final String BACKUP_TRANSFORMATION = "AES/GCM/NoPadding";
     private static final int BACKUP_PBKDF2_ITERATIONS = 50000;
     private static final int BACKUP_SALT_SIZE_BYTES = 16;
     private static final int BACKUP_AES_KEY_BITS = 256;
-    private static final int BACKUP_GCM_IV_SIZE_BYTES = 12;
 
     private static final String BACKUP_NOTES_FILE = "notes.enc";
     private static final String BACKUP_FILES_METADATA_FILE = "files_metadata.enc";
@@ -74,8 +70,9 @@ public class BackupManager {
             for (Note note : allNotes) {
                 notesContent.append(note.getId()).append("|")
                         .append(note.getTitle()).append("|")
-                        .append(note.getContent()).append("|")
-                        .append(note.getTimestamp()).append("\n");
+                        .append(encodeNoteBody(note)).append("|")       //ciphertext della nota su una sola riga
+                        .append(note.getTimestamp()).append("|")
+                        .append(encodeWrappedKey(note.getWrappedKey())).append("\n");      //senza la chiave dati il ciphertext è illeggibile
             }
             encryptToFile(notesContent.toString().getBytes(StandardCharsets.UTF_8), notesEncryptedTempFile, backupAesKey);
 
@@ -87,7 +84,8 @@ public class BackupManager {
                         .append(file.getOriginalName()).append("|")
                         .append(file.getEncryptedFilename()).append("|")
                         .append(file.getMimeType()).append("|")
-                        .append(file.getTimestamp()).append("\n");
+                        .append(file.getTimestamp()).append("|")
+                        .append(encodeWrappedKey(file.getWrappedKey())).append("\n");
             }
             encryptToFile(filesMetadataContent.toString().getBytes(StandardCharsets.UTF_8), filesMetadataEncryptedTempFile, backupAesKey);
 
@@ -123,6 +121,25 @@ public class BackupManager {
     }
 
 
+    // Chiave dati cifrata con la chiave di sessione; vuota per gli elementi cifrati direttamente con quella
+    private static String encodeWrappedKey(byte[] wrappedKey) {
+        return wrappedKey != null ? Base64.encodeToString(wrappedKey, Base64.NO_WRAP) : "";
+    }
+
+    // Note lunghe: i blocchi cifrati di note_chunks, separati da virgole e letti uno alla volta
+    private String encodeNoteBody(Note note) {
+        if (note.getChunkCount() == 0) {
+            return note.getEncryptedContent() != null ? Base64.encodeToString(note.getEncryptedContent(), Base64.NO_WRAP) : "";
+        }
+        StringBuilder body = new StringBuilder();
+        for (int index = 0; index < note.getChunkCount(); index++) {
+            byte[] chunk = db.noteChunkDao().getChunkData(note.getId(), index);
+            if (index > 0) body.append(",");
+            body.append(chunk != null ? Base64.encodeToString(chunk, Base64.NO_WRAP) : "");
+        }
+        return body.toString();
+    }
+
     private SecretKey deriveKeyFromPassword(String password, byte[] salt) throws GeneralSecurityException {
         try {
             SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
@@ -135,35 +152,25 @@ public class BackupManager {
     }
 
     private void encryptToFile(byte[] data, File outputFile, SecretKey secretKey) throws IOException, GeneralSecurityException {
-        byte[] iv = generateSalt();
-        GCMParameterSpec gcmSpec = new GCMParameterSpec(SecurityUtils.getGcmTagLengthBytes() * 8, iv);
-
-        Cipher cipher = Cipher.getInstance(BACKUP_TRANSFORMATION);
-        cipher.init(Cipher.ENCRYPT_MODE, secretKey, gcmSpec);
-
         try (FileOutputStream fos = new FileOutputStream(outputFile)) {
-            fos.write(iv);
-            byte[] encryptedBytes = cipher.doFinal(data);
-            fos.write(encryptedBytes);
+            fos.write(AeadCodec.encrypt(data, secretKey));         //IV || ciphertext || tag
             fos.flush();
         }
     }
 
     private byte[] decryptFromFile(File inputFile, SecretKey secretKey) throws IOException, GeneralSecurityException {
+        byte[] combined = new byte[(int) inputFile.length()];
         try (FileInputStream fis = new FileInputStream(inputFile)) {
-            byte[] iv = new byte[BACKUP_GCM_IV_SIZE_BYTES];
-            if (fis.read(iv) != BACKUP_GCM_IV_SIZE_BYTES) {
-                throw new IOException("IV non letto correttamente.");
+            int offset = 0;
+            while (offset < combined.length) {
+                int read = fis.read(combined, offset, combined.length - offset);
+                if (read == -1) {
+                    throw new IOException("File di backup troncato.");
+                }
+                offset += read;
             }
-            GCMParameterSpec gcmSpec = new GCMParameterSpec(SecurityUtils.getGcmTagLengthBytes() * 8, iv);
-
-            Cipher cipher = Cipher.getInstance(BACKUP_TRANSFORMATION);
-            cipher.init(Cipher.DECRYPT_MODE, secretKey, gcmSpec);
-
-            byte[] encryptedDataWithTag = new byte[fis.available()];
-            fis.read(encryptedDataWithTag);
-            return cipher.doFinal(encryptedDataWithTag);
         }
+        return AeadCodec.decrypt(combined, secretKey);
     }
 
     private void addFileToZip(File fileToZip, String entryName, ZipOutputStream zos) throws IOException {
@@ -0,0 +1,72 @@
+package com.example.securenotes.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.example.securenotes.data.database.AppDatabase;
+import com.example.securenotes.data.receiver.SelfDestructScheduler;
+import com.example.securenotes.data.repository.DecryptedNoteCache;
+import com.example.securenotes.data.repository.FileArchiveRepository;
+import com.example.securenotes.data.repository.SearchResultCache;
+import com.example.securenotes.data.search.TrigramIndex;
+import com.example.securenotes.security.DecryptedSegmentCache;
+import com.example.securenotes.security.SessionKeyVault;
+
+import java.io.File;
+
+// Wipe completo del vault basato sulla distruzione delle chiavi (crypto-shredding): si eliminano le righe,
+// che contengono le chiavi dati, e il seed della chiave di sessione. Il costo non dipende dalla dimensione
+// dei file archiviati; i file cifrati, ormai illeggibili, vengono cancellati dopo in background.
+public class PanicWipeManager {
+
+    private static final String TAG = "PanicWipeManager";
+    private final Context context;
+    private final AppDatabase db;
+
+    public PanicWipeManager(Context context) {
+        this.context = context.getApplicationContext();
+        this.db = AppDatabase.getDatabase(this.context);
+    }
+
+    // Bloccante: va chiamato fuori dal main thread. Dopo il wipe la sessione va chiusa (SessionManager.logoutNow)
+    public void wipeAll() {
+        long start = System.nanoTime();
+
+        // 1. Note (con blocchi, token e tag a cascata) e file archiviati: con secure_delete le pagine vengono azzerate
+        db.runInTransaction(() -> {
+            db.noteDao().deleteAll();
+            db.archivedFileDao().deleteAll();
+            db.tagDao().deleteUnusedTags();
+        });
+        // Le pagine vecchie possono restare nel WAL fino al checkpoint
+        db.checkpointWal();
+
+        // 2. DEK e KEK del vault: nemmeno un'eventuale copia delle chiavi dati è più decifrabile
+        SessionKeyVault.getInstance().destroyKeys(context);
+        DecryptedNoteCache.getInstance().clear();
+        DecryptedSegmentCache.getInstance().clear();
+        SearchResultCache.clearIfInitialized();
+        TrigramIndex.getInstance().clear();
+        new SelfDestructScheduler(context).scheduleNext();          //nessuna nota: l'allarme viene rimosso
+
+        Log.i(TAG, "Chiavi distrutte in " + (System.nanoTime() - start) / 1_000_000 + " ms.");
+
+        // 3. Ciphertext ormai inutile: rimosso senza far attendere l'utente
+        AppExecutors.getInstance().background().execute(() -> {
+            deleteRecursive(new File(context.getFilesDir(), FileArchiveRepository.ENCRYPTED_FILES_DIR));
+            deleteRecursive(new File(context.getCacheDir(), FileArchiveRepository.TEMP_DECRYPTED_FILES_DIR));
+        });
+    }
+
+    private void deleteRecursive(File fileOrDirectory) {
+        File[] children = fileOrDirectory.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursive(child);
+            }
+        }
+        if (fileOrDirectory.exists() && !fileOrDirectory.delete()) {
+            Log.w(TAG, "Impossibile eliminare: " + fileOrDirectory.getName());
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.securenotes.data.model;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Verifica la normalizzazione dei nomi dei tag: minuscolo anche per le lettere non ASCII (che la collation NOCASE
+ * di SQLite non confrontava), spazi tolti, duplicati fusi mantenendo l'ordine di prima comparsa.
+ */
+public class TagTest {
+
+    @Test
+    public void parseTagNames_mergesCaseVariantsIncludingNonAscii() {
+        assertEquals(Arrays.asList("work", "città", "über"),
+                Tag.parseTagNames(" Work, CITTÀ ,work,città,Über, ÜBER"));
+    }
+
+    @Test
+    public void parseTagNames_skipsEmptyParts() {
+        assertEquals(Collections.singletonList("home"), Tag.parseTagNames(" , home,, "));
+        assertEquals(Collections.emptyList(), Tag.parseTagNames(null));
+    }
+
+    @Test
+    public void normalizeName_matchesParsedName() {
+        assertEquals(Tag.parseTagNames("Città").get(0), Tag.normalizeName("  CITTÀ "));
+    }
+}
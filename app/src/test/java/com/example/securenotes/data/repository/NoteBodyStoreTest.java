@@ -0,0 +1,165 @@
+package com.example.securenotes.data.repository;
+
+import com.example.securenotes.data.dao.NoteChunkDao;
+import com.example.securenotes.data.model.NoteChunk;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Verifica NoteBodyStore su un DAO in memoria: salvataggio e lettura di un corpo da 20 MB, blocchi che non spezzano
+ * le coppie surrogate e numero di blocchi riscritti per modifica sul posto, aggiunta in coda, accorciamento e
+ * inserimento all'inizio (che con i confini fissi riscrive tutti i blocchi).
+ */
+public class NoteBodyStoreTest {
+
+    private static final int NOTE_ID = 7;
+    private static final int LARGE_BODY_CHARS = 20 * 1024 * 1024;
+
+    private InMemoryChunkDao chunkDao;
+    private NoteBodyStore store;
+    private SecretKey noteKey;
+    private SecretKey digestKey;
+
+    @Before
+    public void setUp() throws Exception {
+        chunkDao = new InMemoryChunkDao();
+        store = new NoteBodyStore(chunkDao);
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(256);
+        noteKey = generator.generateKey();
+        byte[] macKey = new byte[32];
+        new Random(1).nextBytes(macKey);
+        digestKey = new SecretKeySpec(macKey, "HmacSHA256");
+    }
+
+    @Test
+    public void saveAndLoad_20MegabyteBody() throws Exception {
+        String body = randomText(LARGE_BODY_CHARS, 42);
+        List<String> chunks = NoteBodyStore.split(body);
+
+        int rewritten = store.writeChunks(NOTE_ID, chunks, noteKey, digestKey);
+
+        assertEquals(chunks.size(), rewritten);
+        assertEquals(chunks.size(), chunkDao.rows.size());
+        assertEquals(body, store.readChunks(NOTE_ID, chunks.size(), noteKey));
+    }
+
+    @Test
+    public void split_keepsSurrogatePairsTogether() {
+        StringBuilder body = new StringBuilder(randomText(NoteBodyStore.CHUNK_CHARS - 1, 3));
+        body.append("😀");            //coppia surrogata a cavallo del confine
+        body.append(randomText(100, 4));
+
+        List<String> chunks = NoteBodyStore.split(body.toString());
+
+        assertEquals(NoteBodyStore.CHUNK_CHARS - 1, chunks.get(0).length());
+        assertFalse(Character.isHighSurrogate(chunks.get(0).charAt(chunks.get(0).length() - 1)));
+        assertEquals(body.toString(), String.join("", chunks));
+    }
+
+    @Test
+    public void sameLengthEdit_rewritesOneChunk() throws Exception {
+        String body = randomText(10 * NoteBodyStore.CHUNK_CHARS, 5);
+        store.writeChunks(NOTE_ID, NoteBodyStore.split(body), noteKey, digestKey);
+
+        int middle = 5 * NoteBodyStore.CHUNK_CHARS + 10;
+        String edited = body.substring(0, middle) + "#" + body.substring(middle + 1);
+        List<String> chunks = NoteBodyStore.split(edited);
+
+        assertEquals(1, store.writeChunks(NOTE_ID, chunks, noteKey, digestKey));
+        assertEquals(edited, store.readChunks(NOTE_ID, chunks.size(), noteKey));
+    }
+
+    @Test
+    public void append_rewritesOnlyLastChunk() throws Exception {
+        String body = randomText(10 * NoteBodyStore.CHUNK_CHARS + 500, 6);
+        store.writeChunks(NOTE_ID, NoteBodyStore.split(body), noteKey, digestKey);
+
+        String edited = body + randomText(200, 7);
+        List<String> chunks = NoteBodyStore.split(edited);
+
+        assertEquals(1, store.writeChunks(NOTE_ID, chunks, noteKey, digestKey));
+        assertEquals(edited, store.readChunks(NOTE_ID, chunks.size(), noteKey));
+    }
+
+    @Test
+    public void truncate_deletesTrailingChunks() throws Exception {
+        String body = randomText(10 * NoteBodyStore.CHUNK_CHARS, 8);
+        store.writeChunks(NOTE_ID, NoteBodyStore.split(body), noteKey, digestKey);
+
+        String edited = body.substring(0, 4 * NoteBodyStore.CHUNK_CHARS);
+        List<String> chunks = NoteBodyStore.split(edited);
+
+        assertEquals(0, store.writeChunks(NOTE_ID, chunks, noteKey, digestKey));
+        assertEquals(4, chunkDao.rows.size());
+        assertEquals(edited, store.readChunks(NOTE_ID, chunks.size(), noteKey));
+    }
+
+    // Limite dei confini fissi: il testo dopo l'inserimento si sposta e nessun blocco resta uguale al suo indice
+    @Test
+    public void insertAtStart_rewritesEveryChunk() throws Exception {
+        String body = randomText(10 * NoteBodyStore.CHUNK_CHARS, 9);
+        store.writeChunks(NOTE_ID, NoteBodyStore.split(body), noteKey, digestKey);
+
+        String edited = "#" + body;
+        List<String> chunks = NoteBodyStore.split(edited);
+
+        assertEquals(chunks.size(), store.writeChunks(NOTE_ID, chunks, noteKey, digestKey));
+        assertEquals(edited, store.readChunks(NOTE_ID, chunks.size(), noteKey));
+    }
+
+    private static String randomText(int length, long seed) {
+        Random random = new Random(seed);
+        char[] text = new char[length];
+        for (int i = 0; i < length; i++) {
+            text[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(text);
+    }
+
+    // Una sola nota: le righe sono indicizzate per chunk_index come la chiave primaria di note_chunks
+    private static final class InMemoryChunkDao implements NoteChunkDao {
+        final Map<Integer, NoteChunk> rows = new TreeMap<>();
+
+        @Override
+        public void upsertChunks(List<NoteChunk> chunks) {
+            for (NoteChunk chunk : chunks) {
+                rows.put(chunk.chunkIndex, chunk);
+            }
+        }
+
+        @Override
+        public List<byte[]> getChunkDigests(int noteId) {
+            List<byte[]> digests = new ArrayList<>(rows.size());
+            for (NoteChunk chunk : rows.values()) {
+                digests.add(chunk.digest);
+            }
+            return digests;
+        }
+
+        @Override
+        public byte[] getChunkData(int noteId, int chunkIndex) {
+            NoteChunk chunk = rows.get(chunkIndex);
+            return chunk != null ? chunk.data : null;
+        }
+
+        @Override
+        public void deleteChunksFrom(int noteId, int fromIndex) {
+            rows.keySet().removeIf(index -> index >= fromIndex);
+        }
+    }
+}
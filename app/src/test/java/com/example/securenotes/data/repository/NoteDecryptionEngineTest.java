@@ -0,0 +1,132 @@
+package com.example.securenotes.data.repository;
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifica ordine, equivalenza con la decrittografia sequenziale e gestione degli errori del NoteDecryptionEngine.
+ * Con SECURENOTES_BENCHMARK=true misura anche il throughput da 1 core a tutti i core disponibili.
+ */
+public class NoteDecryptionEngineTest {
+
+    private static final int IV_SIZE = 12;
+    private static final int TAG_BITS = 128;
+    private static final int BENCHMARK_NOTES = 5000;
+    private static final int NOTE_SIZE_CHARS = 2048;
+
+    private static SecretKey key;
+
+    @BeforeClass
+    public static void setUpKey() throws Exception {
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(256);
+        key = generator.generateKey();
+    }
+
+    @Test
+    public void decryptAll_keepsOriginalOrder() throws Exception {
+        List<byte[]> encrypted = encryptNotes(500, 64);
+        NoteDecryptionEngine engine = new NoteDecryptionEngine(4);
+
+        List<String> decrypted = engine.decryptAll(encrypted, NoteDecryptionEngineTest::decrypt);
+
+        assertEquals(500, decrypted.size());
+        for (int i = 0; i < decrypted.size(); i++) {
+            assertEquals(String.valueOf(i), decrypted.get(i).substring(0, decrypted.get(i).indexOf('|')));
+        }
+    }
+
+    @Test
+    public void decryptAll_parallelMatchesSequential() throws Exception {
+        List<byte[]> encrypted = encryptNotes(200, 300);
+
+        List<String> sequential = new NoteDecryptionEngine(1).decryptAll(encrypted, NoteDecryptionEngineTest::decrypt);
+        List<String> parallel = new NoteDecryptionEngine(4).decryptAll(encrypted, NoteDecryptionEngineTest::decrypt);
+
+        assertEquals(sequential, parallel);
+    }
+
+    @Test
+    public void decryptAll_skipsNotesFailingAuthentication() throws Exception {
+        List<byte[]> encrypted = encryptNotes(300, 64);
+        encrypted.get(10)[IV_SIZE] ^= 1;            //ciphertext alterato: il tag GCM non è più valido
+        encrypted.get(250)[IV_SIZE + 3] ^= 1;
+        NoteDecryptionEngine engine = new NoteDecryptionEngine(4);
+
+        List<String> decrypted = engine.decryptAll(encrypted, NoteDecryptionEngineTest::decrypt);
+
+        assertEquals(298, decrypted.size());
+        for (String note : decrypted) {
+            assertFalse(note.startsWith("10|"));
+            assertFalse(note.startsWith("250|"));
+        }
+    }
+
+    @Test
+    public void benchmark_throughputScalesWithCores() throws Exception {
+        Assume.assumeTrue(Boolean.parseBoolean(System.getenv("SECURENOTES_BENCHMARK")));
+        List<byte[]> encrypted = encryptNotes(BENCHMARK_NOTES, NOTE_SIZE_CHARS);
+        int cores = Runtime.getRuntime().availableProcessors();
+        Assume.assumeTrue(cores > 1);
+
+        double singleThread = runBenchmark(encrypted, 1);
+        double allCores = runBenchmark(encrypted, cores);
+
+        assertTrue("Con " + cores + " thread: " + allCores + " note/s contro " + singleThread + " con uno", allCores > singleThread);
+    }
+
+    // Note al secondo con il parallelismo indicato
+    private static double runBenchmark(List<byte[]> encrypted, int parallelism) {
+        NoteDecryptionEngine engine = new NoteDecryptionEngine(parallelism);
+        engine.decryptAll(encrypted, NoteDecryptionEngineTest::decrypt);        //warm-up JIT
+
+        long start = System.nanoTime();
+        List<String> decrypted = engine.decryptAll(encrypted, NoteDecryptionEngineTest::decrypt);
+        long elapsedNanos = System.nanoTime() - start;
+
+        assertEquals(encrypted.size(), decrypted.size());
+        return encrypted.size() / (elapsedNanos / 1_000_000_000.0);
+    }
+
+    private static List<byte[]> encryptNotes(int count, int sizeChars) throws Exception {
+        SecureRandom random = new SecureRandom();
+        StringBuilder padding = new StringBuilder();
+        for (int i = 0; i < sizeChars; i++) {
+            padding.append((char) ('a' + i % 26));
+        }
+        List<byte[]> encrypted = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] iv = new byte[IV_SIZE];
+            random.nextBytes(iv);
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+            byte[] ciphertext = cipher.doFinal((i + "|" + padding).getBytes(StandardCharsets.UTF_8));
+            byte[] combined = new byte[IV_SIZE + ciphertext.length];
+            System.arraycopy(iv, 0, combined, 0, IV_SIZE);
+            System.arraycopy(ciphertext, 0, combined, IV_SIZE, ciphertext.length);
+            encrypted.add(combined);
+        }
+        return encrypted;
+    }
+
+    private static String decrypt(byte[] combined) throws java.security.GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, combined, 0, IV_SIZE));
+        return new String(cipher.doFinal(combined, IV_SIZE, combined.length - IV_SIZE), StandardCharsets.UTF_8);
+    }
+}
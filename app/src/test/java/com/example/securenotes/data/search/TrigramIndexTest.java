@@ -0,0 +1,151 @@
+package com.example.securenotes.data.search;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifica ranking, tolleranza agli errori di battitura e aggiornamenti incrementali del TrigramIndex
+ * Con SECURENOTES_BENCHMARK=true verifica anche la latenza per tasto digitato su 20.000 note (p95 sotto la soglia).
+ */
+public class TrigramIndexTest {
+
+    private static final int BENCHMARK_NOTES = 20_000;
+    private static final int BENCHMARK_CONTENT_WORDS = 300;
+    private static final int RESULT_LIMIT = 100;
+    private static final double MAX_KEYSTROKE_MILLIS = 20.0;
+
+    private static final String[] VOCABULARY = {
+            "meeting", "project", "budget", "password", "account", "travel", "invoice", "doctor", "recipe",
+            "shopping", "birthday", "contract", "report", "review", "deadline", "server", "backup", "family",
+            "holiday", "insurance", "garden", "training", "payment", "flight", "hotel", "schedule", "notes",
+            "client", "design", "release", "bug", "feature", "kitchen", "school", "letter", "bank", "music",
+            "movie", "book", "car", "repair", "appointment", "gift", "phone", "email", "address", "office"
+    };
+
+    private TrigramIndex index;
+
+    @Before
+    public void setUp() {
+        index = new TrigramIndex();
+    }
+
+    @Test
+    public void search_ranksTitleAboveContentAndNewerFirst() {
+        index.put(1, "Groceries", "home", "remember the project files", 100);
+        index.put(2, "Project plan", "work", "milestones", 50);
+        index.put(3, "Other", "misc", "another project note", 200);
+
+        List<Integer> results = index.search("project", 10);
+
+        assertEquals(Arrays.asList(2, 3, 1), results);      //titolo prima, poi contenuto dal più recente
+    }
+
+    @Test
+    public void search_toleratesTypos() {
+        index.put(1, "Quarterly report", "", "numbers", 1);
+        index.put(2, "Shopping", "", "milk and bread", 2);
+
+        assertEquals(Collections.singletonList(1), index.search("quartely", 10));
+        assertEquals(Collections.singletonList(1), index.search("repot", 10));
+    }
+
+    @Test
+    public void search_matchesWordPrefixWhileTyping() {
+        index.put(1, "Meeting notes", "", "", 1);
+
+        assertTrue(index.search("me", 10).contains(1));
+        assertTrue(index.search("meet", 10).contains(1));
+        assertFalse(TrigramIndex.isSearchable("m"));
+    }
+
+    @Test
+    public void search_matchesTags() {
+        index.put(1, "Untitled", "finance, urgent", "", 1);
+        index.put(2, "Untitled", "personal", "", 2);
+
+        assertEquals(Collections.singletonList(1), index.search("urgent", 10));
+    }
+
+    @Test
+    public void put_replacesPreviousVersionAndRemoveDropsNote() {
+        index.put(1, "Holiday", "", "beach", 1);
+        index.put(1, "Dentist", "", "appointment", 2);
+
+        assertTrue(index.search("holiday", 10).isEmpty());
+        assertEquals(Collections.singletonList(1), index.search("dentist", 10));
+
+        index.remove(1);
+        assertTrue(index.search("dentist", 10).isEmpty());
+        assertEquals(0, index.size());
+
+        index.put(7, "Dentist again", "", "", 3);              //riusa lo slot liberato
+        assertEquals(Collections.singletonList(7), index.search("dentist", 10));
+    }
+
+    @Test
+    public void clear_dropsEverything() {
+        index.put(1, "Secret", "", "content", 1);
+        index.markReady(index.getEpoch());
+
+        index.clear();
+
+        assertFalse(index.isReady());
+        assertEquals(0, index.size());
+        assertTrue(index.search("secret", 10).isEmpty());
+    }
+
+    @Test
+    public void benchmark_keystrokeLatencyAt20kNotes() {
+        Assume.assumeTrue(Boolean.parseBoolean(System.getenv("SECURENOTES_BENCHMARK")));
+        Random random = new Random(42);
+        for (int id = 1; id <= BENCHMARK_NOTES; id++) {
+            index.put(id, randomText(random, 4), randomText(random, 2), randomText(random, BENCHMARK_CONTENT_WORDS), id);
+        }
+
+        List<String> keystrokes = new ArrayList<>();
+        for (String query : new String[]{"project deadline", "insurnace payment", "hotel flight schedule"}) {
+            for (int length = 1; length <= query.length(); length++) {
+                keystrokes.add(query.substring(0, length));
+            }
+        }
+        for (int i = 0; i < 3; i++) {               //warm-up JIT
+            for (String keystroke : keystrokes) {
+                index.search(keystroke, RESULT_LIMIT);
+            }
+        }
+
+        double[] latencies = new double[keystrokes.size()];
+        for (int i = 0; i < keystrokes.size(); i++) {
+            long start = System.nanoTime();
+            index.search(keystrokes.get(i), RESULT_LIMIT);
+            latencies[i] = (System.nanoTime() - start) / 1_000_000.0;
+        }
+        Arrays.sort(latencies);
+        double p95 = latencies[(int) (latencies.length * 0.95)];
+
+        assertEquals(BENCHMARK_NOTES, index.size());
+        assertTrue("p95 per tasto oltre " + MAX_KEYSTROKE_MILLIS + " ms: " + p95, p95 < MAX_KEYSTROKE_MILLIS);
+    }
+
+    private static String randomText(Random random, int words) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            text.append(VOCABULARY[random.nextInt(VOCABULARY.length)]);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.securenotes.security;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifica DecryptedSegmentCache con orologio e pianificazione simulati: budget in byte, ordine LRU, scadenza
+ * dopo il TTL (in lettura e con il controllo pianificato), intestazioni diverse, evictFile e conteggio di hit e miss.
+ */
+public class DecryptedSegmentCacheTest {
+
+    private static final int SEGMENT = 1024;
+    private static final long MAX_BYTES = 4L * SEGMENT;
+    private static final long TTL_MS = 1000;
+    private static final byte[] HEADER = {1, 2, 3};
+    private static final byte[] OTHER_HEADER = {1, 2, 4};
+
+    private long now;
+    private final List<Runnable> sweeps = new ArrayList<>();
+    private final List<Long> sweepDelays = new ArrayList<>();
+    private DecryptedSegmentCache cache;
+
+    @Before
+    public void setUp() {
+        now = 0;
+        sweeps.clear();
+        sweepDelays.clear();
+        cache = new DecryptedSegmentCache(MAX_BYTES, TTL_MS, () -> now, (sweep, delayMs) -> {
+            sweeps.add(sweep);
+            sweepDelays.add(delayMs);
+        });
+    }
+
+    @Test
+    public void get_countsMissesAndHitsAndCopiesPlaintext() {
+        byte[] out = new byte[SEGMENT];
+        assertEquals(-1, cache.get("a", HEADER, 0, out));
+
+        cache.put("a", HEADER, 0, segment(7), 100);
+
+        assertEquals(100, cache.get("a", HEADER, 0, out));
+        assertArrayEquals(Arrays.copyOf(segment(7), 100), Arrays.copyOf(out, 100));
+        assertEquals(-1, cache.get("a", HEADER, 1, out));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(100, cache.getSizeBytes());
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyUsedOverByteBudget() {
+        for (int index = 0; index < 4; index++) {
+            cache.put("a", HEADER, index, segment(index), SEGMENT);
+        }
+        byte[] out = new byte[SEGMENT];
+        assertEquals(SEGMENT, cache.get("a", HEADER, 0, out));      //il segmento 0 diventa il più recente
+
+        cache.put("a", HEADER, 4, segment(4), SEGMENT);
+
+        assertEquals(MAX_BYTES, cache.getSizeBytes());
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(-1, cache.get("a", HEADER, 1, out));
+        for (int index : new int[]{0, 2, 3, 4}) {
+            assertEquals("segmento " + index, SEGMENT, cache.get("a", HEADER, index, out));
+        }
+    }
+
+    @Test
+    public void put_ignoresSegmentsOverQuarterOfBudget() {
+        cache.put("a", HEADER, 0, new byte[SEGMENT + 1], SEGMENT + 1);
+
+        assertEquals(0, cache.getSizeBytes());
+        assertEquals(-1, cache.get("a", HEADER, 0, new byte[SEGMENT + 1]));
+    }
+
+    @Test
+    public void get_expiresEntriesNotReadWithinTtl() {
+        byte[] out = new byte[SEGMENT];
+        cache.put("a", HEADER, 0, segment(1), SEGMENT);
+
+        now = TTL_MS - 1;
+        assertEquals(SEGMENT, cache.get("a", HEADER, 0, out));      //la lettura rinnova la scadenza
+        now = 2 * TTL_MS - 2;
+        assertEquals(SEGMENT, cache.get("a", HEADER, 0, out));
+        now = 3 * TTL_MS;
+        assertEquals(-1, cache.get("a", HEADER, 0, out));
+
+        assertEquals(1, cache.getExpirationCount());
+        assertEquals(0, cache.getSizeBytes());
+    }
+
+    @Test
+    public void sweep_runsAtEarliestExpiryAndRemovesExpiredEntries() {
+        cache.put("a", HEADER, 0, segment(1), SEGMENT);
+        now = 400;
+        cache.put("a", HEADER, 1, segment(2), SEGMENT);
+        assertEquals(1, sweeps.size());                             //un solo controllo in sospeso
+        assertEquals(TTL_MS, (long) sweepDelays.get(0));
+
+        now = TTL_MS;
+        sweeps.get(0).run();
+
+        assertEquals(SEGMENT, cache.getSizeBytes());
+        assertEquals(1, cache.getExpirationCount());
+        assertEquals(2, sweeps.size());
+        assertEquals(400, (long) sweepDelays.get(1));               //scadenza del segmento 1, non un altro TTL intero
+
+        now = 400 + TTL_MS;
+        sweeps.get(1).run();
+
+        assertEquals(0, cache.getSizeBytes());
+        assertEquals(2, sweeps.size());                             //cache vuota: nessun altro controllo
+    }
+
+    @Test
+    public void get_dropsEntryWrittenWithAnotherHeader() {
+        cache.put("a", HEADER, 0, segment(1), SEGMENT);
+        now = 500;
+        cache.put("a", HEADER, 1, segment(2), SEGMENT);
+        byte[] out = new byte[SEGMENT];
+
+        assertEquals(-1, cache.get("a", OTHER_HEADER, 0, out));
+        assertEquals(SEGMENT, cache.getSizeBytes());
+
+        now = 500 + TTL_MS;                                         //la voce rimasta scade senza attendere altre letture
+        assertEquals(-1, cache.get("a", HEADER, 1, out));
+        assertEquals(0, cache.getSizeBytes());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void evictFile_removesOnlySegmentsOfThatFile() {
+        cache.put("a", HEADER, 0, segment(1), SEGMENT);
+        cache.put("a", HEADER, 1, segment(2), SEGMENT);
+        cache.put("ab", HEADER, 0, segment(3), SEGMENT);
+
+        cache.evictFile("a");
+
+        byte[] out = new byte[SEGMENT];
+        assertEquals(-1, cache.get("a", HEADER, 0, out));
+        assertEquals(-1, cache.get("a", HEADER, 1, out));
+        assertEquals(SEGMENT, cache.get("ab", HEADER, 0, out));
+        assertArrayEquals(segment(3), out);
+        assertEquals(SEGMENT, cache.getSizeBytes());
+        assertTrue(cache.getStats().startsWith("1 hit, 2 miss"));
+    }
+
+    private static byte[] segment(int fill) {
+        byte[] bytes = new byte[SEGMENT];
+        Arrays.fill(bytes, (byte) fill);
+        return bytes;
+    }
+}
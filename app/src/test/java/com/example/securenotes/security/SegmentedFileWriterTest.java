@@ -0,0 +1,291 @@
+package com.example.securenotes.security;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Verifica il formato a segmenti scritto da SegmentedFileWriter (round trip, file vuoti, confini di segmento,
+ * troncamento). Solo con SECURENOTES_BENCHMARK_MAX_MB impostata confronta in MB/s il vecchio ciclo a byte[] da 1 KB
+ * con il ciclo su FileChannel e buffer diretti, su file fino a quella dimensione (es. 64, o 1024 per 1 GB).
+ */
+public class SegmentedFileWriterTest {
+
+    private static final int TEST_SEGMENT_SIZE = 1024;
+    private static final int IV_SIZE = 12;
+    private static final int TAG_BITS = 128;
+    private static final int OLD_BUFFER_SIZE = 1024;
+    private static final long ROUND_BYTES = 32L * 1024 * 1024;
+    private static final int MAX_ROUNDS = 2000;
+    // Il vecchio ciclo di decrittografia riceve tutto il testo in chiaro da doFinal(): oltre questa soglia si misura solo la cifratura
+    private static final long OLD_DECRYPT_MAX_BYTES = 256L * 1024 * 1024;
+
+    private static SecretKey key;
+
+    private File workDir;
+
+    @BeforeClass
+    public static void setUpKey() throws Exception {
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(256);
+        key = generator.generateKey();
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        workDir = File.createTempFile("segmented", "");
+        workDir.delete();
+        workDir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = workDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        workDir.delete();
+    }
+
+    @Test
+    public void encrypt_roundTripsAcrossSegmentBoundaries() throws Exception {
+        int[] sizes = {0, 1, TEST_SEGMENT_SIZE - 1, TEST_SEGMENT_SIZE, TEST_SEGMENT_SIZE + 1, 5 * TEST_SEGMENT_SIZE, 5 * TEST_SEGMENT_SIZE + 17};
+        for (int size : sizes) {
+            byte[] plaintext = randomBytes(size);
+            File plainFile = write("plain-" + size, plaintext);
+            File encryptedFile = new File(workDir, "enc-" + size);
+
+            long written = encryptNew(plainFile, encryptedFile, TEST_SEGMENT_SIZE);
+
+            assertEquals(size, written);
+            try (SegmentedFileReader reader = new SegmentedFileReader(encryptedFile, key)) {
+                assertEquals(size, reader.size());
+            }
+            assertArrayEquals("size " + size, plaintext, read(decryptNew(encryptedFile)));
+        }
+    }
+
+    @Test
+    public void encrypt_randomAccessReadsMatchPlaintext() throws Exception {
+        byte[] plaintext = randomBytes(7 * TEST_SEGMENT_SIZE + 300);
+        File encryptedFile = new File(workDir, "enc");
+        encryptNew(write("plain", plaintext), encryptedFile, TEST_SEGMENT_SIZE);
+
+        // cache propria senza Looper: su JVM quella di getInstance() non può pianificare il controllo delle scadenze
+        DecryptedSegmentCache cache = new DecryptedSegmentCache(1024 * 1024, 60_000, System::currentTimeMillis, (sweep, delayMs) -> { });
+        try (SegmentedFileReader reader = new SegmentedFileReader(encryptedFile, key, cache)) {
+            byte[] chunk = new byte[1500];
+            for (long position : new long[]{0, 1000, 3 * TEST_SEGMENT_SIZE - 7, plaintext.length - 100}) {
+                int read = reader.read(position, chunk, 0, chunk.length);
+                int expected = (int) Math.min(chunk.length, plaintext.length - position);
+                assertEquals(expected, read);
+                assertArrayEquals(Arrays.copyOfRange(plaintext, (int) position, (int) position + expected), Arrays.copyOf(chunk, read));
+            }
+            assertEquals(-1, reader.read(plaintext.length, chunk, 0, chunk.length));
+        }
+    }
+
+    @Test
+    public void decrypt_rejectsTruncatedFile() throws Exception {
+        File encryptedFile = new File(workDir, "enc");
+        encryptNew(write("plain", randomBytes(3 * TEST_SEGMENT_SIZE)), encryptedFile, TEST_SEGMENT_SIZE);
+        try (RandomAccessFile file = new RandomAccessFile(encryptedFile, "rw")) {
+            file.setLength(file.length() - (TEST_SEGMENT_SIZE + SegmentedAead.TAG_SIZE));       //ultimo segmento rimosso
+        }
+
+        try {
+            decryptNew(encryptedFile);
+            fail("Un file senza l'ultimo segmento non deve essere accettato");
+        } catch (GeneralSecurityException expected) {
+            // il penultimo segmento non ha il flag di fine: il tag non torna
+        }
+    }
+
+    @Test
+    public void benchmark_channelLoopVersusByteArrayLoop() throws Exception {
+        String maxMegabytes = System.getenv("SECURENOTES_BENCHMARK_MAX_MB");
+        Assume.assumeTrue(maxMegabytes != null);
+        long maxBytes = Long.parseLong(maxMegabytes.trim()) * 1024 * 1024;
+        byte[] block = randomBytes(1024 * 1024);
+        for (long size = 1024; size <= maxBytes; size *= 4) {
+            File plainFile = new File(workDir, "plain");
+            try (OutputStream os = new FileOutputStream(plainFile)) {
+                for (long remaining = size; remaining > 0; remaining -= block.length) {
+                    os.write(block, 0, (int) Math.min(block.length, remaining));
+                }
+            }
+            runBenchmark(plainFile, size);
+            plainFile.delete();
+        }
+    }
+
+    private void runBenchmark(File plainFile, long size) throws Exception {
+        File oldEncrypted = new File(workDir, "old");
+        File newEncrypted = new File(workDir, "new");
+        int rounds = (int) Math.max(1, Math.min(MAX_ROUNDS, ROUND_BYTES / size));     //i file piccoli si ripetono per avere tempi misurabili
+        for (int i = 0; i < Math.min(rounds, 20); i++) {        //warm-up JIT
+            encryptOld(plainFile, oldEncrypted);
+            encryptNew(plainFile, newEncrypted, SegmentedAead.SEGMENT_SIZE);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            encryptOld(plainFile, oldEncrypted);
+        }
+        double oldEncrypt = megabytesPerSecond(size * rounds, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            encryptNew(plainFile, newEncrypted, SegmentedAead.SEGMENT_SIZE);
+        }
+        double newEncrypt = megabytesPerSecond(size * rounds, System.nanoTime() - start);
+
+        String oldDecrypt = "n/d";
+        if (size <= OLD_DECRYPT_MAX_BYTES) {
+            for (int i = 0; i < Math.min(rounds, 20); i++) {
+                decryptOld(oldEncrypted);
+            }
+            start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                decryptOld(oldEncrypted);
+            }
+            oldDecrypt = String.format("%.1f", megabytesPerSecond(size * rounds, System.nanoTime() - start));
+        }
+
+        for (int i = 0; i < Math.min(rounds, 20); i++) {
+            decryptNew(newEncrypted);
+        }
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            decryptNew(newEncrypted);
+        }
+        double newDecrypt = megabytesPerSecond(size * rounds, System.nanoTime() - start);
+
+        System.out.println(String.format("Archivio %s: cifratura %.1f -> %.1f MB/s, decrittografia %s -> %.1f MB/s (byte[] 1 KB -> FileChannel)",
+                describe(size), oldEncrypt, newEncrypt, oldDecrypt, newDecrypt));
+        oldEncrypted.delete();
+        newEncrypted.delete();
+    }
+
+    private static long encryptNew(File plainFile, File encryptedFile, int segmentSize) throws Exception {
+        try (FileChannel in = new FileInputStream(plainFile).getChannel();
+             FileChannel out = new FileOutputStream(encryptedFile).getChannel()) {
+            return new SegmentedFileWriter(key, segmentSize).encrypt(in, out);
+        }
+    }
+
+    private File decryptNew(File encryptedFile) throws Exception {
+        File decrypted = new File(workDir, "dec-new");
+        try (SegmentedFileReader reader = new SegmentedFileReader(encryptedFile, key);
+             FileChannel out = new FileOutputStream(decrypted).getChannel()) {
+            reader.decryptTo(out);
+        }
+        return decrypted;
+    }
+
+    // Il ciclo di encryptAndSaveFile prima del formato a segmenti: buffer da 1 KB e un nuovo array a ogni update()
+    private static void encryptOld(File plainFile, File encryptedFile) throws Exception {
+        byte[] iv = randomBytes(IV_SIZE);
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+        try (InputStream is = new FileInputStream(plainFile);
+             OutputStream os = new FileOutputStream(encryptedFile)) {
+            os.write(iv);
+            byte[] buffer = new byte[OLD_BUFFER_SIZE];
+            int bytesRead;
+            while ((bytesRead = is.read(buffer)) != -1) {
+                byte[] encryptedBytes = cipher.update(buffer, 0, bytesRead);
+                if (encryptedBytes != null) {
+                    os.write(encryptedBytes);
+                }
+            }
+            os.write(cipher.doFinal());
+        }
+    }
+
+    // Il ciclo di decryptFileToTemp prima del formato a segmenti
+    private void decryptOld(File encryptedFile) throws Exception {
+        try (InputStream is = new FileInputStream(encryptedFile);
+             OutputStream os = new FileOutputStream(new File(workDir, "dec-old"))) {
+            byte[] iv = new byte[IV_SIZE];
+            if (is.read(iv) != IV_SIZE) {
+                throw new IOException("IV incompleto");
+            }
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+            byte[] buffer = new byte[OLD_BUFFER_SIZE];
+            int bytesRead;
+            while ((bytesRead = is.read(buffer)) != -1) {
+                byte[] decryptedBytes = cipher.update(buffer, 0, bytesRead);
+                if (decryptedBytes != null) {
+                    os.write(decryptedBytes);
+                }
+            }
+            os.write(cipher.doFinal());
+        }
+    }
+
+    private static double megabytesPerSecond(long bytes, long elapsedNanos) {
+        return (bytes / (1024.0 * 1024.0)) / (elapsedNanos / 1_000_000_000.0);
+    }
+
+    private static String describe(long size) {
+        if (size >= 1024 * 1024 * 1024) {
+            return (size / (1024 * 1024 * 1024)) + " GB";
+        }
+        if (size >= 1024 * 1024) {
+            return (size / (1024 * 1024)) + " MB";
+        }
+        return (size / 1024) + " KB";
+    }
+
+    private File write(String name, byte[] content) throws IOException {
+        File file = new File(workDir, name);
+        try (OutputStream os = new FileOutputStream(file)) {
+            os.write(content);
+        }
+        return file;
+    }
+
+    private static byte[] read(File file) throws IOException {
+        try (FileChannel channel = new FileInputStream(file).getChannel()) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+                // lettura completa
+            }
+            return buffer.array();
+        }
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new SecureRandom().nextBytes(bytes);
+        return bytes;
+    }
+}